@@ -0,0 +1,64 @@
+package com.shelf_sense_backend.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.netty.channel.ChannelOption;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * HTTP client for the LM Studio API. The connection pool doubles as the
+ * concurrency limit: at most {@code max-connections} requests reach the model
+ * at once, up to {@code pending-acquire-max} more wait for a connection, and
+ * anything beyond that fails fast instead of piling up. Reactor Netty keeps
+ * a pool per remote host, so the limits apply to each inference endpoint.
+ */
+@Configuration
+public class AiClientConfig {
+
+    @Value("${lmstudio.client.max-connections:4}")
+    private int maxConnections;
+
+    @Value("${lmstudio.client.pending-acquire-max:64}")
+    private int pendingAcquireMax;
+
+    @Value("${lmstudio.client.pending-acquire-timeout-seconds:300}")
+    private long pendingAcquireTimeoutSeconds;
+
+    @Value("${lmstudio.client.connect-timeout-ms:5000}")
+    private int connectTimeoutMillis;
+
+    @Value("${lmstudio.client.response-timeout-seconds:120}")
+    private long responseTimeoutSeconds;
+
+    @Value("${lmstudio.client.max-response-bytes:4194304}")
+    private int maxResponseBytes;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider aiConnectionProvider() {
+        return ConnectionProvider.builder("lmstudio")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMax)
+                .pendingAcquireTimeout(Duration.ofSeconds(pendingAcquireTimeoutSeconds))
+                .maxIdleTime(Duration.ofSeconds(60))
+                .build();
+    }
+
+    @Bean
+    public WebClient aiWebClient(WebClient.Builder builder, ConnectionProvider aiConnectionProvider) {
+        HttpClient httpClient = HttpClient.create(aiConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .responseTimeout(Duration.ofSeconds(responseTimeoutSeconds));
+
+        return builder
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(maxResponseBytes))
+                .build();
+    }
+}
@@ -0,0 +1,106 @@
+package com.shelf_sense_backend.controller;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.shelf_sense_backend.dto.SpoolReplayResult;
+import com.shelf_sense_backend.model.BackfillJob;
+import com.shelf_sense_backend.service.MailboxBackfillService;
+import com.shelf_sense_backend.service.OrderEmailProcessingService;
+
+@RestController
+@RequestMapping("/api/ingestion")
+public class IngestionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionController.class);
+
+    @Autowired
+    private OrderEmailProcessingService emailProcessingService;
+
+    @Autowired
+    private MailboxBackfillService backfillService;
+
+    @PostMapping("/replay")
+    public ResponseEntity<?> replaySpool() {
+        try {
+            SpoolReplayResult result = emailProcessingService.replaySpool();
+            return ResponseEntity.ok(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Spool replay was interrupted", e);
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("status", "error");
+            errorResponse.put("message", "Replay interrupted");
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    @PostMapping("/failed-emails/retry")
+    public ResponseEntity<?> retryFailedEmails() {
+        try {
+            SpoolReplayResult result = emailProcessingService.retryDeadLetteredEmails();
+            return ResponseEntity.ok(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Retrying dead-lettered emails was interrupted", e);
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("status", "error");
+            errorResponse.put("message", "Retry interrupted");
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    @PostMapping("/backfill")
+    public ResponseEntity<?> startBackfill(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) Integer windowDays) {
+        try {
+            BackfillJob job = backfillService.startJob(from, to, windowDays);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/backfill")
+    public List<BackfillJob> getBackfillJobs() {
+        return backfillService.findAllJobs();
+    }
+
+    @GetMapping("/backfill/{id}")
+    public ResponseEntity<BackfillJob> getBackfillJob(@PathVariable Long id) {
+        Optional<BackfillJob> jobOpt = backfillService.findJob(id);
+        if (jobOpt.isPresent()) {
+            return ResponseEntity.ok(jobOpt.get());
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/backfill/{id}/resume")
+    public ResponseEntity<BackfillJob> resumeBackfillJob(@PathVariable Long id) {
+        Optional<BackfillJob> jobOpt = backfillService.resumeJob(id);
+        if (jobOpt.isPresent()) {
+            return ResponseEntity.ok(jobOpt.get());
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+}
@@ -2,23 +2,31 @@ package com.shelf_sense_backend.controller;
 
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import com.shelf_sense_backend.service.ReceiptOcrService;
+import com.shelf_sense_backend.model.ReceiptJob;
+import com.shelf_sense_backend.service.ReceiptJobService;
 
 @RestController
 @RequestMapping("/api/receipts")
@@ -28,7 +36,10 @@ public class ReceiptOcrController {
     private static final Logger logger = LoggerFactory.getLogger(ReceiptOcrController.class);
     
     @Autowired
-    private ReceiptOcrService receiptOcrService;
+    private ReceiptJobService receiptJobService;
+
+    @Value("${app.ocr.max-files-per-upload:64}")
+    private int maxFilesPerUpload;
     
     @PostMapping(value = "/extract-text", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> extractTextFromReceipt(@RequestParam("file") MultipartFile file) {
@@ -37,21 +48,90 @@ public class ReceiptOcrController {
         if (file.isEmpty() || file.getContentType() == null || !file.getContentType().startsWith("image/")) {
             return ResponseEntity.badRequest().body("Please upload a valid image file");
         }
-        
-        try {
 
-            receiptOcrService.processReceipt(file);
-            Map<String, String> response = new HashMap<>();
-            response.put("status", "success");
-            logger.info("Text extracted successfully from receipt image");
-            return ResponseEntity.ok(response);
-            
+        return submitJob(List.of(file));
+    }
+
+    @PostMapping(value = "/extract-text/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> extractTextFromReceipts(@RequestParam("files") List<MultipartFile> files) {
+        logger.info("Received receipt text extraction request with {} images", files.size());
+
+        if (files.isEmpty() || files.size() > maxFilesPerUpload) {
+            return ResponseEntity.badRequest().body("Please upload between 1 and " + maxFilesPerUpload + " images");
+        }
+        for (MultipartFile file : files) {
+            if (file.isEmpty() || file.getContentType() == null || !file.getContentType().startsWith("image/")) {
+                return ResponseEntity.badRequest()
+                        .body("Please upload valid image files, " + file.getOriginalFilename() + " is not an image");
+            }
+        }
+
+        return submitJob(files);
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<ReceiptJob> getJob(@PathVariable Long id) {
+        Optional<ReceiptJob> jobOpt = receiptJobService.findJob(id);
+        if (jobOpt.isPresent()) {
+            return ResponseEntity.ok(jobOpt.get());
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping(value = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamJob(@PathVariable Long id) {
+        Optional<SseEmitter> emitterOpt = receiptJobService.subscribe(id);
+        if (emitterOpt.isPresent()) {
+            return ResponseEntity.ok(emitterOpt.get());
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/jobs/{id}/retry")
+    public ResponseEntity<ReceiptJob> retryJob(@PathVariable Long id) {
+        Optional<ReceiptJob> jobOpt = receiptJobService.retryJob(id);
+        if (jobOpt.isPresent()) {
+            return ResponseEntity.ok(jobOpt.get());
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/jobs/{id}/confirm")
+    public ResponseEntity<ReceiptJob> confirmDuplicates(@PathVariable Long id) {
+        Optional<ReceiptJob> jobOpt = receiptJobService.confirmNearDuplicates(id);
+        if (jobOpt.isPresent()) {
+            return ResponseEntity.ok(jobOpt.get());
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/jobs/{id}/dismiss")
+    public ResponseEntity<ReceiptJob> dismissDuplicates(@PathVariable Long id) {
+        Optional<ReceiptJob> jobOpt = receiptJobService.dismissNearDuplicates(id);
+        if (jobOpt.isPresent()) {
+            return ResponseEntity.ok(jobOpt.get());
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    // OCR, extraction and saving run on the job workers; the upload only stores the images
+    private ResponseEntity<?> submitJob(List<MultipartFile> files) {
+        try {
+            ReceiptJob job = receiptJobService.submit(files);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/receipts/jobs/" + job.getId()))
+                    .body(job);
         } catch (IOException e) {
-            logger.error("Error extracting text from receipt image", e);
+            logger.error("Error storing receipt images", e);
             Map<String, String> errorResponse = new HashMap<>();
             errorResponse.put("status", "error");
-            errorResponse.put("message", "Failed to extract text: " + e.getMessage());
+            errorResponse.put("message", "Failed to store the receipt images: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
         }
     }
-} 
+}
@@ -0,0 +1,18 @@
+package com.shelf_sense_backend.dto;
+
+import java.util.Date;
+
+import jakarta.mail.Message;
+
+/**
+ * Header data of a candidate receipt email, read from a single bulk FETCH so
+ * filtering and dedup never go back to the server per message.
+ */
+public record EmailEnvelope(
+        Message message,
+        long uid,
+        String messageId,
+        String subject,
+        Date sentDate,
+        boolean seen) {
+}
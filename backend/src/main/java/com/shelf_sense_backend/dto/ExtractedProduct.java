@@ -0,0 +1,44 @@
+package com.shelf_sense_backend.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One element of the model's products_list. Classification answers only
+ * fill productName, generalName and foodType. The quantity is kept as text
+ * because the model returns it either as a number or as a string.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ExtractedProduct(
+        @JsonProperty("product_name") String productName,
+        @JsonProperty("quantity") String quantity,
+        @JsonProperty("weight") String weight,
+        @JsonProperty("general_name") String generalName,
+        @JsonProperty("food_type") String foodType) {
+
+    /**
+     * Whole-number quantity, or 1 if the model gave none or something that
+     * is not a number.
+     */
+    public int wholeQuantity() {
+        return wholeQuantity(quantity);
+    }
+
+    /**
+     * Quantity text such as "2" or "0,5" as a whole number, rounded up so a
+     * fraction of a unit still counts as one. Shared with the receipt
+     * parser, so both extraction paths count the same way.
+     */
+    public static int wholeQuantity(String quantity) {
+        if (quantity == null || quantity.isBlank()) {
+            return 1;
+        }
+        try {
+            return Math.max(1, (int) Math.ceil(Double.parseDouble(quantity.trim().replace(',', '.'))));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.shelf_sense_backend.dto;
+
+import java.util.List;
+
+/**
+ * Outcome for one receipt of a multi-image upload. A receipt photographed
+ * in several pieces lists every file that was stitched into its order.
+ * Duplicate is "exact" for a file that was already saved, with the order it
+ * was saved as, and "near" for a likely re-shoot of that order which waits
+ * for the user to confirm it.
+ */
+public record ReceiptUploadResult(
+        List<String> files,
+        String orderNumber,
+        Long orderId,
+        String error,
+        String duplicate) {
+}
@@ -0,0 +1,8 @@
+package com.shelf_sense_backend.dto;
+
+public record SpoolReplayResult(
+        int emails,
+        int ordersSaved,
+        int failed,
+        long elapsedMillis) {
+}
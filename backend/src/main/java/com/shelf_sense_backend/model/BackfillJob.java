@@ -0,0 +1,182 @@
+package com.shelf_sense_backend.model;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(name = "backfill_jobs")
+public class BackfillJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 255)
+    private String folderName;
+
+    @Column(nullable = false)
+    private LocalDate rangeStart;
+
+    @Column(nullable = false)
+    private LocalDate rangeEnd; // Exclusive
+
+    @Column(nullable = false)
+    private int windowDays;
+
+    @Column(nullable = false)
+    private LocalDate nextWindowStart; // Every window before this date has been committed
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private BackfillStatus status;
+
+    @Column(nullable = false)
+    private long messagesProcessed;
+
+    @Column(nullable = false)
+    private long ordersSaved;
+
+    @Column(nullable = false)
+    private long failedMessages;
+
+    @Column(nullable = false)
+    private long activeMillis; // Time spent working on windows, excluding downtime between resumes
+
+    @Column(length = 1000)
+    private String lastError;
+
+    @Column(nullable = false)
+    private Instant createdTimestamp;
+
+    @Column(nullable = false)
+    private Instant updatedTimestamp;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    public void setFolderName(String folderName) {
+        this.folderName = folderName;
+    }
+
+    public LocalDate getRangeStart() {
+        return rangeStart;
+    }
+
+    public void setRangeStart(LocalDate rangeStart) {
+        this.rangeStart = rangeStart;
+    }
+
+    public LocalDate getRangeEnd() {
+        return rangeEnd;
+    }
+
+    public void setRangeEnd(LocalDate rangeEnd) {
+        this.rangeEnd = rangeEnd;
+    }
+
+    public int getWindowDays() {
+        return windowDays;
+    }
+
+    public void setWindowDays(int windowDays) {
+        this.windowDays = windowDays;
+    }
+
+    public LocalDate getNextWindowStart() {
+        return nextWindowStart;
+    }
+
+    public void setNextWindowStart(LocalDate nextWindowStart) {
+        this.nextWindowStart = nextWindowStart;
+    }
+
+    public BackfillStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(BackfillStatus status) {
+        this.status = status;
+    }
+
+    public long getMessagesProcessed() {
+        return messagesProcessed;
+    }
+
+    public void setMessagesProcessed(long messagesProcessed) {
+        this.messagesProcessed = messagesProcessed;
+    }
+
+    public long getOrdersSaved() {
+        return ordersSaved;
+    }
+
+    public void setOrdersSaved(long ordersSaved) {
+        this.ordersSaved = ordersSaved;
+    }
+
+    public long getFailedMessages() {
+        return failedMessages;
+    }
+
+    public void setFailedMessages(long failedMessages) {
+        this.failedMessages = failedMessages;
+    }
+
+    public long getActiveMillis() {
+        return activeMillis;
+    }
+
+    public void setActiveMillis(long activeMillis) {
+        this.activeMillis = activeMillis;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getCreatedTimestamp() {
+        return createdTimestamp;
+    }
+
+    public void setCreatedTimestamp(Instant createdTimestamp) {
+        this.createdTimestamp = createdTimestamp;
+    }
+
+    public Instant getUpdatedTimestamp() {
+        return updatedTimestamp;
+    }
+
+    public void setUpdatedTimestamp(Instant updatedTimestamp) {
+        this.updatedTimestamp = updatedTimestamp;
+    }
+
+    public double getMessagesPerSecond() {
+        return activeMillis == 0 ? 0 : messagesProcessed * 1000.0 / activeMillis;
+    }
+
+    public double getOrdersPerSecond() {
+        return activeMillis == 0 ? 0 : ordersSaved * 1000.0 / activeMillis;
+    }
+}
@@ -0,0 +1,7 @@
+package com.shelf_sense_backend.model;
+
+public enum BackfillStatus {
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,83 @@
+package com.shelf_sense_backend.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(name = "extraction_cache")
+public class ExtractionCacheEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, length = 64)
+    private String cacheKey; // SHA-256 of model, prompt version and normalised prompt
+
+    @Lob
+    @Column(nullable = false, columnDefinition = "LONGTEXT")
+    private String responseJson; // Parsed products_list as returned to callers
+
+    @Column(nullable = false)
+    private Instant createdTimestamp;
+
+    private Instant lastHitTimestamp;
+
+    @Column(nullable = false)
+    private long hitCount;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public String getResponseJson() {
+        return responseJson;
+    }
+
+    public void setResponseJson(String responseJson) {
+        this.responseJson = responseJson;
+    }
+
+    public Instant getCreatedTimestamp() {
+        return createdTimestamp;
+    }
+
+    public void setCreatedTimestamp(Instant createdTimestamp) {
+        this.createdTimestamp = createdTimestamp;
+    }
+
+    public Instant getLastHitTimestamp() {
+        return lastHitTimestamp;
+    }
+
+    public void setLastHitTimestamp(Instant lastHitTimestamp) {
+        this.lastHitTimestamp = lastHitTimestamp;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+}
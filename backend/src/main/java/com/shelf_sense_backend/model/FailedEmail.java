@@ -0,0 +1,95 @@
+package com.shelf_sense_backend.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(name = "failed_emails")
+public class FailedEmail {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, length = 500)
+    private String messageId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, columnDefinition = "varchar(20) not null default 'RETRYING'")
+    private FailedEmailStatus status = FailedEmailStatus.RETRYING; // Dead letters no longer hold the checkpoint
+
+    @Column(nullable = false)
+    private int attempts; // Runs that had to leave this email for a retry
+
+    private Instant nextAttemptTimestamp; // Polls before this leave the email alone
+
+    @Column(nullable = false)
+    private Instant firstFailedTimestamp;
+
+    @Column(nullable = false)
+    private Instant lastFailedTimestamp;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public FailedEmailStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(FailedEmailStatus status) {
+        this.status = status;
+    }
+
+    public Instant getNextAttemptTimestamp() {
+        return nextAttemptTimestamp;
+    }
+
+    public void setNextAttemptTimestamp(Instant nextAttemptTimestamp) {
+        this.nextAttemptTimestamp = nextAttemptTimestamp;
+    }
+
+    public Instant getFirstFailedTimestamp() {
+        return firstFailedTimestamp;
+    }
+
+    public void setFirstFailedTimestamp(Instant firstFailedTimestamp) {
+        this.firstFailedTimestamp = firstFailedTimestamp;
+    }
+
+    public Instant getLastFailedTimestamp() {
+        return lastFailedTimestamp;
+    }
+
+    public void setLastFailedTimestamp(Instant lastFailedTimestamp) {
+        this.lastFailedTimestamp = lastFailedTimestamp;
+    }
+}
@@ -0,0 +1,6 @@
+package com.shelf_sense_backend.model;
+
+public enum FailedEmailStatus {
+    RETRYING,
+    DEAD_LETTER
+}
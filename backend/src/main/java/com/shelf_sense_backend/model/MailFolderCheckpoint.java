@@ -0,0 +1,74 @@
+package com.shelf_sense_backend.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+@Entity
+@Table(name = "mail_folder_checkpoints", uniqueConstraints = {
+    @UniqueConstraint(columnNames = {"folderName"})
+})
+public class MailFolderCheckpoint {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, length = 255)
+    private String folderName;
+
+    @Column(nullable = false)
+    private long uidValidity; // UIDVALIDITY of the folder the UID below belongs to
+
+    @Column(nullable = false)
+    private long lastProcessedUid; // Every message with a UID up to this one has been handled
+
+    @Column(nullable = false)
+    private Instant updatedTimestamp;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    public void setFolderName(String folderName) {
+        this.folderName = folderName;
+    }
+
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public void setUidValidity(long uidValidity) {
+        this.uidValidity = uidValidity;
+    }
+
+    public long getLastProcessedUid() {
+        return lastProcessedUid;
+    }
+
+    public void setLastProcessedUid(long lastProcessedUid) {
+        this.lastProcessedUid = lastProcessedUid;
+    }
+
+    public Instant getUpdatedTimestamp() {
+        return updatedTimestamp;
+    }
+
+    public void setUpdatedTimestamp(Instant updatedTimestamp) {
+        this.updatedTimestamp = updatedTimestamp;
+    }
+}
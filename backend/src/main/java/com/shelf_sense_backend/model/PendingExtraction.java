@@ -0,0 +1,166 @@
+package com.shelf_sense_backend.model;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(name = "pending_extractions", indexes = {
+    @Index(columnList = "status, nextAttemptTimestamp")
+})
+public class PendingExtraction {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, length = 500)
+    private String messageId;
+
+    @Column(nullable = false)
+    private String orderNumber;
+
+    private LocalDate orderDate;
+
+    private Instant emailSentTimestamp;
+
+    @Lob
+    @Column(nullable = false, columnDefinition = "LONGTEXT")
+    private String itemsBlock; // Already decoded, so draining needs no mailbox access
+
+    @Column(nullable = false)
+    private boolean replaceExisting; // Parked during a spool replay
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, columnDefinition = "varchar(20) not null default 'PENDING'")
+    private PendingExtractionStatus status = PendingExtractionStatus.PENDING;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(nullable = false)
+    private int failedAttempts; // Attempts that failed with the model available
+
+    @Column(nullable = false)
+    private Instant nextAttemptTimestamp;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    @Column(nullable = false)
+    private Instant createdTimestamp;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getOrderNumber() {
+        return orderNumber;
+    }
+
+    public void setOrderNumber(String orderNumber) {
+        this.orderNumber = orderNumber;
+    }
+
+    public LocalDate getOrderDate() {
+        return orderDate;
+    }
+
+    public void setOrderDate(LocalDate orderDate) {
+        this.orderDate = orderDate;
+    }
+
+    public Instant getEmailSentTimestamp() {
+        return emailSentTimestamp;
+    }
+
+    public void setEmailSentTimestamp(Instant emailSentTimestamp) {
+        this.emailSentTimestamp = emailSentTimestamp;
+    }
+
+    public String getItemsBlock() {
+        return itemsBlock;
+    }
+
+    public void setItemsBlock(String itemsBlock) {
+        this.itemsBlock = itemsBlock;
+    }
+
+    public boolean isReplaceExisting() {
+        return replaceExisting;
+    }
+
+    public void setReplaceExisting(boolean replaceExisting) {
+        this.replaceExisting = replaceExisting;
+    }
+
+    public PendingExtractionStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(PendingExtractionStatus status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public void setFailedAttempts(int failedAttempts) {
+        this.failedAttempts = failedAttempts;
+    }
+
+    public Instant getNextAttemptTimestamp() {
+        return nextAttemptTimestamp;
+    }
+
+    public void setNextAttemptTimestamp(Instant nextAttemptTimestamp) {
+        this.nextAttemptTimestamp = nextAttemptTimestamp;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getCreatedTimestamp() {
+        return createdTimestamp;
+    }
+
+    public void setCreatedTimestamp(Instant createdTimestamp) {
+        this.createdTimestamp = createdTimestamp;
+    }
+}
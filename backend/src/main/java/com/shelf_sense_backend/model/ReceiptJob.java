@@ -0,0 +1,234 @@
+package com.shelf_sense_backend.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(name = "receipt_jobs", indexes = {
+    @Index(columnList = "status")
+})
+public class ReceiptJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private ReceiptJobStatus status;
+
+    @Column(nullable = false, length = 50)
+    private String stage; // What a running job is doing, for progress reporting
+
+    @Column(nullable = false)
+    private int fileCount; // Images are kept on disk under the job id until the job completes
+
+    @Column(nullable = false)
+    private int receiptsFound;
+
+    @Column(nullable = false)
+    private int receiptsProcessed;
+
+    @Column(nullable = false)
+    private int receiptsFailed;
+
+    @Column(nullable = false)
+    private int itemsExtracted; // Items found so far, counted as the AI model produces them
+
+    @Column(nullable = false)
+    private int duplicatesSkipped; // Images already saved, answered with their order without OCR
+
+    @Column(nullable = false)
+    private int awaitingConfirmation; // Likely re-shoots of saved receipts, held until the user confirms
+
+    @Column(nullable = false)
+    private boolean confirmNearDuplicates;
+
+    @Column(length = 1000)
+    private String orderIds; // Comma separated ids of the orders saved so far
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(nullable = false)
+    private int deferrals; // Times the job was put back because the AI model was unavailable; not attempts
+
+    @Column(length = 1000)
+    private String lastError;
+
+    private Instant nextAttemptTimestamp; // A requeued job is not dispatched before this
+
+    @Column(nullable = false)
+    private Instant createdTimestamp;
+
+    private Instant startedTimestamp;
+
+    @Column(nullable = false)
+    private Instant updatedTimestamp;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public ReceiptJobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ReceiptJobStatus status) {
+        this.status = status;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public void setStage(String stage) {
+        this.stage = stage;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(int fileCount) {
+        this.fileCount = fileCount;
+    }
+
+    public int getReceiptsFound() {
+        return receiptsFound;
+    }
+
+    public void setReceiptsFound(int receiptsFound) {
+        this.receiptsFound = receiptsFound;
+    }
+
+    public int getReceiptsProcessed() {
+        return receiptsProcessed;
+    }
+
+    public void setReceiptsProcessed(int receiptsProcessed) {
+        this.receiptsProcessed = receiptsProcessed;
+    }
+
+    public int getItemsExtracted() {
+        return itemsExtracted;
+    }
+
+    public void setItemsExtracted(int itemsExtracted) {
+        this.itemsExtracted = itemsExtracted;
+    }
+
+    public int getReceiptsFailed() {
+        return receiptsFailed;
+    }
+
+    public void setReceiptsFailed(int receiptsFailed) {
+        this.receiptsFailed = receiptsFailed;
+    }
+
+    public int getDuplicatesSkipped() {
+        return duplicatesSkipped;
+    }
+
+    public void setDuplicatesSkipped(int duplicatesSkipped) {
+        this.duplicatesSkipped = duplicatesSkipped;
+    }
+
+    public int getAwaitingConfirmation() {
+        return awaitingConfirmation;
+    }
+
+    public void setAwaitingConfirmation(int awaitingConfirmation) {
+        this.awaitingConfirmation = awaitingConfirmation;
+    }
+
+    public boolean isConfirmNearDuplicates() {
+        return confirmNearDuplicates;
+    }
+
+    public void setConfirmNearDuplicates(boolean confirmNearDuplicates) {
+        this.confirmNearDuplicates = confirmNearDuplicates;
+    }
+
+    public String getOrderIds() {
+        return orderIds;
+    }
+
+    public void setOrderIds(String orderIds) {
+        this.orderIds = orderIds;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public int getDeferrals() {
+        return deferrals;
+    }
+
+    public void setDeferrals(int deferrals) {
+        this.deferrals = deferrals;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getNextAttemptTimestamp() {
+        return nextAttemptTimestamp;
+    }
+
+    public void setNextAttemptTimestamp(Instant nextAttemptTimestamp) {
+        this.nextAttemptTimestamp = nextAttemptTimestamp;
+    }
+
+    public Instant getCreatedTimestamp() {
+        return createdTimestamp;
+    }
+
+    public void setCreatedTimestamp(Instant createdTimestamp) {
+        this.createdTimestamp = createdTimestamp;
+    }
+
+    public Instant getStartedTimestamp() {
+        return startedTimestamp;
+    }
+
+    public void setStartedTimestamp(Instant startedTimestamp) {
+        this.startedTimestamp = startedTimestamp;
+    }
+
+    public Instant getUpdatedTimestamp() {
+        return updatedTimestamp;
+    }
+
+    public void setUpdatedTimestamp(Instant updatedTimestamp) {
+        this.updatedTimestamp = updatedTimestamp;
+    }
+
+    public boolean isFinished() {
+        return status == ReceiptJobStatus.COMPLETED || status == ReceiptJobStatus.FAILED
+                || status == ReceiptJobStatus.NEEDS_CONFIRMATION;
+    }
+}
@@ -0,0 +1,10 @@
+package com.shelf_sense_backend.model;
+
+public enum ReceiptJobStatus {
+    UPLOADING,
+    QUEUED,
+    RUNNING,
+    NEEDS_CONFIRMATION,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,15 @@
+package com.shelf_sense_backend.repo;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.shelf_sense_backend.model.BackfillJob;
+import com.shelf_sense_backend.model.BackfillStatus;
+
+@Repository
+public interface BackfillJobRepository extends JpaRepository<BackfillJob, Long> {
+
+    List<BackfillJob> findByStatus(BackfillStatus status);
+}
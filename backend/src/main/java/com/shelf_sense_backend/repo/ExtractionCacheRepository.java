@@ -0,0 +1,30 @@
+package com.shelf_sense_backend.repo;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.shelf_sense_backend.model.ExtractionCacheEntry;
+
+import jakarta.transaction.Transactional;
+
+@Repository
+public interface ExtractionCacheRepository extends JpaRepository<ExtractionCacheEntry, Long> {
+
+    Optional<ExtractionCacheEntry> findByCacheKey(String cacheKey);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ExtractionCacheEntry e WHERE COALESCE(e.lastHitTimestamp, e.createdTimestamp) < :cutoff")
+    int deleteUnusedSince(@Param("cutoff") Instant cutoff);
+
+    @Query("SELECT e.id FROM ExtractionCacheEntry e ORDER BY COALESCE(e.lastHitTimestamp, e.createdTimestamp)")
+    List<Long> findLeastRecentlyUsedIds(Pageable pageable);
+}
@@ -0,0 +1,21 @@
+package com.shelf_sense_backend.repo;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.shelf_sense_backend.model.FailedEmail;
+import com.shelf_sense_backend.model.FailedEmailStatus;
+
+@Repository
+public interface FailedEmailRepository extends JpaRepository<FailedEmail, Long> {
+
+    Optional<FailedEmail> findByMessageId(String messageId);
+
+    List<FailedEmail> findByMessageIdIn(Collection<String> messageIds);
+
+    List<FailedEmail> findByStatus(FailedEmailStatus status);
+}
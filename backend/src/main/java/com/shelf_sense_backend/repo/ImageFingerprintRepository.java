@@ -0,0 +1,20 @@
+package com.shelf_sense_backend.repo;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.shelf_sense_backend.model.ImageFingerprint;
+
+import jakarta.transaction.Transactional;
+
+@Repository
+public interface ImageFingerprintRepository extends JpaRepository<ImageFingerprint, Long> {
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ImageFingerprint f WHERE f.orderId = :orderId")
+    void deleteByOrderId(@Param("orderId") Long orderId);
+}
@@ -0,0 +1,14 @@
+package com.shelf_sense_backend.repo;
+
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.shelf_sense_backend.model.MailFolderCheckpoint;
+
+@Repository
+public interface MailFolderCheckpointRepository extends JpaRepository<MailFolderCheckpoint, Long> {
+
+    Optional<MailFolderCheckpoint> findByFolderName(String folderName);
+}
@@ -0,0 +1,28 @@
+package com.shelf_sense_backend.repo;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.shelf_sense_backend.model.PendingExtraction;
+import com.shelf_sense_backend.model.PendingExtractionStatus;
+
+@Repository
+public interface PendingExtractionRepository extends JpaRepository<PendingExtraction, Long> {
+
+    Optional<PendingExtraction> findByMessageId(String messageId);
+
+    List<PendingExtraction> findByStatusAndNextAttemptTimestampLessThanEqualOrderByNextAttemptTimestampAsc(
+            PendingExtractionStatus status, Instant now, Pageable pageable);
+
+    @Query("SELECT p.messageId FROM PendingExtraction p WHERE p.messageId IN :messageIds")
+    Set<String> findExistingMessageIds(@Param("messageIds") Collection<String> messageIds);
+}
@@ -1,6 +1,13 @@
 package com.shelf_sense_backend.repo;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.shelf_sense_backend.model.ProcessedEmail;
@@ -9,4 +16,12 @@ import com.shelf_sense_backend.model.ProcessedEmail;
 public interface ProcessedEmailRepository extends JpaRepository<ProcessedEmail, Long> {
     
     boolean existsByMessageId(String messageId);
+
+    Optional<ProcessedEmail> findByMessageId(String messageId);
+
+    @Query("SELECT p.messageId FROM ProcessedEmail p WHERE p.messageId IN :messageIds")
+    Set<String> findExistingMessageIds(@Param("messageIds") Collection<String> messageIds);
+
+    @Query("SELECT p.messageId FROM ProcessedEmail p")
+    List<String> findAllMessageIds();
 }
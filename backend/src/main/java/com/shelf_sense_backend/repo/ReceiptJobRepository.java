@@ -0,0 +1,23 @@
+package com.shelf_sense_backend.repo;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.shelf_sense_backend.model.ReceiptJob;
+import com.shelf_sense_backend.model.ReceiptJobStatus;
+
+@Repository
+public interface ReceiptJobRepository extends JpaRepository<ReceiptJob, Long> {
+
+    List<ReceiptJob> findByStatus(ReceiptJobStatus status);
+
+    @Query("SELECT j FROM ReceiptJob j WHERE j.status = :status "
+            + "AND (j.nextAttemptTimestamp IS NULL OR j.nextAttemptTimestamp <= :now) ORDER BY j.id")
+    List<ReceiptJob> findDue(@Param("status") ReceiptJobStatus status, @Param("now") Instant now, Pageable pageable);
+}
@@ -21,4 +21,9 @@ public interface ShoppedItemRepository extends JpaRepository<ShoppedItem, Long>
 
     @Query("SELECT si FROM ShoppedItem si JOIN FETCH si.order")
 List<ShoppedItem> findAllWithOrderDate();
+
+    // rawName, generalName, foodType of every classified line, oldest first
+    @Query("SELECT si.rawName, si.generalName, si.foodType FROM ShoppedItem si "
+            + "WHERE si.generalName IS NOT NULL AND si.foodType IS NOT NULL ORDER BY si.id")
+    List<Object[]> findClassifications();
 }
\ No newline at end of file
@@ -15,6 +15,8 @@ import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
 import com.shelf_sense_backend.service.UserService;
 
+import jakarta.servlet.DispatcherType;
+
 
 
 @Configuration
@@ -36,11 +38,14 @@ public class SecurityConfig {
 				.csrf(csrf -> csrf.disable())
 				.cors(cors -> cors.configurationSource(corsConfigurationSource()))
 				.authorizeHttpRequests(auth -> auth
+						// The request that started an async response (SSE) was already authorized
+						.dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
 						.requestMatchers("/auth/**").permitAll()
+						.requestMatchers("/actuator/health").permitAll()
 						.requestMatchers("/users/search").authenticated()
 						.requestMatchers(HttpMethod.POST, "/contacts").authenticated()
 						.requestMatchers(HttpMethod.GET, "/contacts").authenticated()
-						.requestMatchers(HttpMethod.POST, "/api/receipts/extract-text").authenticated()
+						.requestMatchers(HttpMethod.POST, "/api/receipts/extract-text", "/api/receipts/extract-text/batch").authenticated()
 						.anyRequest().authenticated())
 				.addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class);
 		return http.build();
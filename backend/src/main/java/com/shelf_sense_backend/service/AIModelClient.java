@@ -1,150 +1,586 @@
 package com.shelf_sense_backend.service;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.shelf_sense_backend.dto.ExtractedProduct;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @Service
 public class AIModelClient {
 
     private static final Logger logger = LoggerFactory.getLogger(AIModelClient.class);
 
-    @Value("${lmstudio.api.url:http://localhost:1234/v1/chat/completions}")
-    private String apiUrl;
+    private static final String FOOD_TYPES = "Soft Fruits, Hard Fruits, Citrus Fruits, Berries,\n" +
+            "Root Vegetables, Cruciferous Vegetables, Squash & Gourds, Tomatoes & Peppers,\n" +
+            "Herbs, Proteins, Bakery & Bread, Frozen Foods, Grains, Pasta & Noodles,\n" +
+            "Cooking Oils, Flour, Sugar, Baking Ingredients, Salt & Pepper, Nut Butters,\n" +
+            "Condiments, Sauces, Dried Fruits, Nuts & Seeds, Snacks, Dairy, Legumes,\n" +
+            "Whole Spices, Powdered Spices, Kitchen hygiene, Bathroom hygiene\n\n";
+
+    // Bump when the prompts or response handling change so cached extractions are not reused
+    private static final String PROMPT_VERSION = "3";
+
+    // Constant system messages so the server can reuse their KV cache across requests
+    private static final String EXTRACTION_SYSTEM_PROMPT = "You are a specialized grocery receipt analyzer.\n\n" +
+            "Your task is to extract all product items from the receipt text in the user message and return only valid JSON in the same order as receipt and same number of items as in receipt that matches the following schema:\n\n"
+            +
+            "{\n" +
+            "  \"products_list\": [\n" +
+            "    {\n" +
+            "      \"product_name\": \"string (exactly as on receipt)\",\n" +
+            "      \"quantity\": \"number or string (e.g., 1 or '0.5')\",\n" +
+            "      \"weight\": \"string (exactly as on receipt including the unit - e.g., '125 g', '1 stk', '1,1 kg', '350 g')\",\n"
+            +
+            "      \"general_name\": \"string (the basic product name without details - e.g., Bringebær → Raspberry, Tørkerull → Paper Towels)\",\n"
+            +
+            "      \"food_type\": \"one of the predefined categories listed below\"\n" +
+            "    }\n" +
+            "  ]\n" +
+            "}\n\n" +
+            "For each product, extract and classify the following:\n" +
+            "1. product_name – the exact name as printed on the receipt.\n" +
+            "2. quantity – the total count or measurable quantity purchased (e.g., 1, 2, 0.5).\n" +
+            "3. weight – extract the complete weight or volume specification including units as shown on receipt:\n"
+            +
+            "4. general_name – the basic name of the item (e.g., for 'Bringebær Marokko / Portugal' the general_name is 'Raspberry').\n"
+            +
+            "   The general_name should be simplified compared to product_name and MUST NOT be identical to food_type.\n"
+            +
+            "5. food_type – select the closest matching value from the list below:\n\n" +
+            FOOD_TYPES +
+            "Ensure:\n" +
+            "- Output is a single JSON object.\n" +
+            "- Look carefully at the receipt format to extract the correct weight/volume/unit information.\n" +
+            "- Pay special attention to items that have weight specifications at the end of product descriptions.\n"
+            +
+            "- For general_name, provide the basic ingredient/product name, not the category.\n" +
+            "- Do not include any extra explanation or commentary—just the raw JSON.";
+
+    private static final String CLASSIFICATION_SYSTEM_PROMPT = "You are a specialized grocery product classifier.\n\n" +
+            "Classify each product in the user message and return only valid JSON with one entry per product, in the same order:\n\n"
+            +
+            "{\n" +
+            "  \"products_list\": [\n" +
+            "    {\n" +
+            "      \"product_name\": \"string (exactly as given)\",\n" +
+            "      \"general_name\": \"string (the basic product name in English - e.g., Bringebær → Raspberry, Tørkerull → Paper Towels)\",\n"
+            +
+            "      \"food_type\": \"one of the predefined categories listed below\"\n" +
+            "    }\n" +
+            "  ]\n" +
+            "}\n\n" +
+            "The general_name MUST NOT be identical to food_type. food_type is the closest value from:\n\n" +
+            FOOD_TYPES +
+            "Do not include any extra explanation or commentary—just the raw JSON.";
+
+    private static final String BATCH_EXTRACTION_SYSTEM_PROMPT = EXTRACTION_SYSTEM_PROMPT + "\n\n" +
+            "The user message contains several receipts, each starting with a line '=== RECEIPT n ==='. " +
+            "Return a single JSON object {\"receipts\": [{\"receipt\": n, \"products_list\": [...]}]} " +
+            "with exactly one entry per receipt, in the same order, where each products_list follows the schema above.";
+
+    private static final List<String> FOOD_TYPE_NAMES = Stream.of(FOOD_TYPES.split("[,\\n]"))
+            .map(String::trim)
+            .filter(name -> !name.isEmpty())
+            .toList();
+
+    // Sent as response_format so servers with constrained decoding only generate valid items
+    private static final Map<String, Object> EXTRACTION_SCHEMA = objectSchema(
+            Map.of("products_list", arraySchema(productSchema(true))));
+    private static final Map<String, Object> CLASSIFICATION_SCHEMA = objectSchema(
+            Map.of("products_list", arraySchema(productSchema(false))));
+    private static final Map<String, Object> BATCH_EXTRACTION_SCHEMA = objectSchema(
+            Map.of("receipts", arraySchema(objectSchema(Map.of(
+                    "receipt", Map.of("type", "integer"),
+                    "products_list", arraySchema(productSchema(true)))))));
+
+    /**
+     * System and user message of a request, and the JSON schema of the
+     * expected answer.
+     */
+    record Prompt(String system, String user, Map<String, Object> responseSchema) {
+
+        String cacheText() {
+            return system + "\n" + user;
+        }
+    }
+
+    // Only the generated text of a streamed chunk is bound; everything else is skipped
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record StreamChunk(String model, List<StreamChoice> choices) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record StreamChoice(StreamDelta delta) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record StreamDelta(String content) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record BatchAnswer(List<BatchReceipt> receipts) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record BatchReceipt(Integer receipt, @JsonProperty("products_list") List<ExtractedProduct> productsList) {
+    }
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE = new ParameterizedTypeReference<>() {
+    };
+
+    @Value("${lmstudio.model:}")
+    private String modelName;
+
+    // Model id the server reported last, for cache keys when lmstudio.model is empty
+    private volatile String loadedModel;
+
+    @Autowired
+    private ExtractionCache extractionCache;
+
+    @Autowired
+    private ModelCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private ModelEndpointRouter endpointRouter;
 
-    private final RestTemplate restTemplate;
+    @Value("${lmstudio.client.request-timeout-seconds:180}")
+    private long requestTimeoutSeconds;
+
+    // Cleared when the server rejects response_format, so later requests go without it
+    private final AtomicBoolean structuredOutput;
+
+    private final WebClient webClient;
     private final ObjectMapper objectMapper;
+    private final ObjectReader itemReader;
+    private final ObjectReader chunkReader;
+    private final ObjectReader batchReader;
+
+    private final DistributionSummary promptTokens;
+    private final DistributionSummary userPromptTokens;
+    private final Timer prefillTimer;
 
-    public AIModelClient() {
-        this.restTemplate = new RestTemplate();
+    public AIModelClient(@Qualifier("aiWebClient") WebClient webClient, MeterRegistry meterRegistry,
+            @Value("${lmstudio.structured-output:true}") boolean structuredOutput) {
+        this.webClient = webClient;
         this.objectMapper = new ObjectMapper();
+        this.itemReader = ProductsListStreamParser.itemReader(objectMapper);
+        this.chunkReader = objectMapper.readerFor(StreamChunk.class);
+        this.batchReader = objectMapper.readerFor(BatchAnswer.class);
+        this.structuredOutput = new AtomicBoolean(structuredOutput);
+        this.promptTokens = DistributionSummary.builder("ai.prompt.tokens.estimated")
+                .description("Estimated prompt tokens per model request")
+                .baseUnit("tokens")
+                .register(meterRegistry);
+        this.userPromptTokens = DistributionSummary.builder("ai.prompt.user.tokens.estimated")
+                .description("Estimated tokens outside the cacheable system message per model request")
+                .baseUnit("tokens")
+                .register(meterRegistry);
+        this.prefillTimer = Timer.builder("ai.request.prefill")
+                .description("Prompt processing time before the first generated token")
+                .register(meterRegistry);
+    }
+
+    public List<ExtractedProduct> processReceiptText(String receiptText) {
+        return join(processReceiptTextAsync(receiptText));
     }
 
-    public List<Map<String, Object>> processReceiptText(String receiptText) {
-        if (apiUrl == null || apiUrl.isEmpty()) {
+    public CompletableFuture<List<ExtractedProduct>> processReceiptTextAsync(String receiptText) {
+        return callModel(extractionPrompt(receiptText));
+    }
+
+    /**
+     * Extracts several receipts with one request. The result holds one
+     * products list per receipt, in input order; the future fails if the
+     * answer does not have exactly one entry per receipt.
+     */
+    public CompletableFuture<List<List<ExtractedProduct>>> processReceiptBatchAsync(List<String> receiptTexts) {
+        if (!endpointRouter.hasEndpoints()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("AI model API URL not configured"));
+        }
+        return post(batchExtractionPrompt(receiptTexts))
+                .map(response -> parseBatchResponse(response, receiptTexts.size()))
+                .toFuture();
+    }
+
+    /**
+     * Returns the cached extraction of the receipt, joins an extraction of
+     * the same receipt that is already running, or else runs
+     * {@code extraction} and caches its result, like
+     * {@link #processReceiptTextAsync} does for its own requests.
+     */
+    public CompletableFuture<List<ExtractedProduct>> extractReceiptOnce(String receiptText,
+            Supplier<CompletableFuture<List<ExtractedProduct>>> extraction) {
+        String cacheKey = cacheKey(extractionPrompt(receiptText));
+        if (cacheKey == null) {
+            return extraction.get();
+        }
+        return extractionCache.getOrComputeAsync(cacheKey, extraction);
+    }
+
+    /**
+     * Extracts the receipt with its own request, bypassing the cache. Only
+     * meant as the {@code extraction} of {@link #extractReceiptOnce}.
+     */
+    public CompletableFuture<List<ExtractedProduct>> extractReceiptUncached(String receiptText) {
+        if (!endpointRouter.hasEndpoints()) {
             logger.warn("AI model API URL not configured. Skipping AI processing.");
-            return new ArrayList<>();
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        return invokeModel(extractionPrompt(receiptText)).toFuture();
+    }
+
+    /**
+     * Returns null until the model is known, that is when lmstudio.model is
+     * empty and no answer has reported the loaded model yet.
+     */
+    private String cacheKey(Prompt prompt) {
+        String model = modelName != null && !modelName.isBlank() ? modelName : loadedModel;
+        return model != null ? extractionCache.keyFor(model, PROMPT_VERSION, prompt.cacheText()) : null;
+    }
+
+    private void rememberModel(String reportedModel) {
+        if (reportedModel != null && !reportedModel.isBlank() && !reportedModel.equals(loadedModel)) {
+            logger.info("AI model server reports model {}", reportedModel);
+            loadedModel = reportedModel;
         }
+    }
 
+    /**
+     * Asks the model only for general_name and food_type of products that were
+     * already parsed from the receipt. Results are in the same order as
+     * {@code productNames}.
+     */
+    public List<ExtractedProduct> classifyProducts(List<String> productNames) {
+        return join(classifyProductsAsync(productNames));
+    }
+
+    // Throws the future's own exception, so callers can catch ModelUnavailableException
+    private static <T> T join(CompletableFuture<T> future) {
         try {
-            String prompt = buildPrompt(receiptText);
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<List<ExtractedProduct>> classifyProductsAsync(List<String> productNames) {
+        if (productNames.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        return callModel(classificationPrompt(productNames));
+    }
+
+    /**
+     * Streams the extraction: the request is sent with stream=true and each
+     * products_list element is emitted as soon as the model has finished
+     * generating it. Cached results are replayed without calling the model,
+     * and a completed stream is added to the cache.
+     */
+    public Flux<ExtractedProduct> streamReceiptText(String receiptText) {
+        if (!endpointRouter.hasEndpoints()) {
+            logger.warn("AI model API URL not configured. Skipping AI processing.");
+            return Flux.empty();
+        }
+
+        Prompt prompt = extractionPrompt(receiptText);
+        String cacheKey = cacheKey(prompt);
+        List<ExtractedProduct> cached = cacheKey != null ? extractionCache.getIfPresent(cacheKey) : null;
+        if (cached != null) {
+            return Flux.fromIterable(cached);
+        }
+
+        return Flux.defer(() -> {
+            if (!circuitBreaker.tryAcquire()) {
+                return Flux.error(circuitOpen());
+            }
             Map<String, Object> requestBody = createRequestBody(prompt);
-            HttpHeaders headers = createRequestHeaders();
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-            logger.debug("Sending request to AI model API: {}", apiUrl);
-            String response = restTemplate.postForObject(apiUrl, request, String.class);
-            return parseAIResponse(response);
+            requestBody.put("stream", true);
+            ProductsListStreamParser parser = newStreamParser();
+            List<ExtractedProduct> streamed = new ArrayList<>();
+            long started = System.nanoTime();
+            AtomicBoolean firstEvent = new AtomicBoolean();
+            return endpointRouter.routeStream(url -> {
+                logger.debug("Streaming request to AI model API: {}", url);
+                return webClient.post()
+                        .uri(url)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .bodyValue(requestBody)
+                        .retrieve()
+                        .bodyToFlux(SSE_TYPE)
+                        // Idle timeout: the model has to keep producing tokens
+                        .timeout(Duration.ofSeconds(requestTimeoutSeconds));
+            })
+                    // The first chunk arrives once the prompt has been processed
+                    .doOnNext(event -> {
+                        if (firstEvent.compareAndSet(false, true)) {
+                            prefillTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                            circuitBreaker.recordSuccess();
+                        }
+                    })
+                    .onErrorMap(this::recordModelError)
+                    .doOnCancel(circuitBreaker::releaseProbe)
+                    .takeWhile(event -> !"[DONE]".equals(event.data()))
+                    .concatMapIterable(event -> feedStreamEvent(parser, event.data()))
+                    .publishOn(Schedulers.boundedElastic())
+                    .doOnNext(streamed::add)
+                    .doOnComplete(() -> {
+                        if (cacheKey != null && !streamed.isEmpty()) {
+                            extractionCache.put(cacheKey, streamed);
+                        }
+                    })
+                    .onErrorResume(e -> rejectedResponseFormat(e, prompt), e -> streamReceiptText(receiptText));
+        });
+    }
 
-        } catch (Exception e) {
-            logger.error("Error processing receipt with AI model: {}", e.getMessage(), e);
-            return new ArrayList<>();
+    private ProductsListStreamParser newStreamParser() {
+        try {
+            return new ProductsListStreamParser(itemReader);
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    private List<ExtractedProduct> feedStreamEvent(ProductsListStreamParser parser, String data) {
+        if (data == null || data.isBlank()) {
+            return List.of();
+        }
+        try {
+            StreamChunk chunk = chunkReader.readValue(data);
+            rememberModel(chunk.model());
+            if (chunk.choices() == null || chunk.choices().isEmpty() || chunk.choices().get(0).delta() == null) {
+                return List.of();
+            }
+            String content = chunk.choices().get(0).delta().content();
+            return content != null ? parser.feed(content) : List.of();
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    private CompletableFuture<List<ExtractedProduct>> callModel(Prompt prompt) {
+        if (!endpointRouter.hasEndpoints()) {
+            logger.warn("AI model API URL not configured. Skipping AI processing.");
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+
+        String cacheKey = cacheKey(prompt);
+        if (cacheKey == null) {
+            return invokeModel(prompt).toFuture();
+        }
+        return extractionCache.getOrComputeAsync(cacheKey, () -> invokeModel(prompt).toFuture());
+    }
+
+    private Mono<List<ExtractedProduct>> invokeModel(Prompt prompt) {
+        return post(prompt)
+                .map(this::parseAIResponse)
+                // Unavailability is passed on so the receipt can be parked and retried
+                .onErrorResume(e -> !(e instanceof ModelUnavailableException), e -> {
+                    logger.error("Error processing receipt with AI model: {}", e.getMessage(), e);
+                    return Mono.just(new ArrayList<>());
+                });
+    }
+
+    private Mono<String> post(Prompt prompt) {
+        return Mono.defer(() -> {
+            if (!circuitBreaker.tryAcquire()) {
+                return Mono.error(circuitOpen());
+            }
+            Map<String, Object> requestBody = createRequestBody(prompt);
+            return endpointRouter.route(url -> {
+                logger.debug("Sending request to AI model API: {}", url);
+                return webClient.post()
+                        .uri(url)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(requestBody)
+                        .retrieve()
+                        .bodyToMono(String.class)
+                        .timeout(Duration.ofSeconds(requestTimeoutSeconds));
+            })
+                    .doOnSuccess(response -> circuitBreaker.recordSuccess())
+                    .onErrorMap(this::recordModelError)
+                    .doOnCancel(circuitBreaker::releaseProbe)
+                    .onErrorResume(e -> rejectedResponseFormat(e, prompt), e -> post(prompt))
+                    // Parsing and caching the result must not run on the Netty event loop
+                    .publishOn(Schedulers.boundedElastic());
+        });
+    }
+
+    private boolean rejectedResponseFormat(Throwable error, Prompt prompt) {
+        if (prompt.responseSchema() != null && error instanceof WebClientResponseException.BadRequest
+                && structuredOutput.compareAndSet(true, false)) {
+            logger.warn("AI model server rejected a JSON schema response_format, sending requests without it");
+            return true;
+        }
+        return false;
+    }
+
+    private static ModelUnavailableException circuitOpen() {
+        return new ModelUnavailableException("AI model circuit is open, not sending request");
+    }
+
+    private Throwable recordModelError(Throwable error) {
+        if (isUnavailable(error)) {
+            circuitBreaker.recordFailure();
+            return new ModelUnavailableException("AI model unavailable: " + error.getMessage(), error);
+        }
+        // The server answered, so it is up even though this request failed
+        circuitBreaker.recordSuccess();
+        return error;
+    }
+
+    static boolean isUnavailable(Throwable error) {
+        Throwable cause = Exceptions.unwrap(error);
+        if (cause instanceof WebClientResponseException response) {
+            return response.getStatusCode().is5xxServerError();
+        }
+        return cause instanceof WebClientRequestException
+                || cause instanceof TimeoutException
+                || (cause instanceof IOException && !(cause instanceof JsonProcessingException));
+    }
+
+    static Prompt extractionPrompt(String receiptText) {
+        return new Prompt(EXTRACTION_SYSTEM_PROMPT, "Receipt Text:\n" + receiptText, EXTRACTION_SCHEMA);
+    }
+
+    static Prompt batchExtractionPrompt(List<String> receiptTexts) {
+        StringBuilder receipts = new StringBuilder();
+        for (int i = 0; i < receiptTexts.size(); i++) {
+            receipts.append("=== RECEIPT ").append(i + 1).append(" ===\n").append(receiptTexts.get(i)).append('\n');
+        }
+        return new Prompt(BATCH_EXTRACTION_SYSTEM_PROMPT, receipts.toString(), BATCH_EXTRACTION_SCHEMA);
+    }
+
+    static Prompt classificationPrompt(List<String> productNames) {
+        StringBuilder products = new StringBuilder("Products:\n");
+        for (String productName : productNames) {
+            products.append("- ").append(productName).append('\n');
         }
+        return new Prompt(CLASSIFICATION_SYSTEM_PROMPT, products.toString(), CLASSIFICATION_SCHEMA);
     }
 
-    private String buildPrompt(String receiptText) {
-        return "You are a specialized grocery receipt analyzer.\n\n" +
-                "Your task is to extract all product items from the receipt text below and return only valid JSON in the same order as receipt and same number of items as in receipt that matches the following schema:\n\n"
-                +
-                "{\n" +
-                "  \"products_list\": [\n" +
-                "    {\n" +
-                "      \"product_name\": \"string (exactly as on receipt)\",\n" +
-                "      \"quantity\": \"number or string (e.g., 1 or '0.5')\",\n" +
-                "      \"weight\": \"string (exactly as on receipt including the unit - e.g., '125 g', '1 stk', '1,1 kg', '350 g')\",\n"
-                +
-                "      \"general_name\": \"string (the basic product name without details - e.g., Bringebær → Raspberry, Tørkerull → Paper Towels)\",\n"
-                +
-                "      \"food_type\": \"one of the predefined categories listed below\"\n" +
-                "    }\n" +
-                "  ]\n" +
-                "}\n\n" +
-                "For each product, extract and classify the following:\n" +
-                "1. product_name – the exact name as printed on the receipt.\n" +
-                "2. quantity – the total count or measurable quantity purchased (e.g., 1, 2, 0.5).\n" +
-                "3. weight – extract the complete weight or volume specification including units as shown on receipt:\n"
-                +
-                "4. general_name – the basic name of the item (e.g., for 'Bringebær Marokko / Portugal' the general_name is 'Raspberry').\n"
-                +
-                "   The general_name should be simplified compared to product_name and MUST NOT be identical to food_type.\n"
-                +
-                "5. food_type – select the closest matching value from the list below:\n\n" +
-                "Soft Fruits, Hard Fruits, Citrus Fruits, Berries,\n" +
-                "Root Vegetables, Cruciferous Vegetables, Squash & Gourds, Tomatoes & Peppers,\n" +
-                "Herbs, Proteins, Bakery & Bread, Frozen Foods, Grains, Pasta & Noodles,\n" +
-                "Cooking Oils, Flour, Sugar, Baking Ingredients, Salt & Pepper, Nut Butters,\n" +
-                "Condiments, Sauces, Dried Fruits, Nuts & Seeds, Snacks, Dairy, Legumes,\n" +
-                "Whole Spices, Powdered Spices, Kitchen hygiene, Bathroom hygiene\n\n" +
-                "Ensure:\n" +
-                "- Output is a single JSON object.\n" +
-                "- Look carefully at the receipt format to extract the correct weight/volume/unit information.\n" +
-                "- Pay special attention to items that have weight specifications at the end of product descriptions.\n"
-                +
-                "- For general_name, provide the basic ingredient/product name, not the category.\n" +
-                "- Do not include any extra explanation or commentary—just the raw JSON.\n\n" +
-                "Receipt Text:\n" +
-                receiptText;
-    }
-
-    private Map<String, Object> createRequestBody(String prompt) {
+    private static Map<String, Object> productSchema(boolean extraction) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("product_name", Map.of("type", "string"));
+        if (extraction) {
+            properties.put("quantity", Map.of("type", List.of("number", "string")));
+            properties.put("weight", Map.of("type", "string"));
+        }
+        properties.put("general_name", Map.of("type", "string"));
+        properties.put("food_type", Map.of("type", "string", "enum", FOOD_TYPE_NAMES));
+        return objectSchema(properties);
+    }
+
+    private static Map<String, Object> objectSchema(Map<String, Object> properties) {
+        return Map.of(
+                "type", "object",
+                "properties", properties,
+                "required", List.copyOf(properties.keySet()),
+                "additionalProperties", false);
+    }
+
+    private static Map<String, Object> arraySchema(Map<String, Object> items) {
+        return Map.of("type", "array", "items", items);
+    }
+
+    /**
+     * Rough token count (about four characters per token) used for metrics.
+     */
+    static int estimateTokens(String text) {
+        return (text.length() + 3) / 4;
+    }
+
+    private Map<String, Object> createRequestBody(Prompt prompt) {
         Map<String, Object> requestBody = new HashMap<>();
+        if (modelName != null && !modelName.isBlank()) {
+            requestBody.put("model", modelName);
+        }
         requestBody.put("temperature", 0.0);
         // requestBody.put("max_tokens", 300);
         requestBody.put("top_p", 0.1);
         requestBody.put("frequency_penalty", 0.0);
         requestBody.put("presence_penalty", 0.0);
+        // llama.cpp based servers reuse the KV cache of the unchanged system message
+        requestBody.put("cache_prompt", true);
+        if (prompt.responseSchema() != null && structuredOutput.get()) {
+            requestBody.put("response_format", Map.of(
+                    "type", "json_schema",
+                    "json_schema", Map.of("name", "response", "strict", true, "schema", prompt.responseSchema())));
+        }
 
         List<Map<String, Object>> messages = new ArrayList<>();
+        Map<String, Object> systemMessage = new HashMap<>();
+        systemMessage.put("role", "system");
+        systemMessage.put("content", prompt.system());
+        messages.add(systemMessage);
         Map<String, Object> userMessage = new HashMap<>();
         userMessage.put("role", "user");
-        userMessage.put("content", prompt);
+        userMessage.put("content", prompt.user());
         messages.add(userMessage);
 
         requestBody.put("messages", messages);
 
-        return requestBody;
-    }
+        promptTokens.record(estimateTokens(prompt.system()) + estimateTokens(prompt.user()));
+        userPromptTokens.record(estimateTokens(prompt.user()));
 
-    private HttpHeaders createRequestHeaders() {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        return headers;
+        return requestBody;
     }
 
-    private List<Map<String, Object>> parseAIResponse(String response) {
+    private List<ExtractedProduct> parseAIResponse(String response) {
         try {
             JsonNode rootNode = objectMapper.readTree(response);
+            recordServerPrefill(rootNode);
+            rememberModel(rootNode.path("model").asText(null));
             String content = extractContentFromResponse(rootNode);
 
             if (content == null || content.isEmpty()) {
                 logger.warn("Could not extract content from AI response");
                 return new ArrayList<>();
             }
-            String jsonContent = extractJsonFromMarkdown(content);
-            JsonNode root = objectMapper.readTree(jsonContent);
-            JsonNode itemsNode = root.get("products_list");
-            List<Map<String, Object>> items = new ArrayList<>();
-
-            if (itemsNode != null && itemsNode.isArray()) {
-                for (JsonNode itemNode : itemsNode) {
-                    Map<String, Object> item = objectMapper.convertValue(itemNode, Map.class);
-                    items.add(item);
-                }
-            }
-
-            return items;
+            // Same parser as the streaming path; skips markdown fences around the JSON
+            return newStreamParser().feed(content);
 
         } catch (Exception e) {
             logger.error("Error parsing AI response: {}", e.getMessage(), e);
@@ -152,6 +588,55 @@ public class AIModelClient {
         }
     }
 
+    private List<List<ExtractedProduct>> parseBatchResponse(String response, int receiptCount) {
+        String content;
+        try {
+            JsonNode rootNode = objectMapper.readTree(response);
+            recordServerPrefill(rootNode);
+            rememberModel(rootNode.path("model").asText(null));
+            content = extractContentFromResponse(rootNode);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unreadable batch response: " + e.getMessage(), e);
+        }
+        int start = content == null ? -1 : content.indexOf('{');
+        if (start < 0) {
+            throw new IllegalStateException("Batch response has no JSON content");
+        }
+
+        BatchAnswer answer;
+        try {
+            // Binds the first JSON object; a markdown fence or commentary after it is not read
+            answer = batchReader.readValue(content.substring(start));
+        } catch (IOException e) {
+            throw new IllegalStateException("Malformed batch response: " + e.getMessage(), e);
+        }
+
+        List<List<ExtractedProduct>> results = new ArrayList<>(receiptCount);
+        for (int i = 0; i < receiptCount; i++) {
+            results.add(null);
+        }
+        List<BatchReceipt> receipts = answer.receipts() != null ? answer.receipts() : List.of();
+        for (int i = 0; i < receipts.size(); i++) {
+            BatchReceipt receipt = receipts.get(i);
+            int index = (receipt.receipt() != null ? receipt.receipt() : i + 1) - 1;
+            if (index >= 0 && index < receiptCount && receipt.productsList() != null) {
+                results.set(index, receipt.productsList());
+            }
+        }
+        if (results.contains(null)) {
+            throw new IllegalStateException("Batch response is missing receipts");
+        }
+        return results;
+    }
+
+    // llama.cpp style servers report prompt processing time; others give no prefill figure
+    private void recordServerPrefill(JsonNode rootNode) {
+        JsonNode promptMillis = rootNode.path("timings").path("prompt_ms");
+        if (promptMillis.isNumber()) {
+            prefillTimer.record((long) (promptMillis.asDouble() * 1000), TimeUnit.MICROSECONDS);
+        }
+    }
+
     private String extractContentFromResponse(JsonNode rootNode) {
         // For OpenAI
         if (rootNode.has("choices") && rootNode.get("choices").isArray()) {
@@ -179,20 +664,4 @@ public class AIModelClient {
 
         return null;
     }
-
-    private String extractJsonFromMarkdown(String content) {
-        if (content.contains("```json")) {
-            content = content.substring(content.indexOf("```json") + 7);
-            content = content.substring(0, content.indexOf("```"));
-        } else if (content.contains("```")) {
-            content = content.substring(content.indexOf("```") + 3);
-            content = content.substring(0, content.indexOf("```"));
-        }
-
-        if ((content.trim().startsWith("[") && content.trim().endsWith("]")) ||
-                (content.trim().startsWith("{") && content.trim().endsWith("}"))) {
-            return content;
-        }
-        return "[]";
-    }
 }
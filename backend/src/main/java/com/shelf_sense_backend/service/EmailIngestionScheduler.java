@@ -0,0 +1,27 @@
+package com.shelf_sense_backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class EmailIngestionScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailIngestionScheduler.class);
+
+    @Autowired
+    private OrderEmailProcessingService emailProcessingService;
+    @Autowired
+    private ImapIdleWatcher idleWatcher;
+
+    @Scheduled(cron = "${app.email.polling.cron-schedule}")
+    public void pollOnSchedule() {
+        if (idleWatcher.isIdling()) {
+            log.debug("IMAP IDLE session is active. Skipping cron poll.");
+            return;
+        }
+        emailProcessingService.pollAndProcessEmails();
+    }
+}
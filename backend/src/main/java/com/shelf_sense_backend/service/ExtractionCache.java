@@ -0,0 +1,272 @@
+package com.shelf_sense_backend.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shelf_sense_backend.dto.ExtractedProduct;
+import com.shelf_sense_backend.model.ExtractionCacheEntry;
+import com.shelf_sense_backend.repo.ExtractionCacheRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Content-addressed cache of AI model extraction results. Entries are keyed
+ * by a SHA-256 over the model, prompt version and whitespace-normalised
+ * prompt, kept in an in-memory LRU in front of the extraction_cache table.
+ * Concurrent lookups of the same key share a single model call. Rows not
+ * used for {@code ttl-days} are deleted, and the least recently used ones
+ * beyond {@code max-stored-entries}.
+ */
+@Component
+public class ExtractionCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionCache.class);
+
+    private static final TypeReference<List<ExtractedProduct>> RESULT_TYPE = new TypeReference<>() {
+    };
+
+    @Autowired
+    private ExtractionCacheRepository extractionCacheRepository;
+
+    @Value("${app.ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.ai.cache.ttl-days:90}")
+    private long ttlDays;
+
+    @Value("${app.ai.cache.max-stored-entries:50000}")
+    private int maxStoredEntries;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, List<ExtractedProduct>> memory;
+    private final ConcurrentHashMap<String, CompletableFuture<List<ExtractedProduct>>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter memoryHits;
+    private final Counter storeHits;
+    private final Counter misses;
+    private final Counter coalesced;
+
+    public ExtractionCache(MeterRegistry meterRegistry,
+            @Value("${app.ai.cache.memory-entries:500}") int memoryEntries) {
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<ExtractedProduct>> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        this.memoryHits = resultCounter(meterRegistry, "hit_memory");
+        this.storeHits = resultCounter(meterRegistry, "hit_store");
+        this.misses = resultCounter(meterRegistry, "miss");
+        this.coalesced = Counter.builder("ai.extraction.cache.coalesced")
+                .description("Extraction requests that waited for an identical in-flight model call")
+                .register(meterRegistry);
+    }
+
+    private static Counter resultCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("ai.extraction.cache")
+                .description("AI extraction cache lookups")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public String keyFor(String model, String promptVersion, String prompt) {
+        String normalised = prompt.replaceAll("\\s+", " ").trim();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((model + "\n" + promptVersion + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(normalised.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Returns the cached result for the key, or runs the loader. Empty results
+     * are treated as failures and are not cached.
+     */
+    public List<ExtractedProduct> getOrCompute(String key, Supplier<List<ExtractedProduct>> loader) {
+        try {
+            return getOrComputeAsync(key, () -> CompletableFuture.completedFuture(loader.get())).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    /**
+     * Asynchronous form of {@link #getOrCompute}. The loader's future should
+     * complete off the I/O threads, since storing a result writes to the
+     * database.
+     */
+    public CompletableFuture<List<ExtractedProduct>> getOrComputeAsync(String key,
+            Supplier<CompletableFuture<List<ExtractedProduct>>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        List<ExtractedProduct> cached = lookup(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<List<ExtractedProduct>> mine = new CompletableFuture<>();
+        CompletableFuture<List<ExtractedProduct>> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            logger.debug("Waiting for in-flight extraction {}", key);
+            return existing.copy();
+        }
+
+        // Another caller may have finished between the lookup and claiming the key
+        List<ExtractedProduct> result = memoryGet(key);
+        if (result != null) {
+            inFlight.remove(key, mine);
+            mine.complete(result);
+            return mine;
+        }
+
+        misses.increment();
+        CompletableFuture<List<ExtractedProduct>> loaded;
+        try {
+            loaded = loader.get();
+        } catch (RuntimeException e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+        loaded.whenComplete((value, error) -> {
+            try {
+                if (error == null && value != null && !value.isEmpty()) {
+                    store(key, value);
+                }
+            } finally {
+                inFlight.remove(key, mine);
+                if (error != null) {
+                    mine.completeExceptionally(error);
+                } else {
+                    mine.complete(value);
+                }
+            }
+        });
+        return mine.copy();
+    }
+
+    /**
+     * Returns the cached result without loading it, or null on a miss.
+     */
+    public List<ExtractedProduct> getIfPresent(String key) {
+        if (!enabled) {
+            return null;
+        }
+        List<ExtractedProduct> cached = lookup(key);
+        if (cached == null) {
+            misses.increment();
+        }
+        return cached;
+    }
+
+    public void put(String key, List<ExtractedProduct> result) {
+        if (enabled && result != null && !result.isEmpty()) {
+            store(key, result);
+        }
+    }
+
+    @Scheduled(cron = "${app.ai.cache.prune-cron:0 30 3 * * ?}")
+    public void prune() {
+        try {
+            int expired = ttlDays > 0
+                    ? extractionCacheRepository.deleteUnusedSince(Instant.now().minus(Duration.ofDays(ttlDays)))
+                    : 0;
+            int evicted = 0;
+            long excess = extractionCacheRepository.count() - maxStoredEntries;
+            while (maxStoredEntries > 0 && excess > 0) {
+                List<Long> ids = extractionCacheRepository
+                        .findLeastRecentlyUsedIds(PageRequest.of(0, (int) Math.min(excess, 1000)));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                extractionCacheRepository.deleteAllByIdInBatch(ids);
+                evicted += ids.size();
+                excess -= ids.size();
+            }
+            if (expired + evicted > 0) {
+                logger.info("Pruned {} expired and {} least recently used extraction cache entries", expired, evicted);
+            }
+        } catch (Exception e) {
+            logger.warn("Could not prune the extraction cache: {}", e.getMessage());
+        }
+    }
+
+    private List<ExtractedProduct> lookup(String key) {
+        List<ExtractedProduct> cached = memoryGet(key);
+        if (cached != null) {
+            memoryHits.increment();
+            return cached;
+        }
+
+        try {
+            Optional<ExtractionCacheEntry> entryOpt = extractionCacheRepository.findByCacheKey(key);
+            if (entryOpt.isPresent()) {
+                ExtractionCacheEntry entry = entryOpt.get();
+                List<ExtractedProduct> result = objectMapper.readValue(entry.getResponseJson(), RESULT_TYPE);
+                entry.setHitCount(entry.getHitCount() + 1);
+                entry.setLastHitTimestamp(Instant.now());
+                extractionCacheRepository.save(entry);
+                memoryPut(key, result);
+                storeHits.increment();
+                return result;
+            }
+        } catch (Exception e) {
+            logger.warn("Could not read extraction cache entry {}: {}", key, e.getMessage());
+        }
+        return null;
+    }
+
+    private void store(String key, List<ExtractedProduct> result) {
+        memoryPut(key, result);
+        try {
+            ExtractionCacheEntry entry = new ExtractionCacheEntry();
+            entry.setCacheKey(key);
+            entry.setResponseJson(objectMapper.writeValueAsString(result));
+            entry.setCreatedTimestamp(Instant.now());
+            extractionCacheRepository.save(entry);
+        } catch (DataIntegrityViolationException e) {
+            logger.debug("Extraction cache entry {} was stored by another instance", key);
+        } catch (Exception e) {
+            logger.warn("Could not store extraction cache entry {}: {}", key, e.getMessage());
+        }
+    }
+
+    private synchronized List<ExtractedProduct> memoryGet(String key) {
+        return memory.get(key);
+    }
+
+    private synchronized void memoryPut(String key, List<ExtractedProduct> result) {
+        memory.put(key, List.copyOf(result));
+    }
+}
@@ -1,113 +1,284 @@
 package com.shelf_sense_backend.service;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.shelf_sense_backend.dto.ExtractedProduct;
 import com.shelf_sense_backend.model.Order;
 import com.shelf_sense_backend.model.ShoppedItem;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 @Service
 public class GroceryReceiptAnalyzer {
 
     private static final Logger logger = LoggerFactory.getLogger(GroceryReceiptAnalyzer.class);
 
+    private static final Pattern UNIT_ONLY_WEIGHT = Pattern.compile("grams|kg|ml|piece|g", Pattern.CASE_INSENSITIVE);
+
     @Autowired
     private AIModelClient aiModelClient;
 
-    public List<ShoppedItem> parseReceipt(String receiptText, Order order) {
+    @Autowired
+    private OdaReceiptParser odaReceiptParser;
+
+    @Autowired
+    private ProductClassificationIndex productClassificationIndex;
+
+    @Autowired
+    private ReceiptExtractionBatcher receiptExtractionBatcher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.receipt.parser.min-confidence:0.9}")
+    private double minParserConfidence;
+
+    @Value("${app.receipt.ai.max-chunk-lines:40}")
+    private int maxChunkLines;
+
+    @Value("${app.receipt.ai.max-chunk-tokens:1500}")
+    private int maxChunkTokens;
+
+    @Value("${app.receipt.ai.max-parallel-chunks:4}")
+    private int maxParallelChunks;
+
+    /**
+     * Parses the items deterministically when the receipt has the usual Oda
+     * layout and only asks the AI model to classify them. Receipts the parser
+     * is not confident about go to the AI model in full; if that fails too,
+     * whatever the parser found is returned, but if the model is unavailable,
+     * for the extraction or for classifying parsed items, a
+     * {@link ModelUnavailableException} is thrown instead. {@code itemsBlock}
+     * is just the items section of the receipt, see
+     * {@link OdaReceiptParser#extractItemsBlock}.
+     */
+    public List<ShoppedItem> parseReceipt(String itemsBlock, Order order) {
+        return parseReceipt(itemsBlock, order, item -> {
+        });
+    }
+
+    /**
+     * Like {@link #parseReceipt(String, Order)}, and passes each item to
+     * {@code onItem} on the calling thread as soon as it is found: items
+     * the AI model extracts one by one while it is still generating, parsed
+     * items all at once.
+     */
+    public List<ShoppedItem> parseReceipt(String itemsBlock, Order order, Consumer<ShoppedItem> onItem) {
+        OdaReceiptParser.Result parsed = odaReceiptParser.parse(itemsBlock);
+        if (!parsed.items().isEmpty() && parsed.confidence() >= minParserConfidence) {
+            List<ShoppedItem> items = parsed.items();
+            classifyItems(items);
+            items.forEach(item -> item.setOrder(order));
+            items.forEach(onItem);
+            logger.info("Parsed {} items with the receipt parser (confidence {})",
+                    items.size(), parsed.confidence());
+            return items;
+        }
+        logger.info("Receipt parser confidence {} is below {}, using AI extraction",
+                parsed.confidence(), minParserConfidence);
 
         try {
-            List<ShoppedItem> items = extractItemsUsingAI(receiptText, order);
+            List<ShoppedItem> items = extractItemsUsingAI(itemsBlock, order, onItem);
             if (!items.isEmpty()) {
                 logger.info("Successfully extracted {} items using AI", items.size());
                 return items;
             }
+        } catch (ModelUnavailableException e) {
+            // The caller parks the receipt rather than settle for low-confidence items
+            throw e;
         } catch (Exception e) {
             logger.warn("AI extraction failed, falling back to pattern matching: {}", e.getMessage());
         }
 
+        if (!parsed.items().isEmpty()) {
+            logger.warn("Using {} low-confidence items from the receipt parser", parsed.items().size());
+            parsed.items().forEach(item -> item.setOrder(order));
+            parsed.items().forEach(onItem);
+            return parsed.items();
+        }
         return null;
     }
 
-    private List<ShoppedItem> extractItemsUsingAI(String receiptText, Order order) {
-        List<ShoppedItem> items = new ArrayList<>();
-
-        List<Map<String, Object>> extractedItems = aiModelClient.processReceiptText(receiptText);
+    private void classifyItems(List<ShoppedItem> items) {
+        // Known lines are filled from the dictionary; only unseen names go to the model
+        List<ShoppedItem> unknownItems = new ArrayList<>();
+        Set<String> unknownNames = new LinkedHashSet<>();
+        for (ShoppedItem item : items) {
+            ProductClassificationIndex.Classification known = productClassificationIndex.find(item.getRawName());
+            if (known != null) {
+                item.setGeneralName(known.generalName());
+                item.setFoodType(known.foodType());
+            } else {
+                unknownItems.add(item);
+                unknownNames.add(item.getRawName());
+            }
+        }
+        logger.info("Classified {} of {} items from known products, {} new product name(s) for the AI model",
+                items.size() - unknownItems.size(), items.size(), unknownNames.size());
+        if (unknownNames.isEmpty()) {
+            return;
+        }
 
-        for (Map<String, Object> extractedItem : extractedItems) {
-            ShoppedItem item = new ShoppedItem();
+        List<String> productNames = new ArrayList<>(unknownNames);
+        List<ExtractedProduct> classifications;
+        try {
+            classifications = aiModelClient.classifyProducts(productNames);
+        } catch (ModelUnavailableException e) {
+            // Parked like any other receipt, rather than saved without classification for good
+            throw e;
+        } catch (Exception e) {
+            logger.warn("Product classification failed, saving items without it: {}", e.getMessage());
+            return;
+        }
 
-            if (extractedItem.containsKey("product_name")) {
-                item.setRawName((String) extractedItem.get("product_name"));
+        Map<String, ExtractedProduct> byName = new HashMap<>();
+        boolean alignedByIndex = classifications.size() == productNames.size();
+        for (int i = 0; i < classifications.size(); i++) {
+            ExtractedProduct classification = classifications.get(i);
+            String productName = alignedByIndex ? productNames.get(i) : classification.productName();
+            if (productName != null) {
+                byName.put(productName, classification);
             }
+        }
 
-            if (extractedItem.containsKey("quantity")) {
-                Object quantityObj = extractedItem.get("quantity");
-                if (quantityObj instanceof Number) {
-                    item.setQuantity(((Number) quantityObj).intValue());
-                } else if (quantityObj instanceof String) {
-                    try {
-                        item.setQuantity((int) Double.parseDouble((String) quantityObj));
-                    } catch (NumberFormatException e) {
-                        item.setQuantity(1);
-                    }
-                }
-            } else {
-                item.setQuantity(1);
+        for (ShoppedItem item : unknownItems) {
+            ExtractedProduct classification = byName.get(item.getRawName());
+            if (classification == null) {
+                continue;
             }
-
-            if (extractedItem.containsKey("weight")) {
-                String weightValue = (String) extractedItem.get("weight");
-                // Check if the weight is just a unit without a value
-                if (weightValue.matches("(?i)grams|kg|ml|piece|g")) {
-                    // Extract the actual weight from the product name
-                    String extractedWeight = extractWeightFromProductName(item.getRawName());
-                    if (extractedWeight != null) {
-                        item.setWeightOrVolume(extractedWeight);
-                    } else {
-                        item.setWeightOrVolume(weightValue); // Fall back to the original value
-                    }
-                } else {
-                    item.setWeightOrVolume(weightValue);
-                }
+            if (classification.generalName() != null) {
+                item.setGeneralName(classification.generalName());
             }
-            if (extractedItem.containsKey("general_name")) {
-                item.setGeneralName((String) extractedItem.get("general_name"));
+            if (classification.foodType() != null) {
+                item.setFoodType(classification.foodType());
             }
+            productClassificationIndex.add(item);
+        }
+    }
 
-            if (extractedItem.containsKey("food_type")) {
-                item.setFoodType((String) extractedItem.get("food_type"));
-            }
-            item.setOrder(order);
+    private List<ShoppedItem> extractItemsUsingAI(String itemsBlock, Order order, Consumer<ShoppedItem> onItem) {
+        long started = System.nanoTime();
+        long firstItemNanos = 0;
 
+        List<String> chunks = splitIntoChunks(itemsBlock);
+        if (chunks.size() > 1) {
+            logger.info("Splitting receipt into {} chunks for AI extraction", chunks.size());
+        }
+        // Only whole receipts are batched, the chunks of one receipt are separate requests run in parallel
+        boolean batched = chunks.size() == 1 && receiptExtractionBatcher.isEnabled();
+        List<Flux<ExtractedProduct>> chunkStreams = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            int chunkNumber = i + 1;
+            String chunk = chunks.get(i);
+            Flux<ExtractedProduct> chunkStream = batched
+                    ? Mono.fromFuture(() -> receiptExtractionBatcher.submit(chunk)).flatMapMany(Flux::fromIterable)
+                    : aiModelClient.streamReceiptText(chunk);
+            chunkStreams.add(chunkStream
+                    .switchIfEmpty(Flux.error(new IllegalStateException(
+                            "AI model returned no items for chunk " + chunkNumber + " of " + chunks.size()))));
+        }
+
+        // Chunks run concurrently, items come out in receipt order; streamed ones as soon as they are generated
+        List<ShoppedItem> items = new ArrayList<>();
+        for (ExtractedProduct extractedItem : Flux.mergeSequential(chunkStreams, maxParallelChunks, 32)
+                .toIterable()) {
+            if (firstItemNanos == 0) {
+                firstItemNanos = System.nanoTime() - started;
+            }
+            ShoppedItem item = toShoppedItem(extractedItem, order);
             items.add(item);
+            onItem.accept(item);
         }
 
+        meterRegistry.counter("ai.extraction.receipts", "batching", batched ? "on" : "off").increment();
+        if (!items.isEmpty()) {
+            logger.debug("First AI item after {} ms, all {} items after {} ms",
+                    TimeUnit.NANOSECONDS.toMillis(firstItemNanos), items.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
         return items;
     }
 
-    private String extractWeightFromProductName(String productName) {
-        Pattern weightPattern = Pattern.compile(
-                "(\\d+(?:[.,]\\d+)?\\s*(?:g|kg|ml|l|stk))\\b|" + // Match 125 g, 1,1 kg, 500 ml, 1 l
-                        "(\\d+\\s+stk)\\b", // Match "6 stk", "2 stk" format
-                Pattern.CASE_INSENSITIVE);
+    /**
+     * Splits the items block into chunks of at most maxChunkLines lines and
+     * about maxChunkTokens tokens. Cuts are made after a line that closes an
+     * item, so a product name is never separated from its quantity line.
+     */
+    List<String> splitIntoChunks(String itemsBlock) {
+        String[] lines = itemsBlock.split("\\R");
+        List<String> chunks = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder();
+        int chunkLines = 0;
+        int lastBoundary = -1; // Length of the chunk up to the last item boundary
+        int linesAtBoundary = 0;
 
-        Matcher weightMatcher = weightPattern.matcher(productName);
-        if (weightMatcher.find()) {
-            String weight = weightMatcher.group(0);
-            return weight.trim();
-        }
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            chunk.append(line).append('\n');
+            chunkLines++;
+            if (odaReceiptParser.isItemBoundary(line)) {
+                lastBoundary = chunk.length();
+                linesAtBoundary = chunkLines;
+            }
 
-        return null;
+            boolean overBudget = chunkLines >= maxChunkLines
+                    || AIModelClient.estimateTokens(chunk.toString()) >= maxChunkTokens;
+            if (overBudget) {
+                int cut = lastBoundary > 0 ? lastBoundary : chunk.length();
+                chunks.add(chunk.substring(0, cut));
+                String rest = chunk.substring(cut);
+                chunkLines = lastBoundary > 0 ? chunkLines - linesAtBoundary : 0;
+                chunk.setLength(0);
+                chunk.append(rest);
+                lastBoundary = -1;
+                linesAtBoundary = 0;
+            }
+        }
+        if (!chunk.toString().isBlank()) {
+            chunks.add(chunk.toString());
+        }
+        if (chunks.isEmpty()) {
+            chunks.add(itemsBlock);
+        }
+        return chunks;
     }
 
-   
-}
\ No newline at end of file
+    private ShoppedItem toShoppedItem(ExtractedProduct extractedItem, Order order) {
+        ShoppedItem item = new ShoppedItem();
+        item.setRawName(extractedItem.productName());
+        item.setQuantity(extractedItem.wholeQuantity());
+
+        String weightValue = extractedItem.weight();
+        // A weight that is just a unit without a value is taken from the product name instead
+        if (weightValue != null && UNIT_ONLY_WEIGHT.matcher(weightValue).matches()) {
+            String extractedWeight = odaReceiptParser.extractWeight(item.getRawName());
+            item.setWeightOrVolume(extractedWeight != null ? extractedWeight : weightValue);
+        } else {
+            item.setWeightOrVolume(weightValue);
+        }
+        item.setGeneralName(extractedItem.generalName());
+        item.setFoodType(extractedItem.foodType());
+        item.setOrder(order);
+        productClassificationIndex.add(item);
+
+        return item;
+    }
+}
@@ -0,0 +1,227 @@
+package com.shelf_sense_backend.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import com.shelf_sense_backend.model.ImageFingerprint;
+import com.shelf_sense_backend.repo.ImageFingerprintRepository;
+
+/**
+ * Fingerprints of receipt images that were saved as orders, so a photo that
+ * is uploaded again is recognised before it reaches Vision or the AI model.
+ * Exact copies are found by the SHA-256 of the file. Re-shoots of the same
+ * receipt are found by a 64-bit difference hash: the hash is split into four
+ * 16-bit bands, and a lookup probes each band's value and its sixteen
+ * one-bit neighbours. Two hashes at most seven bits apart differ in at most
+ * one bit in some band, so every match within the distance limit is found
+ * with 68 map lookups however large the index grows. The hash is taken
+ * from the cropped receipt scaled to 9x8, which loses its length, so a match
+ * must also have about the same height to width ratio. Different receipts
+ * of the same length and layout can still match; that is why near matches
+ * are only flagged. Loaded from image_fingerprints at startup and extended
+ * as orders are saved.
+ */
+@Component
+public class ImageFingerprintIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageFingerprintIndex.class);
+
+    private static final int BANDS = 4;
+    private static final int BAND_BITS = 16;
+    // Largest distance the band probing is guaranteed to find
+    private static final int MAX_SEARCH_DISTANCE = BANDS * 2 - 1;
+
+    public record Match(Long orderId, int distance) {
+    }
+
+    private record Entry(long hash, float paperAspect, Long orderId) {
+    }
+
+    /**
+     * Entries sharing one band value. Appended to in place under the index
+     * lock; a reader takes the size before the array, so it always sees a
+     * filled prefix. Removing entries replaces the whole bucket.
+     */
+    private static final class Bucket {
+
+        private volatile Entry[] entries = new Entry[2];
+        private volatile int size;
+
+        void add(Entry entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size] = entry;
+            size++;
+        }
+
+        Bucket without(Long orderId) {
+            Bucket kept = new Bucket();
+            for (int i = 0; i < size; i++) {
+                if (!entries[i].orderId().equals(orderId)) {
+                    kept.add(entries[i]);
+                }
+            }
+            return kept;
+        }
+    }
+
+    @Autowired
+    private ImageFingerprintRepository imageFingerprintRepository;
+
+    private final int maxDistance;
+    private final double maxAspectDifference;
+    private final Map<String, Long> ordersBySha256 = new ConcurrentHashMap<>();
+    // Key is the band number in the high bits and the band value in the low 16
+    private final Map<Integer, Bucket> bands = new ConcurrentHashMap<>();
+
+    public ImageFingerprintIndex(
+            @Value("${app.ocr.dedup.max-distance:4}") int maxDistance,
+            @Value("${app.ocr.dedup.max-aspect-difference:0.03}") double maxAspectDifference) {
+        if (maxDistance > MAX_SEARCH_DISTANCE) {
+            log.warn("Near-duplicate distance {} is above {}, the most the index can search; using {}.",
+                    maxDistance, MAX_SEARCH_DISTANCE, MAX_SEARCH_DISTANCE);
+        }
+        this.maxDistance = Math.min(maxDistance, MAX_SEARCH_DISTANCE);
+        this.maxAspectDifference = maxAspectDifference;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            List<ImageFingerprint> fingerprints = imageFingerprintRepository.findAll();
+            fingerprints.forEach(this::add);
+            log.info("Loaded {} image fingerprint(s).", fingerprints.size());
+        } catch (Exception e) {
+            log.error("Could not load image fingerprints, duplicate uploads will not be recognised: {}",
+                    e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the order saved from an identical file, or null.
+     */
+    public Long findExact(String sha256) {
+        return ordersBySha256.get(sha256);
+    }
+
+    /**
+     * Returns the closest saved image within the near-duplicate distance, or
+     * null.
+     */
+    public Match findNear(long perceptualHash, float paperAspect) {
+        Match best = null;
+        for (int band = 0; band < BANDS; band++) {
+            int value = bandValue(perceptualHash, band);
+            for (int bit = -1; bit < BAND_BITS; bit++) {
+                int probe = bit < 0 ? value : value ^ (1 << bit);
+                Bucket bucket = bands.get(key(band, probe));
+                if (bucket == null) {
+                    continue;
+                }
+                int size = bucket.size;
+                Entry[] entries = bucket.entries;
+                for (int i = 0; i < size; i++) {
+                    Entry entry = entries[i];
+                    int distance = Long.bitCount(entry.hash() ^ perceptualHash);
+                    if (distance <= maxDistance && (best == null || distance < best.distance())
+                            && Math.abs(entry.paperAspect() - paperAspect) <= maxAspectDifference * paperAspect) {
+                        best = new Match(entry.orderId(), distance);
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Records the image of a saved order. An image already in the index
+     * keeps its first order.
+     */
+    public void record(String sha256, Long perceptualHash, Float paperAspect, Long orderId) {
+        if (ordersBySha256.containsKey(sha256)) {
+            return;
+        }
+        ImageFingerprint fingerprint = new ImageFingerprint();
+        fingerprint.setSha256(sha256);
+        fingerprint.setPerceptualHash(perceptualHash);
+        fingerprint.setPaperAspect(paperAspect);
+        fingerprint.setOrderId(orderId);
+        fingerprint.setCreatedTimestamp(Instant.now());
+        try {
+            imageFingerprintRepository.save(fingerprint);
+        } catch (DataIntegrityViolationException e) {
+            // Another job recorded the same file first
+            log.debug("Image {} is already fingerprinted.", sha256);
+        }
+        add(fingerprint);
+    }
+
+    /**
+     * Forgets every image of an order that no longer exists.
+     */
+    public synchronized void removeOrder(Long orderId) {
+        imageFingerprintRepository.deleteByOrderId(orderId);
+        ordersBySha256.values().removeIf(orderId::equals);
+        bands.replaceAll((key, bucket) -> bucket.without(orderId));
+        bands.values().removeIf(bucket -> bucket.size == 0);
+    }
+
+    public int size() {
+        return ordersBySha256.size();
+    }
+
+    synchronized void add(ImageFingerprint fingerprint) {
+        ordersBySha256.putIfAbsent(fingerprint.getSha256(), fingerprint.getOrderId());
+        if (fingerprint.getPerceptualHash() == null || fingerprint.getPaperAspect() == null) {
+            return;
+        }
+        Entry entry = new Entry(fingerprint.getPerceptualHash(), fingerprint.getPaperAspect(),
+                fingerprint.getOrderId());
+        for (int band = 0; band < BANDS; band++) {
+            bands.computeIfAbsent(key(band, bandValue(entry.hash(), band)), key -> new Bucket()).add(entry);
+        }
+    }
+
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static int bandValue(long hash, int band) {
+        return (int) (hash >>> (band * BAND_BITS)) & 0xFFFF;
+    }
+
+    private static int key(int band, int value) {
+        return band << BAND_BITS | value;
+    }
+}
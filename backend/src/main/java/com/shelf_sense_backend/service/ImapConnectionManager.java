@@ -0,0 +1,176 @@
+package com.shelf_sense_backend.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Folder;
+import jakarta.mail.FolderClosedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+import jakarta.mail.StoreClosedException;
+
+/**
+ * Holds one IMAP store and folder open across polls. Each use is preceded by
+ * a NOOP, which both proves the connection is alive and lets the server push
+ * EXISTS updates; a failed NOOP or an expired connection is replaced
+ * transparently before the caller sees the folder.
+ */
+@Component
+public class ImapConnectionManager {
+
+    private static final Logger log = LoggerFactory.getLogger(ImapConnectionManager.class);
+
+    @FunctionalInterface
+    public interface FolderCallback<T> {
+        T doInFolder(Folder folder) throws MessagingException, InterruptedException;
+    }
+
+    @Autowired
+    private JavaMailSender mailSender;
+
+    @Value("${spring.mail.username}")
+    private String username;
+    @Value("${spring.mail.password}")
+    private String password;
+    @Value("${spring.mail.host}")
+    private String host;
+    @Value("${spring.mail.properties.mail.store.protocol}")
+    private String protocol;
+    @Value("${app.email.connection.max-age-minutes:60}")
+    private long maxAgeMinutes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Counter connectCounter;
+
+    private Store store;
+    private Folder folder;
+    private volatile Instant connectedAt;
+
+    public ImapConnectionManager(MeterRegistry meterRegistry) {
+        this.connectCounter = Counter.builder("mail.imap.connects")
+                .description("IMAP logins performed by the connection manager")
+                .register(meterRegistry);
+        Gauge.builder("mail.imap.connection.age", this, ImapConnectionManager::connectionAgeSeconds)
+                .description("Age of the current IMAP connection")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs the callback against the open INBOX folder. Calls are serialised,
+     * since an IMAP folder cannot be shared between threads.
+     */
+    public <T> T withFolder(FolderCallback<T> callback) throws MessagingException, InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Folder openFolder = ensureOpenFolder();
+            try {
+                return callback.doInFolder(openFolder);
+            } catch (FolderClosedException | StoreClosedException e) {
+                log.warn("IMAP connection dropped while in use: {}. It will be reopened on next use.", e.getMessage());
+                disconnect();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Session createSession() {
+        return Session.getInstance(((JavaMailSenderImpl) mailSender).getJavaMailProperties());
+    }
+
+    public long getConnectCount() {
+        return (long) connectCounter.count();
+    }
+
+    public double connectionAgeSeconds() {
+        Instant since = connectedAt;
+        return since == null ? 0 : Duration.between(since, Instant.now()).toSeconds();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lock.lock();
+        try {
+            disconnect();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Folder ensureOpenFolder() throws MessagingException {
+        if (folder != null && folder.isOpen() && !isExpired() && isAlive()) {
+            return folder;
+        }
+        disconnect();
+        connect();
+        return folder;
+    }
+
+    private boolean isExpired() {
+        return connectedAt != null && Duration.between(connectedAt, Instant.now()).toMinutes() >= maxAgeMinutes;
+    }
+
+    private boolean isAlive() {
+        try {
+            ((IMAPFolder) folder).doCommand(imapProtocol -> {
+                imapProtocol.noop();
+                return null;
+            });
+            return true;
+        } catch (MessagingException e) {
+            log.info("IMAP connection failed NOOP check: {}. Reconnecting.", e.getMessage());
+            return false;
+        }
+    }
+
+    private void connect() throws MessagingException {
+        store = createSession().getStore(protocol);
+        store.connect(host, username, password);
+        connectCounter.increment();
+        connectedAt = Instant.now();
+        log.debug("Connected to email store: {}@{} (connect #{})", protocol, host, getConnectCount());
+
+        folder = store.getFolder("INBOX");
+        folder.open(Folder.READ_WRITE);
+        log.debug("Opened folder: '{}'", folder.getFullName());
+    }
+
+    private void disconnect() {
+        try {
+            if (folder != null && folder.isOpen()) {
+                folder.close(false);
+                log.debug("Closed email folder.");
+            }
+        } catch (MessagingException e) {
+            log.error("Error closing email folder: {}", e.getMessage(), e);
+        }
+        try {
+            if (store != null && store.isConnected()) {
+                store.close();
+                log.debug("Closed email store connection.");
+            }
+        } catch (MessagingException e) {
+            log.error("Error closing email store: {}", e.getMessage(), e);
+        }
+        folder = null;
+        store = null;
+        connectedAt = null;
+    }
+}
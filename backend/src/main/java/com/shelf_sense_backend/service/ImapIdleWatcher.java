@@ -0,0 +1,208 @@
+package com.shelf_sense_backend.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.IMAPStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Folder;
+import jakarta.mail.FolderClosedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+import jakarta.mail.StoreClosedException;
+import jakarta.mail.event.MessageCountAdapter;
+import jakarta.mail.event.MessageCountEvent;
+
+/**
+ * Keeps a long-lived IMAP IDLE session on the receipt folder and triggers an
+ * incremental poll as soon as the server reports new mail. Only active when
+ * {@code app.email.ingestion.mode=idle}; while it is not idling the cron
+ * schedule in {@link EmailIngestionScheduler} keeps polling.
+ */
+@Component
+public class ImapIdleWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ImapIdleWatcher.class);
+
+    @Autowired
+    private ImapConnectionManager imapConnectionManager;
+    @Autowired
+    private OrderEmailProcessingService emailProcessingService;
+
+    @Value("${app.email.ingestion.mode:poll}")
+    private String ingestionMode;
+    @Value("${spring.mail.username}")
+    private String username;
+    @Value("${spring.mail.password}")
+    private String password;
+    @Value("${spring.mail.host}")
+    private String host;
+    @Value("${spring.mail.properties.mail.store.protocol}")
+    private String protocol;
+    @Value("${app.email.idle.keepalive-minutes:9}")
+    private long keepaliveMinutes;
+    @Value("${app.email.idle.reconnect-delay-seconds:30}")
+    private long reconnectDelaySeconds;
+
+    private final ScheduledExecutorService keepaliveExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService pollExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean pollQueued = new AtomicBoolean();
+    private final AtomicLong connectCount = new AtomicLong();
+
+    private volatile boolean running;
+    private volatile boolean idling;
+    private Thread idleThread;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!"idle".equalsIgnoreCase(ingestionMode)) {
+            log.info("Email ingestion mode is '{}'. IMAP IDLE watcher not started.", ingestionMode);
+            return;
+        }
+        running = true;
+        idleThread = new Thread(this::runIdleLoop, "imap-idle");
+        idleThread.setDaemon(true);
+        idleThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (idleThread != null) {
+            idleThread.interrupt();
+        }
+        keepaliveExecutor.shutdownNow();
+        pollExecutor.shutdownNow();
+    }
+
+    public boolean isIdling() {
+        return idling;
+    }
+
+    public long getConnectCount() {
+        return connectCount.get();
+    }
+
+    private void runIdleLoop() {
+        while (running) {
+            Store store = null;
+            IMAPFolder folder = null;
+            try {
+                store = imapConnectionManager.createSession().getStore(protocol);
+                store.connect(host, username, password);
+                log.info("IMAP IDLE session connected to {}@{} (connect #{}).", protocol, host,
+                        connectCount.incrementAndGet());
+
+                if (!(store instanceof IMAPStore imapStore) || !imapStore.hasCapability("IDLE")) {
+                    log.warn("Mail server {} does not support IMAP IDLE. Falling back to cron polling.", host);
+                    running = false;
+                    return;
+                }
+
+                folder = (IMAPFolder) store.getFolder("INBOX");
+                folder.open(Folder.READ_ONLY);
+                folder.addMessageCountListener(new MessageCountAdapter() {
+                    @Override
+                    public void messagesAdded(MessageCountEvent event) {
+                        log.info("IMAP IDLE reported {} new message(s).", event.getMessages().length);
+                        triggerPoll();
+                    }
+                });
+
+                idling = true;
+                // Mail may have arrived while we were disconnected
+                triggerPoll();
+
+                ScheduledFuture<?> keepalive = scheduleKeepalive(folder);
+                try {
+                    while (running && folder.isOpen()) {
+                        folder.idle();
+                    }
+                } finally {
+                    keepalive.cancel(false);
+                }
+
+            } catch (FolderClosedException | StoreClosedException e) {
+                log.warn("IMAP IDLE connection was closed by the server: {}. Reconnecting.", e.getMessage());
+            } catch (MessagingException e) {
+                log.error("MessagingException in IMAP IDLE session: {}. Reconnecting in {}s.",
+                        e.getMessage(), reconnectDelaySeconds, e);
+            } catch (Exception e) {
+                log.error("Unexpected error in IMAP IDLE session: {}", e.getMessage(), e);
+            } finally {
+                idling = false;
+                closeQuietly(folder, store);
+            }
+
+            if (running) {
+                try {
+                    TimeUnit.SECONDS.sleep(reconnectDelaySeconds);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private ScheduledFuture<?> scheduleKeepalive(IMAPFolder folder) {
+        // Servers drop IDLE after ~30 minutes; a NOOP ends the current IDLE and the loop re-arms it
+        return keepaliveExecutor.scheduleAtFixedRate(() -> {
+            try {
+                folder.doCommand(imapProtocol -> {
+                    imapProtocol.noop();
+                    return null;
+                });
+                log.debug("Sent IMAP keepalive NOOP.");
+            } catch (MessagingException e) {
+                log.warn("IMAP keepalive failed: {}", e.getMessage());
+            }
+        }, keepaliveMinutes, keepaliveMinutes, TimeUnit.MINUTES);
+    }
+
+    private void triggerPoll() {
+        // Coalesce bursts of events into a single queued poll
+        if (!pollQueued.compareAndSet(false, true)) {
+            return;
+        }
+        pollExecutor.execute(() -> {
+            pollQueued.set(false);
+            try {
+                emailProcessingService.pollAndProcessEmails();
+            } catch (Exception e) {
+                log.error("Email poll triggered by IMAP IDLE failed: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    private void closeQuietly(Folder folder, Store store) {
+        try {
+            if (folder != null && folder.isOpen()) {
+                folder.close(false);
+            }
+        } catch (MessagingException e) {
+            log.debug("Error closing IDLE folder: {}", e.getMessage());
+        }
+        try {
+            if (store != null && store.isConnected()) {
+                store.close();
+            }
+        } catch (MessagingException e) {
+            log.debug("Error closing IDLE store: {}", e.getMessage());
+        }
+    }
+}
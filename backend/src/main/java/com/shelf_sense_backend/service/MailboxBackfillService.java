@@ -0,0 +1,275 @@
+package com.shelf_sense_backend.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.shelf_sense_backend.dto.EmailEnvelope;
+import com.shelf_sense_backend.dto.EnvelopeBatchResult;
+import com.shelf_sense_backend.model.BackfillJob;
+import com.shelf_sense_backend.model.BackfillStatus;
+import com.shelf_sense_backend.repo.BackfillJobRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+
+/**
+ * Imports historical receipts by walking a date range in fixed-size
+ * sent-date windows. Progress is committed after every window, so a job
+ * that dies part way resumes from the first unfinished window when the
+ * application starts again. Windows reuse the regular ingestion pipeline,
+ * which bounds extraction concurrency and saves each order on its own. The
+ * shared IMAP folder is held only while a window is fetched and decoded,
+ * so polls are not blocked while its receipts go through the model.
+ */
+@Service
+public class MailboxBackfillService {
+
+    private static final Logger log = LoggerFactory.getLogger(MailboxBackfillService.class);
+
+    @Autowired
+    private BackfillJobRepository backfillJobRepository;
+    @Autowired
+    private ImapConnectionManager imapConnectionManager;
+    @Autowired
+    private ReceiptMailScanner receiptMailScanner;
+    @Autowired
+    private OrderEmailProcessingService emailProcessingService;
+
+    @Value("${app.email.polling.folder}")
+    private String folderName;
+    @Value("${app.email.backfill.window-days:30}")
+    private int defaultWindowDays;
+    @Value("${app.email.backfill.max-concurrent-jobs:1}")
+    private int maxConcurrentJobs;
+    @Value("${app.email.backfill.max-window-attempts:3}")
+    private int maxWindowAttempts;
+    @Value("${app.email.backfill.retry-delay-seconds:60}")
+    private long retryDelaySeconds;
+
+    private ExecutorService jobExecutor;
+    private final Set<Long> activeJobs = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void init() {
+        jobExecutor = Executors.newFixedThreadPool(Math.max(1, maxConcurrentJobs), runnable -> {
+            Thread thread = new Thread(runnable, "mail-backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedJobs() {
+        for (BackfillJob job : backfillJobRepository.findByStatus(BackfillStatus.RUNNING)) {
+            log.info("Resuming backfill job {} at window starting {}.", job.getId(), job.getNextWindowStart());
+            submit(job.getId());
+        }
+    }
+
+    public BackfillJob startJob(LocalDate from, LocalDate to, Integer windowDays) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            throw new IllegalArgumentException("Backfill range must have a start date before its end date");
+        }
+        int days = windowDays != null ? windowDays : defaultWindowDays;
+        if (days < 1) {
+            throw new IllegalArgumentException("Backfill window must be at least one day");
+        }
+
+        Instant now = Instant.now();
+        BackfillJob job = new BackfillJob();
+        job.setFolderName(folderName);
+        job.setRangeStart(from);
+        job.setRangeEnd(to);
+        job.setWindowDays(days);
+        job.setNextWindowStart(from);
+        job.setStatus(BackfillStatus.RUNNING);
+        job.setCreatedTimestamp(now);
+        job.setUpdatedTimestamp(now);
+        job = backfillJobRepository.save(job);
+
+        log.info("Created backfill job {} for {} to {} in {}-day windows.", job.getId(), from, to, days);
+        submit(job.getId());
+        return job;
+    }
+
+    public Optional<BackfillJob> resumeJob(Long jobId) {
+        Optional<BackfillJob> jobOpt = backfillJobRepository.findById(jobId);
+        if (jobOpt.isEmpty()) {
+            return jobOpt;
+        }
+        BackfillJob job = jobOpt.get();
+        if (job.getStatus() == BackfillStatus.FAILED) {
+            job.setStatus(BackfillStatus.RUNNING);
+            job.setLastError(null);
+            job.setUpdatedTimestamp(Instant.now());
+            job = backfillJobRepository.save(job);
+        }
+        if (job.getStatus() == BackfillStatus.RUNNING) {
+            submit(job.getId());
+        }
+        return Optional.of(job);
+    }
+
+    public Optional<BackfillJob> findJob(Long jobId) {
+        return backfillJobRepository.findById(jobId);
+    }
+
+    public List<BackfillJob> findAllJobs() {
+        return backfillJobRepository.findAll();
+    }
+
+    private void submit(Long jobId) {
+        if (!activeJobs.add(jobId)) {
+            log.debug("Backfill job {} is already running.", jobId);
+            return;
+        }
+        jobExecutor.execute(() -> {
+            try {
+                runJob(jobId);
+            } catch (Exception e) {
+                log.error("Backfill job {} stopped unexpectedly: {}", jobId, e.getMessage(), e);
+            } finally {
+                activeJobs.remove(jobId);
+            }
+        });
+    }
+
+    private void runJob(Long jobId) {
+        BackfillJob job = backfillJobRepository.findById(jobId).orElse(null);
+        if (job == null || job.getStatus() != BackfillStatus.RUNNING) {
+            return;
+        }
+
+        int attempts = 0;
+        while (job.getNextWindowStart().isBefore(job.getRangeEnd())) {
+            LocalDate windowStart = job.getNextWindowStart();
+            LocalDate windowEnd = windowStart.plusDays(job.getWindowDays());
+            if (windowEnd.isAfter(job.getRangeEnd())) {
+                windowEnd = job.getRangeEnd();
+            }
+
+            long started = System.nanoTime();
+            EnvelopeBatchResult result = null;
+            String error = null;
+            try {
+                result = processWindow(windowStart, windowEnd);
+                if (result.failed() > 0) {
+                    error = result.failed() + " email(s) in window " + windowStart + " to " + windowEnd
+                            + " could not be processed";
+                }
+            } catch (InterruptedException e) {
+                // Job stays RUNNING at this window and is picked up again on the next start
+                Thread.currentThread().interrupt();
+                log.warn("Backfill job {} interrupted at window starting {}.", jobId, windowStart);
+                return;
+            } catch (Exception e) {
+                error = e.getMessage();
+                log.error("Backfill job {} window {} to {} failed: {}", jobId, windowStart, windowEnd, error, e);
+            }
+            long windowMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            job.setActiveMillis(job.getActiveMillis() + windowMillis);
+
+            if (error == null) {
+                job.setMessagesProcessed(job.getMessagesProcessed() + result.emails());
+                job.setOrdersSaved(job.getOrdersSaved() + result.ordersSaved());
+                job.setNextWindowStart(windowEnd);
+                attempts = 0;
+            } else if (++attempts >= maxWindowAttempts) {
+                job.setFailedMessages(job.getFailedMessages() + (result != null ? result.failed() : 0));
+                job.setStatus(BackfillStatus.FAILED);
+                job.setLastError(truncate(error));
+            }
+            job.setUpdatedTimestamp(Instant.now());
+            job = backfillJobRepository.save(job);
+
+            if (job.getStatus() == BackfillStatus.FAILED) {
+                log.error("Backfill job {} failed after {} attempt(s) at window starting {}: {}",
+                        jobId, attempts, windowStart, error);
+                return;
+            }
+            if (error != null) {
+                log.warn("Retrying backfill job {} window starting {} in {} s (attempt {} of {}).",
+                        jobId, windowStart, retryDelaySeconds, attempts + 1, maxWindowAttempts);
+                try {
+                    TimeUnit.SECONDS.sleep(retryDelaySeconds);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+
+            log.info("Backfill job {} window {} to {}: {} email(s), {} order(s) in {} ms. Overall {} msg/s, {} orders/s.",
+                    jobId, windowStart, windowEnd, result.emails(), result.ordersSaved(), windowMillis,
+                    String.format("%.2f", job.getMessagesPerSecond()),
+                    String.format("%.2f", job.getOrdersPerSecond()));
+        }
+
+        job.setStatus(BackfillStatus.COMPLETED);
+        job.setUpdatedTimestamp(Instant.now());
+        backfillJobRepository.save(job);
+        log.info("Backfill job {} completed: {} email(s), {} order(s) in {} ms.",
+                jobId, job.getMessagesProcessed(), job.getOrdersSaved(), job.getActiveMillis());
+    }
+
+    private EnvelopeBatchResult processWindow(LocalDate from, LocalDate to)
+            throws MessagingException, InterruptedException {
+        Date fromDate = Date.from(from.atStartOfDay(ZoneId.systemDefault()).toInstant());
+        Date toDate = Date.from(to.atStartOfDay(ZoneId.systemDefault()).toInstant());
+
+        OrderEmailProcessingService.DecodedBatch batch = imapConnectionManager.withFolder(folder -> {
+            Message[] messages = receiptMailScanner.findMessagesSentBetween(folder, fromDate, toDate);
+            if (messages.length == 0) {
+                return null;
+            }
+            List<EmailEnvelope> envelopes = receiptMailScanner.prefetchEnvelopes(folder, messages);
+            return emailProcessingService.decodeEnvelopes(envelopes);
+        });
+        if (batch == null) {
+            return new EnvelopeBatchResult(0, 0, 0, Long.MAX_VALUE);
+        }
+
+        EnvelopeBatchResult result = emailProcessingService.extractDecoded(batch);
+        try {
+            imapConnectionManager.withFolder(folder -> {
+                emailProcessingService.markAsRead(folder, batch);
+                return null;
+            });
+        } catch (MessagingException e) {
+            // The orders are saved; only the read flags are missing
+            log.warn("Could not mark the emails of window {} to {} as read: {}", from, to, e.getMessage());
+        }
+        return result;
+    }
+
+    private static String truncate(String error) {
+        if (error == null || error.length() <= 1000) {
+            return error;
+        }
+        return error.substring(0, 1000);
+    }
+}
@@ -0,0 +1,389 @@
+package com.shelf_sense_backend.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.SharedInputStream;
+
+/**
+ * Append-only on-disk copy of the raw MIME bytes of every receipt email we
+ * download. Records live in fixed-size segment files and are located through
+ * an in-memory index keyed by Message-ID, rebuilt from the segments on
+ * startup. Messages are streamed from the server straight into the segment
+ * file, and reads parse the memory-mapped record in place, so no message
+ * is ever held whole on the heap and replaying the spool runs at local disk
+ * speed without touching the mail server.
+ */
+@Component
+public class MimeSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(MimeSpool.class);
+
+    private static final int RECORD_MAGIC = 0x4D494D45; // "MIME"
+    // Length written until the message is complete; a record left with it is cut off on startup
+    private static final int INCOMPLETE_LENGTH = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    private record SpoolEntry(int segment, long offset, int length) {
+    }
+
+    @Value("${app.email.spool.enabled:true}")
+    private boolean enabled;
+    @Value("${app.email.spool.directory:./data/mail-spool}")
+    private String directory;
+    @Value("${app.email.spool.segment-size-mb:64}")
+    private long segmentSizeMb;
+
+    private final Session parsingSession = Session.getInstance(new Properties());
+    private final Map<String, SpoolEntry> index = new ConcurrentHashMap<>();
+    private final Map<Integer, FileChannel> readChannels = new ConcurrentHashMap<>();
+
+    private Path spoolDirectory;
+    private FileChannel writeChannel;
+    private int writeSegment;
+
+    @PostConstruct
+    void open() {
+        if (!enabled) {
+            log.info("Raw MIME spool is disabled.");
+            return;
+        }
+        try {
+            spoolDirectory = Paths.get(directory);
+            Files.createDirectories(spoolDirectory);
+            List<Integer> segments = listSegments();
+            for (int segment : segments) {
+                indexSegment(segment);
+            }
+            writeSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+            writeChannel = openForAppend(writeSegment);
+            log.info("Opened raw MIME spool at {} with {} message(s) in {} segment(s).",
+                    spoolDirectory.toAbsolutePath(), index.size(), Math.max(segments.size(), 1));
+        } catch (IOException e) {
+            log.error("Could not open raw MIME spool at {}. Spooling disabled: {}", directory, e.getMessage(), e);
+            enabled = false;
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        closeQuietly(writeChannel);
+        readChannels.values().forEach(this::closeQuietly);
+        readChannels.clear();
+    }
+
+    public boolean contains(String messageId) {
+        return index.containsKey(messageId);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Downloads the full message once, streaming it into the spool, and
+     * returns a local copy parsed from the spool file, which can be decoded
+     * without further server round trips. With the spool disabled or
+     * failing, the server message itself is returned and its parts are
+     * fetched as they are read.
+     */
+    public MimeMessage spool(String messageId, Message message) throws MessagingException, IOException {
+        if (enabled && append(messageId, message)) {
+            Optional<MimeMessage> spooled = readMessage(messageId);
+            if (spooled.isPresent()) {
+                return spooled.get();
+            }
+        }
+        return (MimeMessage) message;
+    }
+
+    // Returns false if the spool could not store the message; a failed download is thrown
+    private synchronized boolean append(String messageId, Message message) throws MessagingException, IOException {
+        if (index.containsKey(messageId)) {
+            return true;
+        }
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        long recordStart = -1;
+        boolean downloading = false;
+        try {
+            // The server's size is only an estimate, but good enough to decide when to start a new segment
+            long expectedSize = Math.max(message.getSize(), 0);
+            if (writeChannel.size() > 0 && writeChannel.size() + expectedSize > segmentSizeMb * 1024 * 1024) {
+                writeChannel.close();
+                writeSegment++;
+                writeChannel = openForAppend(writeSegment);
+            }
+            recordStart = writeChannel.size();
+            long dataOffset = recordStart + 12 + id.length;
+            ByteBuffer header = ByteBuffer.allocate(12 + id.length);
+            header.putInt(RECORD_MAGIC).putInt(id.length).put(id).putInt(INCOMPLETE_LENGTH).flip();
+            writeFully(header, recordStart);
+
+            writeChannel.position(dataOffset);
+            // Not closed, which would close the channel
+            OutputStream out = new BufferedOutputStream(new SegmentOutputStream(writeChannel), 64 * 1024);
+            downloading = true;
+            message.writeTo(out);
+            out.flush();
+            downloading = false;
+
+            long mimeLength = writeChannel.position() - dataOffset;
+            if (mimeLength > Integer.MAX_VALUE) {
+                throw new IOException("Message is too large to spool: " + mimeLength + " bytes");
+            }
+            writeFully(ByteBuffer.allocate(4).putInt(0, (int) mimeLength), dataOffset - 4);
+            writeChannel.force(false);
+            index.put(messageId, new SpoolEntry(writeSegment, dataOffset, (int) mimeLength));
+            return true;
+        } catch (MessagingException | IOException e) {
+            discardFrom(recordStart);
+            if (downloading && !(e instanceof SegmentWriteException)) {
+                throw e;
+            }
+            log.error("Could not spool raw MIME of Message-ID {}: {}", messageId, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += writeChannel.write(buffer, position);
+        }
+    }
+
+    // Removes the partial record of a failed append
+    private void discardFrom(long recordStart) {
+        if (recordStart < 0) {
+            return;
+        }
+        try {
+            writeChannel.truncate(recordStart);
+            writeChannel.position(recordStart);
+        } catch (IOException e) {
+            log.warn("Could not remove a partial spool record; it is cut off on the next start: {}", e.getMessage());
+        }
+    }
+
+    public Optional<MimeMessage> readMessage(String messageId) {
+        SpoolEntry entry = index.get(messageId);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        try {
+            FileChannel channel = readChannels.computeIfAbsent(entry.segment(), this::openForRead);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset(), entry.length());
+            // A SharedInputStream lets MimeMessage read its content from the mapping instead of copying it
+            return Optional.of(new MimeMessage(parsingSession, new MappedInputStream(buffer)));
+        } catch (IOException | MessagingException | IllegalStateException e) {
+            log.error("Could not read spooled Message-ID {}: {}", messageId, e.getMessage(), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Message-IDs in the order they were first spooled.
+     */
+    public List<String> messageIds() {
+        return index.entrySet().stream()
+                .sorted(Comparator.comparingInt((Map.Entry<String, SpoolEntry> entry) -> entry.getValue().segment())
+                        .thenComparingLong(entry -> entry.getValue().offset()))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private void indexSegment(int segment) throws IOException {
+        Path path = segmentPath(segment);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int validEnd = 0;
+            while (buffer.remaining() >= 12) {
+                if (buffer.getInt() != RECORD_MAGIC) {
+                    break;
+                }
+                int idLength = buffer.getInt();
+                if (idLength < 0 || buffer.remaining() < idLength + 4) {
+                    break;
+                }
+                byte[] id = new byte[idLength];
+                buffer.get(id);
+                int mimeLength = buffer.getInt();
+                if (mimeLength < 0 || buffer.remaining() < mimeLength) {
+                    break;
+                }
+                index.put(new String(id, StandardCharsets.UTF_8), new SpoolEntry(segment, buffer.position(), mimeLength));
+                buffer.position(buffer.position() + mimeLength);
+                validEnd = buffer.position();
+            }
+            if (validEnd < channel.size()) {
+                // A crash mid-append leaves a partial record at the tail
+                log.warn("Truncating {} partial byte(s) at the end of spool segment {}.", channel.size() - validEnd, path);
+                channel.truncate(validEnd);
+            }
+        }
+    }
+
+    private List<Integer> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(spoolDirectory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return spoolDirectory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private FileChannel openForAppend(int segment) throws IOException {
+        // Not APPEND, since the length of a record is written after its message
+        FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private FileChannel openForRead(int segment) {
+        try {
+            return FileChannel.open(segmentPath(segment), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open spool segment " + segment, e);
+        }
+    }
+
+    private void closeQuietly(FileChannel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.debug("Error closing spool segment: {}", e.getMessage());
+        }
+    }
+
+    // Tells a failed write to the segment apart from a failed download while a message is streamed in
+    private static final class SegmentWriteException extends IOException {
+
+        SegmentWriteException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private static final class SegmentOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        SegmentOutputStream(FileChannel channel) {
+            this.out = Channels.newOutputStream(channel);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            try {
+                out.write(bytes, offset, length);
+            } catch (IOException e) {
+                throw new SegmentWriteException(e);
+            }
+        }
+    }
+
+    private static final class MappedInputStream extends InputStream implements SharedInputStream {
+
+        private final ByteBuffer buffer;
+        private int mark;
+
+        MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long getPosition() {
+            return buffer.position();
+        }
+
+        @Override
+        public InputStream newStream(long start, long end) {
+            int limit = end < 0 ? buffer.limit() : (int) end;
+            return new MappedInputStream(buffer.slice((int) start, limit - (int) start));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+            mark = buffer.position();
+        }
+
+        @Override
+        public void reset() {
+            buffer.position(mark);
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
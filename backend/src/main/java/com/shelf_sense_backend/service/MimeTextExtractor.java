@@ -0,0 +1,351 @@
+package com.shelf_sense_backend.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.ParseException;
+
+/**
+ * Pulls the readable text out of an email by streaming the decoded body parts
+ * instead of materialising them with {@code getContent()}. Each text part is
+ * read through a byte cap, attachments are skipped without being decoded, and
+ * HTML is reduced to text in a single pass.
+ */
+@Component
+public class MimeTextExtractor {
+
+    private static final Logger log = LoggerFactory.getLogger(MimeTextExtractor.class);
+
+    private final int maxBodyBytes;
+
+    public MimeTextExtractor(@Value("${app.email.max-body-bytes:1048576}") int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public String extractText(Part message) throws MessagingException, IOException {
+        if (message.isMimeType("text/plain")) {
+            return readText(message, false);
+        }
+        if (message.isMimeType("text/html")) {
+            return readText(message, true);
+        }
+        if (message.isMimeType("multipart/*")) {
+            String text = extractFromMultipart((Multipart) message.getContent());
+            if (text == null) {
+                log.warn("Could not find text/plain or text/html part in multipart message.");
+                return "";
+            }
+            return text;
+        }
+        log.warn("Unsupported email content type: {}", message.getContentType());
+        return "";
+    }
+
+    // Same precedence as before: first text/plain part, then nested multipart text, then HTML
+    private String extractFromMultipart(Multipart multipart) throws MessagingException, IOException {
+        String textContent = null;
+        Part htmlPart = null;
+
+        for (int i = 0; i < multipart.getCount(); i++) {
+            Part part = multipart.getBodyPart(i);
+
+            if (isAttachment(part)) {
+                continue;
+            }
+
+            if (part.isMimeType("text/plain")) {
+                textContent = readText(part, false);
+                break;
+            } else if (part.isMimeType("text/html") && htmlPart == null) {
+                htmlPart = part;
+            } else if (part.isMimeType("multipart/*")) {
+                String nestedText = extractFromMultipart((Multipart) part.getContent());
+                if (textContent == null && nestedText != null && !nestedText.isEmpty()) {
+                    textContent = nestedText;
+                }
+            }
+        }
+
+        if (textContent != null) {
+            return textContent;
+        }
+        if (htmlPart != null) {
+            log.debug("No text/plain content found, falling back to HTML content.");
+            return readText(htmlPart, true);
+        }
+        return null;
+    }
+
+    private boolean isAttachment(Part part) throws MessagingException {
+        return Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition())
+                || (part.getFileName() != null && !part.isMimeType("text/*"));
+    }
+
+    private String readText(Part part, boolean html) throws MessagingException, IOException {
+        CappedInputStream body = new CappedInputStream(part.getInputStream(), maxBodyBytes);
+        try (Reader reader = new InputStreamReader(body, charsetOf(part))) {
+            String text = html ? htmlToText(reader) : readAll(reader);
+            if (body.truncated) {
+                log.warn("Email body part exceeded {} bytes and was truncated.", maxBodyBytes);
+            }
+            return text;
+        }
+    }
+
+    private Charset charsetOf(Part part) throws MessagingException {
+        try {
+            String charset = new ContentType(part.getContentType()).getParameter("charset");
+            if (charset != null) {
+                return Charset.forName(MimeUtility.javaCharset(charset));
+            }
+        } catch (ParseException | IllegalArgumentException e) {
+            log.debug("Unusable charset in content type '{}', using UTF-8.", part.getContentType());
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Single-pass HTML to text: drops tags, comments, script and style
+     * content, decodes common entities, turns block-level tags into line
+     * breaks and collapses runs of whitespace.
+     */
+    static String htmlToText(Reader reader) throws IOException {
+        StringBuilder out = new StringBuilder();
+        StringBuilder tagName = new StringBuilder();
+        StringBuilder entity = new StringBuilder();
+        String skipUntilClosing = null;
+        boolean inTag = false;
+        boolean readingTagName = false;
+        boolean closingTag = false;
+        boolean inComment = false;
+        boolean pendingSpace = false;
+        int dashes = 0;
+        int c;
+
+        while ((c = reader.read()) != -1) {
+            char ch = (char) c;
+
+            if (inComment) {
+                if (ch == '>' && dashes >= 2) {
+                    inComment = false;
+                }
+                dashes = ch == '-' ? dashes + 1 : 0;
+                continue;
+            }
+
+            if (inTag) {
+                if (ch == '<') {
+                    // a stray '<' (e.g. inside script) starts the tag over
+                    readingTagName = true;
+                    closingTag = false;
+                    tagName.setLength(0);
+                } else if (ch == '>') {
+                    inTag = false;
+                    String name = tagName.toString().toLowerCase(Locale.ROOT);
+                    if (skipUntilClosing != null) {
+                        if (closingTag && name.equals(skipUntilClosing)) {
+                            skipUntilClosing = null;
+                        }
+                    } else if (!closingTag && (name.equals("script") || name.equals("style"))) {
+                        skipUntilClosing = name;
+                    } else if (isBlockTag(name)) {
+                        appendNewline(out);
+                        pendingSpace = false;
+                    } else {
+                        pendingSpace = true;
+                    }
+                } else if (readingTagName) {
+                    if (tagName.length() == 0 && ch == '/') {
+                        closingTag = true;
+                    } else if (Character.isLetterOrDigit(ch) || (ch == '!' && tagName.length() == 0)
+                            || (ch == '-' && tagName.length() > 0 && tagName.charAt(0) == '!')) {
+                        tagName.append(ch);
+                        if (tagName.length() == 3 && "!--".contentEquals(tagName)) {
+                            inTag = false;
+                            inComment = true;
+                            dashes = 0;
+                        }
+                    } else {
+                        readingTagName = false;
+                    }
+                }
+                continue;
+            }
+
+            if (ch == '<') {
+                inTag = true;
+                readingTagName = true;
+                closingTag = false;
+                tagName.setLength(0);
+                continue;
+            }
+
+            if (skipUntilClosing != null) {
+                continue;
+            }
+
+            if (entity.length() > 0) {
+                if (ch == ';') {
+                    String decoded = decodeEntity(entity.substring(1));
+                    entity.setLength(0);
+                    if (decoded.isBlank() || decoded.equals("\u00A0")) {
+                        pendingSpace = true;
+                    } else {
+                        appendText(out, decoded, pendingSpace);
+                        pendingSpace = false;
+                    }
+                    continue;
+                }
+                if (entity.length() < 10 && (Character.isLetterOrDigit(ch) || ch == '#')) {
+                    entity.append(ch);
+                    continue;
+                }
+                appendText(out, entity.toString(), pendingSpace);
+                pendingSpace = false;
+                entity.setLength(0);
+            }
+
+            if (ch == '&') {
+                entity.append(ch);
+            } else if (Character.isWhitespace(ch) || ch == '\u00A0') {
+                pendingSpace = true;
+            } else {
+                appendText(out, String.valueOf(ch), pendingSpace);
+                pendingSpace = false;
+            }
+        }
+        if (entity.length() > 0) {
+            appendText(out, entity.toString(), pendingSpace);
+        }
+        return out.toString().trim();
+    }
+
+    private static void appendText(StringBuilder out, String text, boolean pendingSpace) {
+        if (pendingSpace && out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+            out.append(' ');
+        }
+        out.append(text);
+    }
+
+    private static void appendNewline(StringBuilder out) {
+        int length = out.length();
+        // At most one blank line in a row
+        if (length == 0 || (length >= 2 && out.charAt(length - 1) == '\n' && out.charAt(length - 2) == '\n')) {
+            return;
+        }
+        out.append('\n');
+    }
+
+    private static boolean isBlockTag(String name) {
+        return switch (name) {
+            case "br", "p", "div", "tr", "li", "ul", "ol", "table", "h1", "h2", "h3", "h4", "h5", "h6",
+                    "hr", "section", "article", "header", "footer", "blockquote", "title" -> true;
+            default -> false;
+        };
+    }
+
+    private static String decodeEntity(String name) {
+        switch (name) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            case "nbsp":
+                return " ";
+            case "aring":
+                return "å";
+            case "Aring":
+                return "Å";
+            case "oslash":
+                return "ø";
+            case "Oslash":
+                return "Ø";
+            case "aelig":
+                return "æ";
+            case "AElig":
+                return "Æ";
+            default:
+                break;
+        }
+        if (name.startsWith("#")) {
+            try {
+                int codePoint = name.length() > 1 && (name.charAt(1) == 'x' || name.charAt(1) == 'X')
+                        ? Integer.parseInt(name.substring(2), 16)
+                        : Integer.parseInt(name.substring(1));
+                return new String(Character.toChars(codePoint));
+            } catch (IllegalArgumentException e) {
+                // fall through and keep the raw entity
+            }
+        }
+        return "&" + name + ";";
+    }
+
+    private static final class CappedInputStream extends FilterInputStream {
+
+        private long remaining;
+        private boolean truncated;
+
+        CappedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                truncated |= super.read() != -1;
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                truncated |= super.read() != -1;
+                return -1;
+            }
+            int read = super.read(bytes, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.shelf_sense_backend.service;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Circuit breaker for calls to the AI model. After
+ * {@code failure-threshold} consecutive failures the circuit opens and calls
+ * fail fast for {@code open-seconds}. Then a single probe request is let
+ * through (half-open): if it succeeds the circuit closes, otherwise it opens
+ * again.
+ */
+@Component
+public class ModelCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    @Value("${app.ai.circuit-breaker.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${app.ai.circuit-breaker.open-seconds:30}")
+    private long openSeconds;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean probeInFlight;
+
+    private final Counter rejected;
+
+    public ModelCircuitBreaker(MeterRegistry meterRegistry) {
+        Gauge.builder("ai.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .description("AI model circuit breaker state (0 closed, 1 open, 2 half-open)")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("ai.circuit.rejected")
+                .description("Model calls rejected while the circuit was open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns true if a call may be made now. In the half-open state only one
+     * caller gets true until that probe has been recorded.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= Duration.ofSeconds(openSeconds).toNanos()) {
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            logger.info("Sending probe request to the AI model");
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * True if a call would currently be let through, without claiming the
+     * half-open probe.
+     */
+    public synchronized boolean isCallPermitted() {
+        if (state == State.OPEN) {
+            return System.nanoTime() - openedAtNanos >= Duration.ofSeconds(openSeconds).toNanos();
+        }
+        return state == State.CLOSED || !probeInFlight;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            transition(State.CLOSED);
+        }
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            openedAtNanos = System.nanoTime();
+            transition(State.OPEN);
+        }
+    }
+
+    /**
+     * Gives the half-open probe back when its call was cancelled before it
+     * produced a result.
+     */
+    public synchronized void releaseProbe() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void transition(State next) {
+        if (next == State.OPEN) {
+            logger.warn("AI model circuit opened after {} consecutive failure(s), failing fast for {} s",
+                    consecutiveFailures, openSeconds);
+        } else {
+            logger.info("AI model circuit {} -> {}", state, next);
+        }
+        state = next;
+    }
+}
@@ -0,0 +1,336 @@
+package com.shelf_sense_backend.service;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Spreads model requests over the configured inference endpoints
+ * ({@code lmstudio.api.urls}). Each request goes to the healthy endpoint
+ * with the lowest load, scored either by in-flight requests or by in-flight
+ * requests times the EWMA of its latency. A request that is still running
+ * after the configured latency percentile is hedged on a second endpoint
+ * and the first answer wins. Endpoints that fail repeatedly or fail their
+ * health check are left out until a health check succeeds again.
+ */
+@Component
+public class ModelEndpointRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelEndpointRouter.class);
+
+    private static final int LATENCY_WINDOW = 256;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final class Endpoint {
+
+        private final String url;
+        private final String name;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Timer latency;
+        private final Counter successes;
+        private final Counter failures;
+        private volatile double ewmaMillis = -1;
+        private volatile boolean healthy = true;
+        private int consecutiveFailures;
+
+        Endpoint(String url, MeterRegistry meterRegistry) {
+            this.url = url;
+            URI uri = URI.create(url);
+            this.name = uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+            this.latency = Timer.builder("ai.endpoint.latency")
+                    .description("Model request latency per inference endpoint")
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            this.successes = Counter.builder("ai.endpoint.requests")
+                    .description("Model requests per inference endpoint")
+                    .tag("endpoint", name)
+                    .tag("outcome", "success")
+                    .register(meterRegistry);
+            this.failures = Counter.builder("ai.endpoint.requests")
+                    .description("Model requests per inference endpoint")
+                    .tag("endpoint", name)
+                    .tag("outcome", "failure")
+                    .register(meterRegistry);
+            Gauge.builder("ai.endpoint.in_flight", inFlight, AtomicInteger::get)
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            Gauge.builder("ai.endpoint.latency.ewma", this, endpoint -> Math.max(0, endpoint.ewmaMillis))
+                    .tag("endpoint", name)
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+            Gauge.builder("ai.endpoint.healthy", this, endpoint -> endpoint.healthy ? 1 : 0)
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+        }
+
+        String url() {
+            return url;
+        }
+
+        double score() {
+            int load = inFlight.get() + 1;
+            if ("in-flight".equalsIgnoreCase(strategy) || ewmaMillis < 0) {
+                return load;
+            }
+            return load * ewmaMillis;
+        }
+
+        synchronized void recordSuccess(long nanos) {
+            double millis = nanos / 1_000_000.0;
+            ewmaMillis = ewmaMillis < 0 ? millis : ewmaAlpha * millis + (1 - ewmaAlpha) * ewmaMillis;
+            latency.record(nanos, TimeUnit.NANOSECONDS);
+            successes.increment();
+            consecutiveFailures = 0;
+            markHealthy(true);
+        }
+
+        synchronized void recordFailure() {
+            failures.increment();
+            if (++consecutiveFailures >= unhealthyAfterFailures) {
+                markHealthy(false);
+            }
+        }
+
+        void markHealthy(boolean nowHealthy) {
+            if (healthy != nowHealthy) {
+                logger.warn("AI endpoint {} is now {}", name, nowHealthy ? "healthy" : "unhealthy");
+            }
+            healthy = nowHealthy;
+        }
+    }
+
+    @Value("${lmstudio.routing.strategy:ewma}")
+    private String strategy;
+
+    @Value("${lmstudio.routing.ewma-alpha:0.3}")
+    private double ewmaAlpha;
+
+    @Value("${lmstudio.routing.unhealthy-after-failures:3}")
+    private int unhealthyAfterFailures;
+
+    // 0 turns hedging off
+    @Value("${lmstudio.routing.hedge-percentile:95}")
+    private double hedgePercentile;
+
+    private final WebClient webClient;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final Counter hedges;
+    private final Counter failovers;
+
+    private final long[] recentLatencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private volatile long hedgeDelayNanos = -1;
+
+    public ModelEndpointRouter(@Qualifier("aiWebClient") WebClient webClient, MeterRegistry meterRegistry,
+            @Value("${lmstudio.api.urls:${lmstudio.api.url:http://localhost:1234/v1/chat/completions}}") String urls) {
+        this.webClient = webClient;
+        Arrays.stream(urls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .distinct()
+                .forEach(url -> endpoints.add(new Endpoint(url, meterRegistry)));
+        this.hedges = Counter.builder("ai.endpoint.hedges")
+                .description("Requests hedged on a second endpoint")
+                .register(meterRegistry);
+        this.failovers = Counter.builder("ai.endpoint.failovers")
+                .description("Requests sent again to another endpoint after a connection failure")
+                .register(meterRegistry);
+        logger.info("AI model endpoints: {}", endpoints.stream().map(Endpoint::url).toList());
+    }
+
+    public boolean hasEndpoints() {
+        return !endpoints.isEmpty();
+    }
+
+    /**
+     * Sends a request that produces a single value. {@code call} builds the
+     * request for a given endpoint URL and may be invoked for more than one
+     * endpoint when the request is hedged or fails over.
+     */
+    public <T> Mono<T> route(Function<String, Mono<T>> call) {
+        return Mono.defer(() -> {
+            Endpoint first = choose(null);
+            if (first == null) {
+                return Mono.error(new ModelUnavailableException("No AI model endpoint configured"));
+            }
+            Mono<T> request = hedgeDelayNanos > 0 && healthyCount() > 1
+                    ? hedged(first, call, Duration.ofNanos(hedgeDelayNanos))
+                    : attempt(first, call);
+            return request.onErrorResume(AIModelClient::isUnavailable, error -> {
+                // A second endpoint gets one try before the failure counts against the model
+                Endpoint other = choose(first);
+                if (other == null) {
+                    return Mono.error(error);
+                }
+                failovers.increment();
+                logger.warn("AI endpoint {} failed ({}), retrying on {}", first.name, error.getMessage(), other.name);
+                return attempt(other, call);
+            });
+        });
+    }
+
+    /**
+     * Sends a streamed request to one endpoint. Streams are not hedged, the
+     * whole stream duration is recorded as the endpoint's latency.
+     */
+    public <T> Flux<T> routeStream(Function<String, Flux<T>> call) {
+        return Flux.defer(() -> {
+            Endpoint endpoint = choose(null);
+            if (endpoint == null) {
+                return Flux.error(new ModelUnavailableException("No AI model endpoint configured"));
+            }
+            long started = System.nanoTime();
+            endpoint.inFlight.incrementAndGet();
+            return call.apply(endpoint.url())
+                    .doOnComplete(() -> endpoint.recordSuccess(System.nanoTime() - started))
+                    .doOnError(error -> {
+                        if (AIModelClient.isUnavailable(error)) {
+                            endpoint.recordFailure();
+                        }
+                    })
+                    .doFinally(signal -> endpoint.inFlight.decrementAndGet());
+        });
+    }
+
+    private <T> Mono<T> attempt(Endpoint endpoint, Function<String, Mono<T>> call) {
+        return Mono.defer(() -> {
+            long started = System.nanoTime();
+            endpoint.inFlight.incrementAndGet();
+            return call.apply(endpoint.url())
+                    .switchIfEmpty(Mono.error(() -> new IllegalStateException("Empty response from " + endpoint.name)))
+                    .doOnSuccess(value -> {
+                        long elapsed = System.nanoTime() - started;
+                        endpoint.recordSuccess(elapsed);
+                        recordLatency(elapsed);
+                    })
+                    .doOnError(error -> {
+                        if (AIModelClient.isUnavailable(error)) {
+                            endpoint.recordFailure();
+                        }
+                    })
+                    .doFinally(signal -> endpoint.inFlight.decrementAndGet());
+        });
+    }
+
+    /**
+     * Runs the request on {@code first} and, if it has not answered after
+     * {@code delay}, also on a second endpoint. The first value wins and the
+     * other request is cancelled; the result fails only when every started
+     * attempt has failed, with the first error.
+     */
+    private <T> Mono<T> hedged(Endpoint first, Function<String, Mono<T>> call, Duration delay) {
+        return Mono.create(sink -> {
+            Disposable.Composite attempts = Disposables.composite();
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicInteger running = new AtomicInteger(1);
+            AtomicReference<Throwable> firstError = new AtomicReference<>();
+
+            Consumer<T> onValue = value -> {
+                if (done.compareAndSet(false, true)) {
+                    sink.success(value);
+                    attempts.dispose();
+                }
+            };
+            Consumer<Throwable> onError = error -> {
+                firstError.compareAndSet(null, error);
+                if (running.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+                    sink.error(firstError.get());
+                    attempts.dispose();
+                }
+            };
+
+            sink.onDispose(attempts);
+            attempts.add(attempt(first, call).subscribe(onValue, onError));
+            attempts.add(Mono.delay(delay).subscribe(tick -> {
+                Endpoint second = choose(first);
+                // Only hedge while the first attempt is still running
+                if (second == null || done.get() || running.getAndIncrement() == 0) {
+                    return;
+                }
+                hedges.increment();
+                logger.debug("Hedging request on {} after {} ms", second.name, delay.toMillis());
+                attempts.add(attempt(second, call).subscribe(onValue, onError));
+            }));
+        });
+    }
+
+    private Endpoint choose(Endpoint exclude) {
+        Endpoint best = null;
+        boolean anyHealthy = healthyCount() > 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint == exclude || (anyHealthy && !endpoint.healthy)) {
+                continue;
+            }
+            if (best == null || endpoint.score() < best.score()) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    private int healthyCount() {
+        int healthy = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.healthy) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        recentLatencies[latencyCount % LATENCY_WINDOW] = nanos;
+        latencyCount++;
+        if (hedgePercentile <= 0 || latencyCount < MIN_HEDGE_SAMPLES || latencyCount % 16 != 0) {
+            return;
+        }
+        long[] window = Arrays.copyOf(recentLatencies, Math.min(latencyCount, LATENCY_WINDOW));
+        Arrays.sort(window);
+        int index = (int) Math.ceil(hedgePercentile / 100.0 * window.length) - 1;
+        hedgeDelayNanos = window[Math.max(0, Math.min(index, window.length - 1))];
+    }
+
+    @Scheduled(fixedDelayString = "${lmstudio.routing.health-check-interval-ms:10000}")
+    public void checkHealth() {
+        for (Endpoint endpoint : endpoints) {
+            // LM Studio and llama.cpp list their models next to the chat endpoint
+            String modelsUrl = endpoint.url().replaceFirst("/chat/completions/?$", "/models");
+            webClient.get()
+                    .uri(modelsUrl)
+                    .retrieve()
+                    .toBodilessEntity()
+                    .timeout(Duration.ofSeconds(3))
+                    .subscribe(
+                            response -> endpoint.markHealthy(true),
+                            error -> {
+                                logger.debug("Health check of {} failed: {}", endpoint.name, error.getMessage());
+                                endpoint.markHealthy(false);
+                            });
+        }
+    }
+}
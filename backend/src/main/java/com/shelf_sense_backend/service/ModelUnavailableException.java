@@ -0,0 +1,17 @@
+package com.shelf_sense_backend.service;
+
+/**
+ * The AI model could not be reached, timed out or answered with a server
+ * error, or the circuit breaker is open. Receipts that fail with this are
+ * parked for a later attempt instead of being treated as unreadable.
+ */
+public class ModelUnavailableException extends RuntimeException {
+
+    public ModelUnavailableException(String message) {
+        super(message);
+    }
+
+    public ModelUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
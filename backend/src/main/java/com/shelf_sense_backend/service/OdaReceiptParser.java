@@ -0,0 +1,215 @@
+package com.shelf_sense_backend.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.shelf_sense_backend.dto.ExtractedProduct;
+import com.shelf_sense_backend.model.ShoppedItem;
+
+/**
+ * Line parser for the items section of Oda receipt emails. Handles both the
+ * one-line layout ({@code "Tine Lettmelk 1 l   2 stk   49,80"}) and the
+ * layout where the name is followed by a separate quantity/price line.
+ * The confidence of a parse is the share of product lines that fit the
+ * layout; callers fall back to the AI model when it is low. Column headers
+ * and deposit, discount or delivery lines are not counted.
+ */
+@Component
+public class OdaReceiptParser {
+
+    private static final Logger logger = LoggerFactory.getLogger(OdaReceiptParser.class);
+
+    private static final Pattern ORDERED_ITEMS_PATTERN = Pattern.compile(
+            "Bestilte varer|Ordered Items", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SUMMARY_PATTERN = Pattern.compile(
+            "Summary|Total|Oppsummering", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern LINE_BREAK = Pattern.compile("\\R");
+    private static final Pattern HORIZONTAL_SPACE = Pattern.compile("[ \\t]+");
+
+    private static final String PRICE = "(?:kr\\s*)?-?\\d{1,3}(?:[ .]?\\d{3})*[.,]\\d{2}(?:\\s*kr)?";
+    private static final String QUANTITY = "(\\d+(?:[.,]\\d+)?)\\s*(?:stk\\.?|x|×)";
+
+    // "2 stk 49,80", "2 x 24,90 kr"
+    private static final Pattern QUANTITY_LINE = Pattern.compile(
+            "^" + QUANTITY + "(?:\\s+" + PRICE + ")*$", Pattern.CASE_INSENSITIVE);
+    // "Tine Lettmelk 1 l 2 stk 49,80"
+    private static final Pattern SINGLE_LINE_ITEM = Pattern.compile(
+            "^(.*\\S)\\s+" + QUANTITY + "(?:\\s+" + PRICE + ")+$", Pattern.CASE_INSENSITIVE);
+    // "Bananer 1,2 kg 29,90"
+    private static final Pattern NAME_PRICE_LINE = Pattern.compile(
+            "^(.*\\p{L}.*?)\\s+(" + PRICE + ")$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PRICE_LINE = Pattern.compile(
+            "^" + PRICE + "(?:\\s+" + PRICE + ")*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WEIGHT_LINE = Pattern.compile(
+            "^\\d+(?:[.,]\\d+)?\\s*(?:g|kg|ml|cl|dl|l)$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HEADER_LINE = Pattern.compile(
+            "^(?:vare(?:navn)?|produkt|product|antall|quantity|pris|price|sum|beløp)(?:\\s+.*)?$",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern NON_PRODUCT_LINE = Pattern.compile(
+            "^(?:pant|rabatt|discount|levering|delivery|frakt)\\b.*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WEIGHT_IN_NAME = Pattern.compile(
+            "(\\d+(?:[.,]\\d+)?\\s*(?:g|kg|ml|l|stk))\\b|" + // Match 125 g, 1,1 kg, 500 ml, 1 l
+                    "(\\d+\\s+stk)\\b", // Match "6 stk", "2 stk" format
+            Pattern.CASE_INSENSITIVE);
+
+    public record Result(List<ShoppedItem> items, double confidence) {
+    }
+
+    /**
+     * Returns the text between the "Ordered items" and "Summary" markers, or
+     * an empty string if the receipt does not have them.
+     */
+    public String extractItemsBlock(String emailContent) {
+
+        Matcher startMatcher = ORDERED_ITEMS_PATTERN.matcher(emailContent);
+        if (!startMatcher.find()) {
+            logger.warn("Could not find 'Ordered items' marker in email content.");
+            return "";
+        }
+
+        Matcher endMatcher = SUMMARY_PATTERN.matcher(emailContent);
+        if (!endMatcher.find()) {
+            logger.warn("Could not find 'Summary' or 'Total' marker in email content.");
+            int approximateEnd = Math.min(startMatcher.end() + 3000, emailContent.length());
+            return emailContent.substring(startMatcher.end(), approximateEnd).trim();
+        }
+        if (startMatcher.end() >= endMatcher.start()) {
+            logger.warn("'Ordered items' marker found at or after 'Summary' marker. Invalid format.");
+            return "";
+        }
+
+        int itemsSectionStart = emailContent.indexOf('\n', startMatcher.start());
+        if (itemsSectionStart == -1 || itemsSectionStart > endMatcher.start()) {
+            itemsSectionStart = startMatcher.end();
+        } else {
+            itemsSectionStart += 1;
+        }
+
+        logger.debug("Extracting items block from index {} to {}", itemsSectionStart, endMatcher.start());
+        return emailContent.substring(itemsSectionStart, endMatcher.start()).trim();
+    }
+
+    public Result parse(String itemsBlock) {
+        List<ShoppedItem> items = new ArrayList<>();
+        int lines = 0;
+        int recognized = 0;
+        ShoppedItem pending = null; // Name seen, quantity line not yet
+        int pendingLines = 0;
+
+        for (String rawLine : LINE_BREAK.split(itemsBlock)) {
+            String line = normalise(rawLine);
+            if (line.isEmpty() || HEADER_LINE.matcher(line).matches() || NON_PRODUCT_LINE.matcher(line).matches()) {
+                continue;
+            }
+            lines++;
+
+            Matcher quantityLine = QUANTITY_LINE.matcher(line);
+            if (quantityLine.matches()) {
+                if (pending != null) {
+                    pending.setQuantity(ExtractedProduct.wholeQuantity(quantityLine.group(1)));
+                    items.add(pending);
+                    pending = null;
+                    recognized++;
+                }
+                continue;
+            }
+
+            if (PRICE_LINE.matcher(line).matches()) {
+                // A price on its own only counts when it completes a pending name
+                if (pending != null) {
+                    pending.setQuantity(1);
+                    items.add(pending);
+                    pending = null;
+                    recognized++;
+                }
+                continue;
+            }
+
+            if (pending != null && pending.getWeightOrVolume() == null && WEIGHT_LINE.matcher(line).matches()) {
+                pending.setWeightOrVolume(line);
+                pendingLines++;
+                recognized++;
+                continue;
+            }
+
+            // A new name while one is still pending means the previous lines were not an item we understand
+            if (pending != null) {
+                recognized -= pendingLines;
+                pending = null;
+            }
+
+            Matcher singleLine = SINGLE_LINE_ITEM.matcher(line);
+            if (singleLine.matches()) {
+                items.add(newItem(singleLine.group(1), ExtractedProduct.wholeQuantity(singleLine.group(2))));
+                recognized++;
+                continue;
+            }
+
+            Matcher namePrice = NAME_PRICE_LINE.matcher(line);
+            if (namePrice.matches()) {
+                items.add(newItem(namePrice.group(1), 1));
+                recognized++;
+                continue;
+            }
+
+            pending = newItem(line, 1);
+            pendingLines = 1;
+            recognized++;
+        }
+
+        if (pending != null) {
+            // Trailing name without quantity or price
+            recognized -= pendingLines;
+        }
+
+        double confidence = lines == 0 || items.isEmpty() ? 0 : (double) recognized / lines;
+        logger.debug("Parsed {} item(s) from {} line(s), confidence {}", items.size(), lines, confidence);
+        return new Result(items, confidence);
+    }
+
+    /**
+     * True if the line closes an item (a one-line item, or the quantity/price
+     * line after a name), so a receipt can be split after it.
+     */
+    public boolean isItemBoundary(String line) {
+        String normalised = normalise(line);
+        return QUANTITY_LINE.matcher(normalised).matches()
+                || PRICE_LINE.matcher(normalised).matches()
+                || SINGLE_LINE_ITEM.matcher(normalised).matches()
+                || NAME_PRICE_LINE.matcher(normalised).matches();
+    }
+
+    /**
+     * Pulls a weight or volume such as "125 g" or "1,1 kg" out of a product
+     * name, or returns null if there is none.
+     */
+    public String extractWeight(String productName) {
+        if (productName == null) {
+            return null;
+        }
+        Matcher weightMatcher = WEIGHT_IN_NAME.matcher(productName);
+        if (weightMatcher.find()) {
+            return weightMatcher.group(0).trim();
+        }
+        return null;
+    }
+
+    private static String normalise(String line) {
+        return HORIZONTAL_SPACE.matcher(line.replace('\u00A0', ' ')).replaceAll(" ").trim();
+    }
+
+    private ShoppedItem newItem(String name, int quantity) {
+        ShoppedItem item = new ShoppedItem();
+        item.setRawName(name.trim());
+        item.setQuantity(quantity);
+        item.setWeightOrVolume(extractWeight(name));
+        return item;
+    }
+}
@@ -1,12 +1,28 @@
 package com.shelf_sense_backend.service;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,30 +30,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import com.shelf_sense_backend.dto.EmailEnvelope;
+import com.shelf_sense_backend.dto.EnvelopeBatchResult;
+import com.shelf_sense_backend.dto.SpoolReplayResult;
+import com.shelf_sense_backend.model.FailedEmail;
+import com.shelf_sense_backend.model.FailedEmailStatus;
+import com.shelf_sense_backend.model.MailFolderCheckpoint;
 import com.shelf_sense_backend.model.Order;
-import com.shelf_sense_backend.model.ProcessedEmail;
 import com.shelf_sense_backend.model.ShoppedItem;
+import com.shelf_sense_backend.repo.FailedEmailRepository;
+import com.shelf_sense_backend.repo.MailFolderCheckpointRepository;
 import com.shelf_sense_backend.repo.OrderRepository;
 import com.shelf_sense_backend.repo.ProcessedEmailRepository;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.mail.AuthenticationFailedException;
-import jakarta.mail.BodyPart;
 import jakarta.mail.Flags;
 import jakarta.mail.Folder;
 import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
-import jakarta.mail.Part;
-import jakarta.mail.Session;
-import jakarta.mail.Store;
+import jakarta.mail.UIDFolder;
 import jakarta.mail.internet.MimeMessage;
-import jakarta.mail.internet.MimeMultipart;
-import jakarta.mail.search.SearchTerm;
-import jakarta.mail.search.SubjectTerm;
 
 @Service
 public class OrderEmailProcessingService {
@@ -55,28 +71,35 @@ public class OrderEmailProcessingService {
 
     private static final Pattern ORDER_NUMBER_PATTERN = Pattern.compile(
             "Oda:\\s*Kvittering\\s+([\\w\\d]+)", Pattern.CASE_INSENSITIVE);
-    private static final Pattern ORDERED_ITEMS_PATTERN = Pattern.compile(
-            "Bestilte varer|Ordered Items", Pattern.CASE_INSENSITIVE);
-    private static final Pattern SUMMARY_PATTERN = Pattern.compile(
-            "Summary|Total|Oppsummering", Pattern.CASE_INSENSITIVE);
+    private static final int IN_CLAUSE_CHUNK_SIZE = 1000;
 
-    @Autowired
-    private JavaMailSender mailSender;
     @Autowired
     private ProcessedEmailRepository processedEmailRepository;
     @Autowired
     private OrderRepository orderRepository;
     @Autowired
     private GroceryReceiptAnalyzer groceryReceiptAnalyzer;
+    @Autowired
+    private MailFolderCheckpointRepository checkpointRepository;
+    @Autowired
+    private ReceiptMailScanner receiptMailScanner;
+    @Autowired
+    private ProcessedEmailIndex processedEmailIndex;
+    @Autowired
+    private ReceiptOrderWriter receiptOrderWriter;
+    @Autowired
+    private ImapConnectionManager imapConnectionManager;
+    @Autowired
+    private MimeSpool mimeSpool;
+    @Autowired
+    private MimeTextExtractor mimeTextExtractor;
+    @Autowired
+    private OdaReceiptParser odaReceiptParser;
+    @Autowired
+    private PendingExtractionQueue pendingExtractionQueue;
+    @Autowired
+    private FailedEmailRepository failedEmailRepository;
 
-    @Value("${spring.mail.username}")
-    private String username;
-    @Value("${spring.mail.password}")
-    private String password;
-    @Value("${spring.mail.host}")
-    private String host;
-    @Value("${spring.mail.properties.mail.store.protocol}")
-    private String protocol;
     @Value("${app.email.polling.subject-filter}")
     private String subjectFilter;
     @Value("${app.email.polling.folder}")
@@ -85,181 +108,709 @@ public class OrderEmailProcessingService {
     private boolean markProcessedAsRead;
     @Value("${app.email.polling.cron-schedule}")
     private String cronSchedule;
+    @Value("${app.email.polling.min-sent-date:2025-01-01}")
+    private String minSentDateValue;
+    @Value("${app.email.pipeline.extraction-parallelism:4}")
+    private int extractionParallelism;
+    @Value("${app.email.pipeline.max-in-flight:16}")
+    private int maxInFlight;
+    @Value("${app.email.polling.max-message-attempts:8}")
+    private int maxMessageAttempts;
+    @Value("${app.email.polling.retry.initial-backoff-seconds:300}")
+    private long retryInitialBackoffSeconds;
+    @Value("${app.email.polling.retry.max-backoff-seconds:21600}")
+    private long retryMaxBackoffSeconds;
+    @Value("${app.email.polling.retry.dead-letter-after-hours:24}")
+    private long deadLetterAfterHours;
+
+    // WAITING: a failed email whose next attempt is not due yet; it holds the checkpoint without a new attempt
+    private enum Outcome {
+        SAVED, DUPLICATE, SKIPPED, RETRY, PARKED, WAITING, DEAD_LETTER
+    }
+
+    // A receipt email after dedup and decoding; the outcome is set if it needs no extraction
+    private record DecodedReceipt(EmailEnvelope envelope, Order order, String itemsBlock, Outcome outcome) {
+
+        static DecodedReceipt settled(EmailEnvelope envelope, Outcome outcome) {
+            return new DecodedReceipt(envelope, null, null, outcome);
+        }
+    }
+
+    /**
+     * Receipt emails of one batch, deduplicated and decoded while the IMAP
+     * folder was held, waiting for {@link #extractDecoded}.
+     */
+    public static final class DecodedBatch {
+
+        private final List<DecodedReceipt> receipts;
+        private final List<EmailEnvelope> toMarkAsRead = new ArrayList<>();
+
+        private DecodedBatch(List<DecodedReceipt> receipts) {
+            this.receipts = receipts;
+        }
+    }
+
+    private final ExecutorService extractionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private Semaphore extractionPermits;
+    private Semaphore inFlightPermits;
+    private LocalDate minSentDate;
+
+    @PostConstruct
+    void initPipeline() {
+        minSentDate = LocalDate.parse(minSentDateValue);
+        extractionPermits = new Semaphore(extractionParallelism);
+        inFlightPermits = new Semaphore(Math.max(maxInFlight, extractionParallelism));
+    }
+
+    @PreDestroy
+    void shutdownPipeline() {
+        extractionExecutor.shutdownNow();
+    }
 
-    // @Scheduled(cron = "${app.email.polling.cron-schedule}")
-    @Transactional
     public void pollAndProcessEmails() {
         log.info("Starting scheduled email polling task (Cron: {})...", cronSchedule);
-        Store store = null;
-        Folder emailFolder = null;
+        try {
+            imapConnectionManager.withFolder(emailFolder -> {
+                pollFolder(emailFolder);
+                return null;
+            });
+
+        } catch (AuthenticationFailedException e) {
+            log.error("EMAIL AUTHENTICATION FAILED! Verify username/password/app password in configuration.", e);
+
+        } catch (MessagingException e) {
+            log.error("MessagingException during email polling: {}. Check connection settings or mailbox state.",
+                    e.getMessage(), e);
+        } catch (Exception e) {
+
+            log.error("Unexpected error during email polling task: {}", e.getMessage(), e);
+        } finally {
+            log.info("Finished email polling task run.");
+        }
+    }
+
+    private void pollFolder(Folder emailFolder) throws MessagingException, InterruptedException {
+        UIDFolder uidFolder = (UIDFolder) emailFolder;
+        MailFolderCheckpoint checkpoint = loadCheckpoint(emailFolder.getFullName(), uidFolder.getUIDValidity());
+        // Everything up to the newest message is covered by this run, whether or not it matches the subject filter
+        long highestSeenUid = receiptMailScanner.highestUid(emailFolder);
+
+        Message[] messages = receiptMailScanner.findNewMessages(emailFolder, checkpoint.getLastProcessedUid());
+        log.info("Found {} new email(s) with subject containing '{}' in folder '{}' since UID {}.",
+                messages.length, subjectFilter, folderName, checkpoint.getLastProcessedUid());
+
+        if (messages.length == 0) {
+            log.info("No new emails to process.");
+            advanceCheckpoint(checkpoint, highestSeenUid, Long.MAX_VALUE);
+            return;
+        }
+
+        List<EmailEnvelope> envelopes = receiptMailScanner.prefetchEnvelopes(emailFolder, messages);
+        List<EmailEnvelope> filteredEnvelopes = getFilteredMessages(envelopes);
+
+        log.info("After date filtering: {} email(s) from {} or later to process.", filteredEnvelopes.size(),
+                minSentDate);
+
+        if (filteredEnvelopes.isEmpty()) {
+            log.info("No eligible emails to process after filtering.");
+            advanceCheckpoint(checkpoint, highestSeenUid, Long.MAX_VALUE);
+            return;
+        }
+
+        EnvelopeBatchResult result = processEnvelopes(filteredEnvelopes);
+        advanceCheckpoint(checkpoint, highestSeenUid, result.firstRetryUid());
+    }
+
+    /**
+     * Runs prefetched receipt emails through the ingestion stages. Dedup and
+     * MIME decoding happen on the calling thread, which owns the IMAP folder;
+     * extraction runs on virtual threads and every order is saved in its own
+     * transaction. The result carries the lowest UID that must be retried,
+     * or {@code Long.MAX_VALUE} if none.
+     */
+    public EnvelopeBatchResult processEnvelopes(List<EmailEnvelope> envelopes) throws InterruptedException {
+        Set<String> processedMessageIds = findProcessedMessageIds(envelopes);
+        Set<String> existingOrderNumbers = findExistingOrderNumbers(envelopes);
+        Set<String> parkedMessageIds = findParkedMessageIds(envelopes);
+        Map<String, FailedEmail> failures = findFailedEmails(envelopes);
+
+        Map<EmailEnvelope, CompletableFuture<Outcome>> outcomes = new LinkedHashMap<>();
+        for (EmailEnvelope envelope : envelopes) {
+            outcomes.put(envelope,
+                    submitReceipt(envelope, processedMessageIds, existingOrderNumbers, parkedMessageIds, failures));
+        }
+        return collectOutcomes(outcomes, this::markAsReadQuietly);
+    }
+
+    /**
+     * First half of {@link #processEnvelopes} for callers that hold the IMAP
+     * folder only while reading: dedups the batch and decodes every receipt
+     * on the calling thread, without extracting anything.
+     */
+    public DecodedBatch decodeEnvelopes(List<EmailEnvelope> envelopes) {
+        Set<String> processedMessageIds = findProcessedMessageIds(envelopes);
+        Set<String> existingOrderNumbers = findExistingOrderNumbers(envelopes);
+        Set<String> parkedMessageIds = findParkedMessageIds(envelopes);
+        Map<String, FailedEmail> failures = findFailedEmails(envelopes);
+
+        List<DecodedReceipt> receipts = new ArrayList<>(envelopes.size());
+        for (EmailEnvelope envelope : envelopes) {
+            String orderNumber = extractOrderNumber(envelope.subject());
+            Outcome settled = screenReceipt(envelope, orderNumber, processedMessageIds, existingOrderNumbers,
+                    parkedMessageIds, failures);
+            receipts.add(settled != null ? DecodedReceipt.settled(envelope, settled) : decode(envelope, orderNumber));
+        }
+        return new DecodedBatch(receipts);
+    }
 
+    /**
+     * Second half: extracts and saves the decoded receipts. Needs no mail
+     * server access; the emails to mark as read are kept on the batch for
+     * {@link #markAsRead(Folder, DecodedBatch)}.
+     */
+    public EnvelopeBatchResult extractDecoded(DecodedBatch batch) {
+        Map<EmailEnvelope, CompletableFuture<Outcome>> outcomes = new LinkedHashMap<>();
+        for (DecodedReceipt receipt : batch.receipts) {
+            outcomes.put(receipt.envelope(), receipt.outcome() != null
+                    ? CompletableFuture.completedFuture(receipt.outcome())
+                    : submitExtraction(receipt, false));
+        }
+        return collectOutcomes(outcomes, batch.toMarkAsRead::add);
+    }
+
+    /**
+     * Marks the emails of an extracted batch as read, looked up again by UID
+     * in case the connection was replaced since they were fetched.
+     */
+    public void markAsRead(Folder folder, DecodedBatch batch) throws MessagingException {
+        if (!markProcessedAsRead || batch.toMarkAsRead.isEmpty()) {
+            return;
+        }
+        long[] uids = batch.toMarkAsRead.stream()
+                .filter(envelope -> !envelope.seen())
+                .mapToLong(EmailEnvelope::uid)
+                .toArray();
+        Message[] messages = Arrays.stream(((UIDFolder) folder).getMessagesByUID(uids))
+                .filter(Objects::nonNull)
+                .toArray(Message[]::new);
+        if (messages.length > 0) {
+            folder.setFlags(messages, new Flags(Flags.Flag.SEEN), true);
+            log.debug("Marked {} email(s) as read in mailbox.", messages.length);
+        }
+    }
+
+    private EnvelopeBatchResult collectOutcomes(Map<EmailEnvelope, CompletableFuture<Outcome>> outcomes,
+            Consumer<EmailEnvelope> markAsRead) {
+        long firstRetryUid = Long.MAX_VALUE;
+        int saved = 0;
+        int failed = 0;
+        int parked = 0;
+        int waiting = 0;
+        int deadLettered = 0;
+        for (Map.Entry<EmailEnvelope, CompletableFuture<Outcome>> entry : outcomes.entrySet()) {
+            EmailEnvelope envelope = entry.getKey();
+            Outcome outcome;
+            try {
+                outcome = entry.getValue().join();
+            } catch (CompletionException e) {
+                log.error("Extraction task for Message-ID {} failed: {}", envelope.messageId(), e.getMessage(), e);
+                outcome = Outcome.RETRY;
+            }
+
+            if (outcome == Outcome.SAVED) {
+                saved++;
+            }
+            if (outcome == Outcome.RETRY) {
+                failed++;
+                if (recordFailure(envelope)) {
+                    deadLettered++;
+                } else {
+                    firstRetryUid = Math.min(firstRetryUid, envelope.uid());
+                }
+            } else if (outcome == Outcome.WAITING) {
+                waiting++;
+                firstRetryUid = Math.min(firstRetryUid, envelope.uid());
+            } else if (outcome == Outcome.PARKED) {
+                // Left unread until the parked receipt has been extracted
+                parked++;
+            } else if (outcome != Outcome.SKIPPED && outcome != Outcome.DEAD_LETTER) {
+                markAsRead.accept(envelope);
+            }
+        }
+        if (parked > 0) {
+            log.info("{} receipt email(s) are parked until the AI model is available.", parked);
+        }
+        if (waiting > 0) {
+            log.info("{} failed receipt email(s) are waiting for their next attempt.", waiting);
+        }
+        if (deadLettered > 0) {
+            log.warn("{} receipt email(s) kept failing for {} hours and were dead-lettered; "
+                    + "retry them with POST /api/ingestion/failed-emails/retry.", deadLettered, deadLetterAfterHours);
+        }
+        return new EnvelopeBatchResult(outcomes.size(), saved, failed, firstRetryUid);
+    }
+
+    /**
+     * Counts a failed attempt at an email and backs off exponentially before
+     * the next one; polls in between leave the email alone but keep the UID
+     * checkpoint below it. Once it has failed max-message-attempts times and
+     * has kept failing for dead-letter-after-hours, it is dead-lettered: no
+     * longer retried by polls and no longer holding the checkpoint back, but
+     * not recorded as processed, so it can be retried from the spool with
+     * {@link #retryDeadLetteredEmails}. Returns true then.
+     */
+    private boolean recordFailure(EmailEnvelope envelope) {
+        String messageId = envelope.messageId();
+        if (messageId == null) {
+            return false;
+        }
         try {
+            Instant now = Instant.now();
+            FailedEmail failure = failedEmailRepository.findByMessageId(messageId).orElseGet(() -> {
+                FailedEmail created = new FailedEmail();
+                created.setMessageId(messageId);
+                created.setFirstFailedTimestamp(now);
+                return created;
+            });
+            failure.setAttempts(failure.getAttempts() + 1);
+            failure.setLastFailedTimestamp(now);
+            boolean windowPassed = !failure.getFirstFailedTimestamp()
+                    .plus(Duration.ofHours(deadLetterAfterHours)).isAfter(now);
+            if (failure.getAttempts() >= maxMessageAttempts && windowPassed) {
+                failure.setStatus(FailedEmailStatus.DEAD_LETTER);
+                failure.setNextAttemptTimestamp(null);
+                log.error("Dead-lettered Message-ID {} after {} failed attempt(s) since {}.",
+                        messageId, failure.getAttempts(), failure.getFirstFailedTimestamp());
+            } else {
+                // Exponential backoff with jitter, like parked receipts
+                long backoffSeconds = Math.min(retryMaxBackoffSeconds,
+                        retryInitialBackoffSeconds << Math.min(failure.getAttempts() - 1, 20));
+                long jitteredMillis = (long) (backoffSeconds * 1000 * ThreadLocalRandom.current().nextDouble(0.8, 1.2));
+                failure.setStatus(FailedEmailStatus.RETRYING);
+                failure.setNextAttemptTimestamp(now.plus(Duration.ofMillis(jitteredMillis)));
+            }
+            failedEmailRepository.save(failure);
+            return failure.getStatus() == FailedEmailStatus.DEAD_LETTER;
+        } catch (Exception e) {
+            log.error("Could not record the failed attempt at Message-ID {}: {}", messageId, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private CompletableFuture<Outcome> submitReceipt(EmailEnvelope envelope, Set<String> processedMessageIds,
+            Set<String> existingOrderNumbers, Set<String> parkedMessageIds, Map<String, FailedEmail> failures)
+            throws InterruptedException {
+        String orderNumber = extractOrderNumber(envelope.subject());
+        Outcome settled = screenReceipt(envelope, orderNumber, processedMessageIds, existingOrderNumbers,
+                parkedMessageIds, failures);
+        if (settled != null) {
+            return CompletableFuture.completedFuture(settled);
+        }
+        return decodeAndSubmit(envelope, orderNumber, false);
+    }
+
+    // Returns the outcome of an email that needs no extraction, or null
+    private Outcome screenReceipt(EmailEnvelope envelope, String orderNumber, Set<String> processedMessageIds,
+            Set<String> existingOrderNumbers, Set<String> parkedMessageIds, Map<String, FailedEmail> failures) {
+        String messageId = envelope.messageId();
+        if (messageId == null) {
+            log.warn("Email with Subject '{}' is missing Message-ID header. Skipping.", envelope.subject());
+            return Outcome.SKIPPED;
+        }
+
+        log.info("Processing email - Subject: '{}', Sent: '{}', Message-ID: {}",
+                envelope.subject(), envelope.sentDate(), messageId);
 
-            Session emailSession = Session.getInstance(((JavaMailSenderImpl) mailSender).getJavaMailProperties());
-            store = emailSession.getStore(protocol);
-            store.connect(host, username, password);
-            log.debug("Connected to email store: {}@{}", protocol, host);
+        if (orderNumber == null) {
+            log.error("Could not extract Order Number from email Message-ID: {}.Skipping.", messageId);
+            return Outcome.SKIPPED;
+        }
 
-            emailFolder = store.getFolder("INBOX");
+        if (processedMessageIds.contains(messageId)) {
+            log.warn("Email with Message-ID {} has already been processed (found in processed_emails table). Skipping.",
+                    messageId);
+            return Outcome.DUPLICATE;
+        }
 
-            emailFolder.open(Folder.READ_WRITE);
-            log.debug("Opened folder: '{}'", folderName);
+        if (parkedMessageIds.contains(messageId)) {
+            log.debug("Email with Message-ID {} is parked for AI extraction. Skipping.", messageId);
+            return Outcome.PARKED;
+        }
+
+        FailedEmail failure = failures.get(messageId);
+        if (failure != null && failure.getStatus() == FailedEmailStatus.DEAD_LETTER) {
+            log.debug("Email with Message-ID {} is dead-lettered. Skipping.", messageId);
+            return Outcome.DEAD_LETTER;
+        }
+        if (failure != null && failure.getNextAttemptTimestamp() != null
+                && failure.getNextAttemptTimestamp().isAfter(Instant.now())) {
+            log.debug("Email with Message-ID {} failed {} time(s), next attempt after {}. Skipping.",
+                    messageId, failure.getAttempts(), failure.getNextAttemptTimestamp());
+            return Outcome.WAITING;
+        }
 
-            SearchTerm subjectTerm = new SubjectTerm(subjectFilter);
-            Message[] messages = emailFolder.search(subjectTerm);
-            log.info("Found {} email(s) with subject containing '{}' in folder '{}'.",
-                    messages.length, subjectFilter, folderName);
+        // Also claims the order number for this email, so a second copy in the same batch is not extracted twice
+        if (!existingOrderNumbers.add(orderNumber)) {
+            log.warn(
+                    "An order with Order Number '{}' already exists in the database. Skipping processing items from email Message-ID: {}. This email will be marked as processed.",
+                    orderNumber, messageId);
+            try {
+                receiptOrderWriter.recordProcessedEmail(messageId, envelope.sentDate());
+                return Outcome.DUPLICATE;
+            } catch (Exception e) {
+                log.error("Could not record duplicate email Message-ID: {}: {}", messageId, e.getMessage(), e);
+                return Outcome.RETRY;
+            }
+        }
+        return null;
+    }
 
-            if (messages.length == 0) {
-                log.info("No new emails to process.");
-                return;
+    private CompletableFuture<Outcome> decodeAndSubmit(EmailEnvelope envelope, String orderNumber, boolean replay)
+            throws InterruptedException {
+        // Backpressure: do not decode further ahead than the extraction stage can absorb
+        inFlightPermits.acquire();
+        boolean submitted = false;
+        try {
+            DecodedReceipt receipt = decode(envelope, orderNumber);
+            if (receipt.outcome() != null) {
+                return CompletableFuture.completedFuture(receipt.outcome());
             }
+            CompletableFuture<Outcome> outcome = submitExtraction(receipt, replay)
+                    .whenComplete((result, error) -> inFlightPermits.release());
+            submitted = true;
+            return outcome;
+        } finally {
+            if (!submitted) {
+                inFlightPermits.release();
+            }
+        }
+    }
 
-            List<Message> filteredMessages = getFilteredMessages(List.of(messages));
+    private CompletableFuture<Outcome> submitExtraction(DecodedReceipt receipt, boolean replay) {
+        return CompletableFuture.supplyAsync(
+                () -> extractAndPersist(receipt.envelope(), receipt.order(), receipt.itemsBlock(), replay),
+                extractionExecutor);
+    }
+
+    private DecodedReceipt decode(EmailEnvelope envelope, String orderNumber) {
+        String messageId = envelope.messageId();
+        try {
+            String emailContent = mimeTextExtractor.extractText(loadFullMessage(envelope));
+            if (emailContent.isBlank()) {
+                log.error("Extracted email content is blank for Message-ID: {}. Cannot process. Skipping.", messageId);
+                return DecodedReceipt.settled(envelope, Outcome.SKIPPED);
+            }
+            // emailContent = translateEmailContentIfEnabled(emailContent);
 
-            log.info("After date filtering: {} email(s) from 2025 or later to process.", filteredMessages.size());
+            LocalDate orderDate = extractInvoiceDate(emailContent);
+            if (envelope.sentDate() == null) {
+                log.error("Could not extract Order Date from email Message-ID: {}. Skipping.", messageId);
+                return DecodedReceipt.settled(envelope, Outcome.SKIPPED);
+            }
 
-            if (filteredMessages.isEmpty()) {
-                log.info("No eligible emails to process after filtering.");
-                return;
+            String itemsBlock = odaReceiptParser.extractItemsBlock(emailContent);
+            if (itemsBlock.isEmpty()) {
+                log.error(
+                        "Could not extract items block between 'Ordered items' and 'Summary' for Order: {}, Message-ID: {}. Skipping order save.",
+                        orderNumber, messageId);
+                return DecodedReceipt.settled(envelope, Outcome.SKIPPED);
             }
 
-            for (Message message : filteredMessages) {
-                String messageId = "<unknown>";
-                try {
-                    messageId = getMessageId(message);
-                    if (messageId == null) {
-                        log.warn("Email with Subject '{}' is missing Message-ID header. Skipping.",
-                                message.getSubject());
-                        continue;
-                    }
-
-                    log.info("Processing email - Subject: '{}', Sent: '{}', Message-ID: {}",
-                            message.getSubject(), message.getSentDate(), messageId);
-
-                    String orderNumber = extractOrderNumber(message.getSubject());
-                    if (orderNumber == null) {
-                        log.error("Could not extract Order Number from email Message-ID: {}.Skipping.", messageId);
-                        continue;
-                    }
-
-                    if (processedEmailRepository.existsByMessageId(messageId)) {
-                        log.warn(
-                                "Email with Message-ID {} has already been processed (found in processed_emails table). Skipping.",
-                                messageId);
-
-                        if (markProcessedAsRead)
-                            message.setFlag(Flags.Flag.SEEN, true);
-                        continue;
-                    }
-
-                    String emailContent = getTextFromMessage(message);
-                    if (emailContent.isBlank()) {
-                        log.error("Extracted email content is blank for Message-ID: {}. Cannot process. Skipping.",
-                                messageId);
-
-                        continue;
-                    }
-                    // emailContent = translateEmailContentIfEnabled(emailContent);
-                    // Order order = receiptOcrService.createOrderFromReceipt(emailContent);
-
-                    if (orderRepository.existsByOrderNumber(orderNumber)) {
-                        log.warn(
-                                "An order with Order Number '{}' already exists in the database. Skipping processing items from email Message-ID: {}. This email will be marked as processed.",
-                                orderNumber, messageId);
-
-                        saveProcessedEmailRecord(messageId, message.getSentDate(), null);
-
-                        if (markProcessedAsRead)
-                            message.setFlag(Flags.Flag.SEEN, true);
-                        continue;
-                    }
-
-                    LocalDate orderDate = extractInvoiceDate(emailContent);
-                    if (message.getSentDate() == null) {
-                        log.error("Could not extract Order Date from email Message-ID: {}. Skipping.", messageId);
-                        continue;
-                    }
-
-                    String itemsBlock = extractItemsBlock(emailContent);
-                    if (itemsBlock.isEmpty()) {
-                        log.error(
-                                "Could not extract items block between 'Ordered items' and 'Summary' for Order: {}, Message-ID: {}. Skipping order save.",
-                                orderNumber, messageId);
-                        continue;
-                    }
-
-                    Order order = new Order();
-                    order.setOrderNumber(orderNumber);
-                    order.setOrderDate(orderDate);
-
-                    List<ShoppedItem> items = groceryReceiptAnalyzer.parseReceipt(emailContent, order);
-
-                    if (items.isEmpty()) {
-                        log.error(
-                                "No items found in the email content for Order: {}, Message-ID: {}. Skipping order save.",
-                                orderNumber, messageId);
-                        continue;
-                    }
-
-                    log.info("Attempting to save new Order: Number={}, Date={}, Items={}",
-                            orderNumber, orderDate,
-                            items.size());
-
-                    ProcessedEmail processedEmailRecord = saveProcessedEmailRecord(messageId, message.getSentDate(),
-                            null);
-                    order.setProcessedEmail(processedEmailRecord);
-
-                    for (ShoppedItem item : items) {
-                        order.addItem(item);
-                    }
-
-                    Order savedOrder = orderRepository.save(order);
-                    processedEmailRecord.setGeneratedOrder(savedOrder);
-                    processedEmailRepository.save(processedEmailRecord);
-
-                    log.info("Successfully saved Order ID: {} (Number: {}) with {} items from Message-ID: {}",
-                            savedOrder.getId(), savedOrder.getOrderNumber(), savedOrder.getItems().size(), messageId);
-
-                    if (markProcessedAsRead) {
-                        message.setFlag(Flags.Flag.SEEN, true);
-                        log.debug("Marked email {} as read in mailbox.", messageId);
-                    }
-
-                } catch (Exception e) {
-                    log.error(
-                            "Critical error processing email Message-ID: {}. Error: {}. Check email content and parser logic.",
-                            messageId, e.getMessage(), e);
+            Order order = new Order();
+            order.setOrderNumber(orderNumber);
+            order.setOrderDate(orderDate);
+            return new DecodedReceipt(envelope, order, itemsBlock, null);
 
+        } catch (Exception e) {
+            log.error(
+                    "Critical error processing email Message-ID: {}. Error: {}. Check email content and parser logic.",
+                    messageId, e.getMessage(), e);
+            return DecodedReceipt.settled(envelope, Outcome.RETRY);
+        }
+    }
+
+    private Message loadFullMessage(EmailEnvelope envelope) throws MessagingException, IOException {
+        // Messages read back from the spool are already local and have no folder
+        if (envelope.message().getFolder() == null) {
+            return envelope.message();
+        }
+        // A receipt that is retried is decoded from the spool instead of being downloaded again
+        Optional<MimeMessage> spooled = mimeSpool.readMessage(envelope.messageId());
+        if (spooled.isPresent()) {
+            return spooled.get();
+        }
+        return mimeSpool.spool(envelope.messageId(), envelope.message());
+    }
+
+    /**
+     * Feeds every spooled receipt email back through extraction and replaces
+     * the items of the matching order, without contacting the mail server.
+     */
+    public SpoolReplayResult replaySpool() throws InterruptedException {
+        long started = System.nanoTime();
+        List<String> messageIds = mimeSpool.messageIds();
+        log.info("Replaying {} spooled receipt email(s).", messageIds.size());
+
+        List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+        for (String messageId : messageIds) {
+            Optional<MimeMessage> spooled = mimeSpool.readMessage(messageId);
+            if (spooled.isEmpty()) {
+                outcomes.add(CompletableFuture.completedFuture(Outcome.RETRY));
+                continue;
+            }
+            try {
+                MimeMessage message = spooled.get();
+                EmailEnvelope envelope = new EmailEnvelope(message, 0, messageId, message.getSubject(),
+                        message.getSentDate(), true);
+                String orderNumber = extractOrderNumber(envelope.subject());
+                outcomes.add(orderNumber == null
+                        ? CompletableFuture.completedFuture(Outcome.SKIPPED)
+                        : decodeAndSubmit(envelope, orderNumber, true));
+            } catch (MessagingException e) {
+                log.error("Could not read headers of spooled Message-ID {}: {}", messageId, e.getMessage());
+                outcomes.add(CompletableFuture.completedFuture(Outcome.RETRY));
+            }
+        }
+
+        int saved = 0;
+        int failed = 0;
+        for (CompletableFuture<Outcome> outcome : outcomes) {
+            Outcome result = outcome.exceptionally(error -> Outcome.RETRY).join();
+            if (result == Outcome.SAVED) {
+                saved++;
+            } else if (result == Outcome.RETRY) {
+                failed++;
+            }
+        }
+
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        log.info("Replayed {} spooled email(s) in {} ms: {} order(s) saved, {} failed.",
+                messageIds.size(), elapsedMillis, saved, failed);
+        return new SpoolReplayResult(messageIds.size(), saved, failed, elapsedMillis);
+    }
+
+    /**
+     * Runs every dead-lettered receipt email through extraction again, read
+     * back from the spool. Saved emails leave the failed_emails table; ones
+     * that fail again, or were never spooled, stay dead-lettered.
+     */
+    public SpoolReplayResult retryDeadLetteredEmails() throws InterruptedException {
+        long started = System.nanoTime();
+        List<FailedEmail> deadLetters = failedEmailRepository.findByStatus(FailedEmailStatus.DEAD_LETTER);
+        log.info("Retrying {} dead-lettered receipt email(s).", deadLetters.size());
+
+        List<EmailEnvelope> envelopes = new ArrayList<>();
+        Map<EmailEnvelope, FailedEmail> failuresByEnvelope = new HashMap<>();
+        int failed = 0;
+        for (FailedEmail failure : deadLetters) {
+            Optional<MimeMessage> spooled = mimeSpool.readMessage(failure.getMessageId());
+            if (spooled.isEmpty()) {
+                log.warn("Dead-lettered Message-ID {} is not in the spool and cannot be retried.",
+                        failure.getMessageId());
+                failed++;
+                continue;
+            }
+            try {
+                MimeMessage message = spooled.get();
+                EmailEnvelope envelope = new EmailEnvelope(message, 0, failure.getMessageId(), message.getSubject(),
+                        message.getSentDate(), true);
+                envelopes.add(envelope);
+                failuresByEnvelope.put(envelope, failure);
+            } catch (MessagingException e) {
+                log.error("Could not read headers of spooled Message-ID {}: {}", failure.getMessageId(),
+                        e.getMessage());
+                failed++;
+            }
+        }
+
+        Set<String> processedMessageIds = findProcessedMessageIds(envelopes);
+        Set<String> existingOrderNumbers = findExistingOrderNumbers(envelopes);
+        Set<String> parkedMessageIds = findParkedMessageIds(envelopes);
+        Map<EmailEnvelope, CompletableFuture<Outcome>> outcomes = new LinkedHashMap<>();
+        for (EmailEnvelope envelope : envelopes) {
+            // Screened without the failures, which would only say it is dead-lettered
+            outcomes.put(envelope,
+                    submitReceipt(envelope, processedMessageIds, existingOrderNumbers, parkedMessageIds, Map.of()));
+        }
+
+        int saved = 0;
+        for (Map.Entry<EmailEnvelope, CompletableFuture<Outcome>> entry : outcomes.entrySet()) {
+            Outcome result = entry.getValue().exceptionally(error -> Outcome.RETRY).join();
+            FailedEmail failure = failuresByEnvelope.get(entry.getKey());
+            if (result == Outcome.RETRY || result == Outcome.SKIPPED) {
+                failure.setAttempts(failure.getAttempts() + 1);
+                failure.setLastFailedTimestamp(Instant.now());
+                failedEmailRepository.save(failure);
+                failed++;
+            } else {
+                // Saved, already saved, or parked for the model, which retries it from here on
+                failedEmailRepository.delete(failure);
+                if (result == Outcome.SAVED) {
+                    saved++;
                 }
             }
+        }
 
-        } catch (AuthenticationFailedException e) {
-            log.error("EMAIL AUTHENTICATION FAILED! Verify username/password/app password in configuration.", e);
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        log.info("Retried {} dead-lettered email(s) in {} ms: {} order(s) saved, {} still failing.",
+                deadLetters.size(), elapsedMillis, saved, failed);
+        return new SpoolReplayResult(deadLetters.size(), saved, failed, elapsedMillis);
+    }
 
-        } catch (MessagingException e) {
-            log.error("MessagingException during email polling: {}. Check connection settings or mailbox state.",
-                    e.getMessage(), e);
+    private Outcome extractAndPersist(EmailEnvelope envelope, Order order, String itemsBlock, boolean replay) {
+        String messageId = envelope.messageId();
+        String orderNumber = order.getOrderNumber();
+        try {
+            List<ShoppedItem> items;
+            extractionPermits.acquire();
+            try {
+                items = groceryReceiptAnalyzer.parseReceipt(itemsBlock, order);
+            } finally {
+                extractionPermits.release();
+            }
+
+            if (items == null || items.isEmpty()) {
+                log.error("No items found in the email content for Order: {}, Message-ID: {}. Skipping order save.",
+                        orderNumber, messageId);
+                return Outcome.RETRY;
+            }
+
+            log.info("Attempting to save new Order: Number={}, Date={}, Items={}",
+                    orderNumber, order.getOrderDate(), items.size());
+
+            Order savedOrder = replay
+                    ? receiptOrderWriter.replaceEmailOrder(messageId, envelope.sentDate(), order, items)
+                    : receiptOrderWriter.saveEmailOrder(messageId, envelope.sentDate(), order, items);
+
+            log.info("Successfully saved Order ID: {} (Number: {}) with {} items from Message-ID: {}",
+                    savedOrder.getId(), savedOrder.getOrderNumber(), savedOrder.getItems().size(), messageId);
+            return Outcome.SAVED;
+
+        } catch (ModelUnavailableException e) {
+            try {
+                pendingExtractionQueue.park(messageId, envelope.sentDate(), order, itemsBlock, replay,
+                        e.getMessage());
+                return Outcome.PARKED;
+            } catch (Exception parkError) {
+                log.error("Could not park Message-ID {}: {}", messageId, parkError.getMessage(), parkError);
+                return Outcome.RETRY;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.RETRY;
         } catch (Exception e) {
+            log.error(
+                    "Critical error processing email Message-ID: {}. Error: {}. Check email content and parser logic.",
+                    messageId, e.getMessage(), e);
+            return Outcome.RETRY;
+        }
+    }
 
-            log.error("Unexpected error during email polling task: {}", e.getMessage(), e);
-        } finally {
+    private MailFolderCheckpoint loadCheckpoint(String folderFullName, long uidValidity) {
+        MailFolderCheckpoint checkpoint = checkpointRepository.findByFolderName(folderFullName)
+                .orElseGet(() -> {
+                    MailFolderCheckpoint created = new MailFolderCheckpoint();
+                    created.setFolderName(folderFullName);
+                    created.setUidValidity(uidValidity);
+                    return created;
+                });
+
+        if (checkpoint.getUidValidity() != uidValidity) {
+            log.warn("UIDVALIDITY of folder '{}' changed from {} to {}. Discarding UID checkpoint and resyncing.",
+                    folderFullName, checkpoint.getUidValidity(), uidValidity);
+            checkpoint.setUidValidity(uidValidity);
+            checkpoint.setLastProcessedUid(0);
+        }
+        return checkpoint;
+    }
 
-            closeFolderAndStore(emailFolder, store);
-            log.info("Finished email polling task run.");
+    private void advanceCheckpoint(MailFolderCheckpoint checkpoint, long highestSeenUid, long firstRetryUid) {
+        // Stop below the first message that should be retried so the next poll picks it up again
+        long watermark = Math.min(highestSeenUid, firstRetryUid - 1);
+        if (checkpoint.getId() != null && watermark <= checkpoint.getLastProcessedUid()) {
+            return;
+        }
+
+        checkpoint.setLastProcessedUid(Math.max(watermark, checkpoint.getLastProcessedUid()));
+        checkpoint.setUpdatedTimestamp(Instant.now());
+        checkpointRepository.save(checkpoint);
+        log.debug("Advanced UID checkpoint of folder '{}' to {}.", checkpoint.getFolderName(),
+                checkpoint.getLastProcessedUid());
+    }
+
+    private void markAsReadQuietly(EmailEnvelope envelope) {
+        if (markProcessedAsRead && !envelope.seen()) {
+            try {
+                envelope.message().setFlag(Flags.Flag.SEEN, true);
+                log.debug("Marked email {} as read in mailbox.", envelope.messageId());
+            } catch (MessagingException e) {
+                log.warn("Could not mark email {} as read: {}", envelope.messageId(), e.getMessage());
+            }
         }
     }
 
-    private ProcessedEmail saveProcessedEmailRecord(String messageId, Date sentDateRaw, Order relatedOrder) {
-        ProcessedEmail record = new ProcessedEmail();
-        record.setMessageId(messageId);
+    private Set<String> findProcessedMessageIds(List<EmailEnvelope> envelopes) {
+        // Message-IDs the index has never seen are new for certain and need no lookup
+        List<String> candidates = envelopes.stream()
+                .map(EmailEnvelope::messageId)
+                .filter(messageId -> messageId != null && processedEmailIndex.mightContain(messageId))
+                .distinct()
+                .toList();
+        Set<String> processed = new HashSet<>();
+        for (List<String> chunk : chunked(candidates)) {
+            processed.addAll(processedEmailRepository.findExistingMessageIds(chunk));
+        }
+        log.debug("Resolved {} of {} Message-IDs against processed_emails, {} already processed.",
+                candidates.size(), envelopes.size(), processed.size());
+        return processed;
+    }
+
+    private Set<String> findParkedMessageIds(List<EmailEnvelope> envelopes) {
+        List<String> messageIds = envelopes.stream()
+                .map(EmailEnvelope::messageId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        Set<String> parked = new HashSet<>();
+        for (List<String> chunk : chunked(messageIds)) {
+            parked.addAll(pendingExtractionQueue.findParkedMessageIds(chunk));
+        }
+        return parked;
+    }
+
+    private Map<String, FailedEmail> findFailedEmails(List<EmailEnvelope> envelopes) {
+        List<String> messageIds = envelopes.stream()
+                .map(EmailEnvelope::messageId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        Map<String, FailedEmail> failures = new HashMap<>();
+        for (List<String> chunk : chunked(messageIds)) {
+            failedEmailRepository.findByMessageIdIn(chunk)
+                    .forEach(failure -> failures.put(failure.getMessageId(), failure));
+        }
+        return failures;
+    }
 
-        Instant sentTimestamp = (sentDateRaw != null) ? sentDateRaw.toInstant() : Instant.now();
+    private Set<String> findExistingOrderNumbers(List<EmailEnvelope> envelopes) {
+        List<String> orderNumbers = envelopes.stream()
+                .map(envelope -> extractOrderNumber(envelope.subject()))
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        Set<String> existing = new HashSet<>();
+        for (List<String> chunk : chunked(orderNumbers)) {
+            existing.addAll(orderRepository.findExistingOrderNumbers(chunk));
+        }
+        return existing;
+    }
 
-        record.setEmailSentTimestamp(sentTimestamp);
-        record.setProcessedTimestamp(Instant.now());
-        record.setGeneratedOrder(relatedOrder);
-        return processedEmailRepository.save(record);
+    private static List<List<String>> chunked(List<String> values) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < values.size(); i += IN_CLAUSE_CHUNK_SIZE) {
+            chunks.add(values.subList(i, Math.min(i + IN_CLAUSE_CHUNK_SIZE, values.size())));
+        }
+        return chunks;
     }
 
     private String extractOrderNumber(String subject) {
@@ -312,113 +863,13 @@ public class OrderEmailProcessingService {
         };
     }
 
-    private String extractItemsBlock(String emailContent) {
-
-        Matcher startMatcher = ORDERED_ITEMS_PATTERN.matcher(emailContent);
-        if (!startMatcher.find()) {
-            log.warn("Could not find 'Ordered items' marker in email content.");
-            return "";
-        }
-
-        Matcher endMatcher = SUMMARY_PATTERN.matcher(emailContent);
-        if (!endMatcher.find()) {
-            log.warn("Could not find 'Summary' or 'Total' marker in email content.");
-            int approximateEnd = Math.min(startMatcher.end() + 3000, emailContent.length());
-            return emailContent.substring(startMatcher.end(), approximateEnd).trim();
-        }
-        if (startMatcher.end() >= endMatcher.start()) {
-            log.warn("'Ordered items' marker found at or after 'Summary' marker. Invalid format.");
-            return "";
-        }
-
-        int itemsSectionStart = emailContent.indexOf('\n', startMatcher.start());
-        if (itemsSectionStart == -1 || itemsSectionStart > endMatcher.start()) {
-            itemsSectionStart = startMatcher.end();
-        } else {
-            itemsSectionStart += 1;
-        }
-
-        log.debug("Extracting items block from index {} to {}", itemsSectionStart, endMatcher.start());
-        return emailContent.substring(itemsSectionStart, endMatcher.start()).trim();
-    }
-
-    private String getMessageId(Message message) throws MessagingException {
-        if (message instanceof MimeMessage) {
-            return ((MimeMessage) message).getMessageID();
-        }
-
-        String[] headers = message.getHeader("Message-ID");
-        if (headers != null && headers.length > 0) {
-            return headers[0];
-        }
-        return null;
-    }
-
-    private String getTextFromMessage(Message message) throws MessagingException, IOException {
-        if (message.isMimeType("text/plain")) {
-            return message.getContent().toString();
-        }
-        if (message.isMimeType("multipart/*")) {
-            MimeMultipart mimeMultipart = (MimeMultipart) message.getContent();
-            return getTextFromMimeMultipart(mimeMultipart);
-        }
-        log.warn("Unsupported email content type: {}", message.getContentType());
-        return "";
-    }
-
-    private String getTextFromMimeMultipart(MimeMultipart mimeMultipart) throws MessagingException, IOException {
-        StringBuilder result = new StringBuilder();
-        String textContent = null;
-        String htmlContent = null;
-
-        for (int i = 0; i < mimeMultipart.getCount(); i++) {
-            BodyPart bodyPart = mimeMultipart.getBodyPart(i);
-
-            if (Part.ATTACHMENT.equalsIgnoreCase(bodyPart.getDisposition())) {
-                continue;
-            }
-
-            if (bodyPart.isMimeType("text/plain") && textContent == null) {
-                textContent = bodyPart.getContent().toString();
-                break;
-            } else if (bodyPart.isMimeType("text/html") && htmlContent == null) {
-                htmlContent = bodyPart.getContent().toString();
-            } else if (bodyPart.getContent() instanceof MimeMultipart) {
-                String nestedText = getTextFromMimeMultipart((MimeMultipart) bodyPart.getContent());
-                if (textContent == null && nestedText != null && !nestedText.isEmpty()) {
-                    textContent = nestedText;
-                }
-            }
-        }
-
-        if (textContent != null) {
-            log.trace("Extracted text/plain content.");
-            return textContent;
-        } else if (htmlContent != null) {
-            log.warn("No text/plain content found, falling back to HTML content (basic stripping).");
-            return htmlContent.replaceAll("<[^>]*>", " ").replaceAll("\\s+", " ").trim();
-        } else {
-            log.warn("Could not find text/plain or text/html part in multipart message.");
-            return "";
-        }
-    }
-
-    public List<Message> getFilteredMessages(List<Message> messages) throws MessagingException {
-        List<Message> filteredMessages = new ArrayList<>();
-        for (Message message : messages) {
-            try {
-                Date sentDate = message.getSentDate();
-                if (sentDate != null) {
-                    Calendar cal = Calendar.getInstance();
-                    cal.setTime(sentDate);
-                    int year = cal.get(Calendar.YEAR);
-
-                    if (year >= 2025) {
-                        filteredMessages.add(message);
-                    }
-                }
-            } catch (MessagingException e) {
-                log.error("Error processing message date: {}", e.getMessage());
+    public List<EmailEnvelope> getFilteredMessages(List<EmailEnvelope> envelopes) {
+        Instant cutoff = minSentDate.atStartOfDay(ZoneId.systemDefault()).toInstant();
+        List<EmailEnvelope> filteredMessages = new ArrayList<>();
+        for (EmailEnvelope envelope : envelopes) {
+            Date sentDate = envelope.sentDate();
+            if (sentDate != null && !sentDate.toInstant().isBefore(cutoff)) {
+                filteredMessages.add(envelope);
             }
         }
 
@@ -451,23 +902,4 @@ public class OrderEmailProcessingService {
     // return originalContent;
     // }
     // }
-
-    private void closeFolderAndStore(Folder folder, Store store) {
-        try {
-            if (folder != null && folder.isOpen()) {
-                folder.close(false);
-                log.debug("Closed email folder.");
-            }
-        } catch (MessagingException e) {
-            log.error("Error closing email folder: {}", e.getMessage(), e);
-        }
-        try {
-            if (store != null && store.isConnected()) {
-                store.close();
-                log.debug("Closed email store connection.");
-            }
-        } catch (MessagingException e) {
-            log.error("Error closing email store: {}", e.getMessage(), e);
-        }
-    }
 }
\ No newline at end of file
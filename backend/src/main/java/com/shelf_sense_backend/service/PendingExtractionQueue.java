@@ -0,0 +1,224 @@
+package com.shelf_sense_backend.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.shelf_sense_backend.model.Order;
+import com.shelf_sense_backend.model.PendingExtraction;
+import com.shelf_sense_backend.model.PendingExtractionStatus;
+import com.shelf_sense_backend.model.ShoppedItem;
+import com.shelf_sense_backend.repo.PendingExtractionRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Receipts that could not be extracted because the AI model was unavailable.
+ * They are parked in the pending_extractions table with their decoded items
+ * block, so the mail server is not asked for them again, and drained a few
+ * at a time once the model circuit lets calls through. Each receipt backs
+ * off exponentially between attempts. A receipt that keeps failing while the
+ * model is available is moved to the dead-letter status after
+ * {@code max-failed-attempts} and stays there until it is parked again.
+ */
+@Service
+public class PendingExtractionQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingExtractionQueue.class);
+
+    @Autowired
+    private PendingExtractionRepository pendingExtractionRepository;
+    @Autowired
+    private GroceryReceiptAnalyzer groceryReceiptAnalyzer;
+    @Autowired
+    private ReceiptOrderWriter receiptOrderWriter;
+    @Autowired
+    private ModelCircuitBreaker circuitBreaker;
+
+    @Value("${app.receipt.ai.queue.initial-backoff-seconds:60}")
+    private long initialBackoffSeconds;
+    @Value("${app.receipt.ai.queue.max-backoff-seconds:900}")
+    private long maxBackoffSeconds;
+    @Value("${app.receipt.ai.queue.drain-batch-size:5}")
+    private int drainBatchSize;
+    @Value("${app.receipt.ai.queue.max-failed-attempts:5}")
+    private int maxFailedAttempts;
+
+    // Extraction blocks for seconds per receipt, so it does not run on the shared scheduler thread
+    private final ExecutorService drainExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ai-queue-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final Counter parked;
+    private final Counter drained;
+    private final Counter deadLettered;
+
+    public PendingExtractionQueue(MeterRegistry meterRegistry) {
+        this.parked = Counter.builder("ai.queue.parked")
+                .description("Receipts parked while the AI model was unavailable")
+                .register(meterRegistry);
+        this.drained = Counter.builder("ai.queue.drained")
+                .description("Parked receipts extracted and saved")
+                .register(meterRegistry);
+        this.deadLettered = Counter.builder("ai.queue.dead_lettered")
+                .description("Parked receipts given up on after repeated failures")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        drainExecutor.shutdownNow();
+    }
+
+    public void park(String messageId, Date sentDate, Order order, String itemsBlock, boolean replaceExisting,
+            String reason) {
+        PendingExtraction entry = pendingExtractionRepository.findByMessageId(messageId)
+                .orElseGet(PendingExtraction::new);
+        if (entry.getId() == null) {
+            entry.setMessageId(messageId);
+            entry.setCreatedTimestamp(Instant.now());
+        }
+        entry.setOrderNumber(order.getOrderNumber());
+        entry.setOrderDate(order.getOrderDate());
+        entry.setEmailSentTimestamp(sentDate != null ? sentDate.toInstant() : null);
+        entry.setItemsBlock(itemsBlock);
+        entry.setReplaceExisting(replaceExisting);
+        entry.setStatus(PendingExtractionStatus.PENDING);
+        entry.setFailedAttempts(0);
+        scheduleNextAttempt(entry, reason);
+        parked.increment();
+        logger.warn("Parked Order {} (Message-ID {}) until {}: {}", order.getOrderNumber(), messageId,
+                entry.getNextAttemptTimestamp(), reason);
+    }
+
+    public Set<String> findParkedMessageIds(Collection<String> messageIds) {
+        if (messageIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        return pendingExtractionRepository.findExistingMessageIds(messageIds);
+    }
+
+    @Scheduled(fixedDelayString = "${app.receipt.ai.queue.drain-interval-ms:15000}",
+            initialDelayString = "${app.receipt.ai.queue.drain-interval-ms:15000}")
+    public void drain() {
+        // Nothing is read from the table while the circuit is open
+        if (!circuitBreaker.isCallPermitted() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        drainExecutor.execute(() -> {
+            try {
+                drainDue();
+            } catch (Exception e) {
+                logger.error("Draining parked receipts failed: {}", e.getMessage(), e);
+            } finally {
+                draining.set(false);
+            }
+        });
+    }
+
+    private void drainDue() {
+        List<PendingExtraction> due = pendingExtractionRepository
+                .findByStatusAndNextAttemptTimestampLessThanEqualOrderByNextAttemptTimestampAsc(
+                        PendingExtractionStatus.PENDING, Instant.now(), PageRequest.of(0, drainBatchSize));
+        if (due.isEmpty()) {
+            return;
+        }
+
+        logger.info("Draining {} parked receipt(s)", due.size());
+        for (PendingExtraction entry : due) {
+            if (!extract(entry)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns false if the model became unavailable again, so the rest of the
+     * batch is left for a later run.
+     */
+    private boolean extract(PendingExtraction entry) {
+        Order order = new Order();
+        order.setOrderNumber(entry.getOrderNumber());
+        order.setOrderDate(entry.getOrderDate());
+        Date sentDate = entry.getEmailSentTimestamp() != null ? Date.from(entry.getEmailSentTimestamp()) : null;
+
+        try {
+            List<ShoppedItem> items = groceryReceiptAnalyzer.parseReceipt(entry.getItemsBlock(), order);
+            if (items == null || items.isEmpty()) {
+                recordFailure(entry, "No items extracted");
+                return true;
+            }
+
+            Order savedOrder = entry.isReplaceExisting()
+                    ? receiptOrderWriter.replaceEmailOrder(entry.getMessageId(), sentDate, order, items)
+                    : receiptOrderWriter.saveEmailOrder(entry.getMessageId(), sentDate, order, items);
+            pendingExtractionRepository.delete(entry);
+            drained.increment();
+            logger.info("Saved parked Order ID: {} (Number: {}) with {} items after {} attempt(s)",
+                    savedOrder.getId(), savedOrder.getOrderNumber(), items.size(), entry.getAttempts() + 1);
+            return true;
+
+        } catch (ModelUnavailableException e) {
+            scheduleNextAttempt(entry, e.getMessage());
+            return false;
+        } catch (DataIntegrityViolationException e) {
+            logger.warn("Parked Message-ID {} was already saved, removing it from the queue", entry.getMessageId());
+            pendingExtractionRepository.delete(entry);
+            return true;
+        } catch (Exception e) {
+            logger.error("Could not extract parked Message-ID {}: {}", entry.getMessageId(), e.getMessage(), e);
+            recordFailure(entry, e.getMessage());
+            return true;
+        }
+    }
+
+    private void recordFailure(PendingExtraction entry, String reason) {
+        entry.setFailedAttempts(entry.getFailedAttempts() + 1);
+        if (entry.getFailedAttempts() < maxFailedAttempts) {
+            scheduleNextAttempt(entry, reason);
+            return;
+        }
+        // Kept in the table, so the email is not fetched and parked again
+        entry.setStatus(PendingExtractionStatus.DEAD_LETTER);
+        entry.setAttempts(entry.getAttempts() + 1);
+        entry.setLastError(reason != null && reason.length() > 1000 ? reason.substring(0, 1000) : reason);
+        pendingExtractionRepository.save(entry);
+        deadLettered.increment();
+        logger.error("Gave up on parked Order {} (Message-ID {}) after {} failed attempt(s): {}",
+                entry.getOrderNumber(), entry.getMessageId(), entry.getFailedAttempts(), reason);
+    }
+
+    private void scheduleNextAttempt(PendingExtraction entry, String reason) {
+        int attempts = entry.getAttempts();
+        // Exponential backoff with jitter, so parked receipts do not all come due together
+        long backoffSeconds = Math.min(maxBackoffSeconds, initialBackoffSeconds << Math.min(attempts, 20));
+        long jitteredMillis = (long) (backoffSeconds * 1000 * ThreadLocalRandom.current().nextDouble(0.8, 1.2));
+
+        entry.setAttempts(attempts + 1);
+        entry.setNextAttemptTimestamp(Instant.now().plus(Duration.ofMillis(jitteredMillis)));
+        entry.setLastError(reason != null && reason.length() > 1000 ? reason.substring(0, 1000) : reason);
+        pendingExtractionRepository.save(entry);
+    }
+}
@@ -0,0 +1,99 @@
+package com.shelf_sense_backend.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.shelf_sense_backend.repo.ProcessedEmailRepository;
+
+/**
+ * Bloom filter over the Message-IDs in processed_emails. A negative answer is
+ * definite, so new mail is recognised without touching the database; a
+ * positive answer may be a false positive and must be confirmed against the
+ * table before a message is skipped.
+ */
+@Component
+public class ProcessedEmailIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessedEmailIndex.class);
+
+    @Autowired
+    private ProcessedEmailRepository processedEmailRepository;
+
+    private final int bitCount;
+    private final int hashCount;
+    private final BitSet bits;
+    private volatile boolean warmedUp;
+
+    public ProcessedEmailIndex(
+            @Value("${app.email.dedup.expected-message-ids:100000}") int expectedEntries,
+            @Value("${app.email.dedup.false-positive-rate:0.01}") double falsePositiveRate) {
+        double ln2 = Math.log(2);
+        this.bitCount = (int) Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedEntries * ln2));
+        this.bits = new BitSet(bitCount);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            List<String> messageIds = processedEmailRepository.findAllMessageIds();
+            messageIds.forEach(this::add);
+            warmedUp = true;
+            log.info("Warmed processed email index with {} Message-IDs ({} bits, {} hashes).",
+                    messageIds.size(), bitCount, hashCount);
+        } catch (Exception e) {
+            log.error("Could not warm processed email index, every lookup will go to the database: {}",
+                    e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns false only if the Message-ID has certainly never been recorded.
+     */
+    public boolean mightContain(String messageId) {
+        if (!warmedUp) {
+            return true;
+        }
+        long hash = hash(messageId);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        synchronized (bits) {
+            for (int i = 0; i < hashCount; i++) {
+                if (!bits.get(Math.floorMod(h1 + i * h2, bitCount))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public void add(String messageId) {
+        long hash = hash(messageId);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        synchronized (bits) {
+            for (int i = 0; i < hashCount; i++) {
+                bits.set(Math.floorMod(h1 + i * h2, bitCount));
+            }
+        }
+    }
+
+    // 64-bit FNV-1a; the two halves feed the double-hashing scheme above
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
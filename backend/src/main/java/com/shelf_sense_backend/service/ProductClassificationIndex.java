@@ -0,0 +1,78 @@
+package com.shelf_sense_backend.service;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.shelf_sense_backend.model.ShoppedItem;
+import com.shelf_sense_backend.repo.ShoppedItemRepository;
+
+/**
+ * In-memory dictionary from normalised receipt line names to the
+ * general_name and food_type they were classified as before. Loaded from
+ * shopped_items at startup and extended as new lines are classified, so
+ * repeat purchases never reach the AI model.
+ */
+@Component
+public class ProductClassificationIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductClassificationIndex.class);
+
+    public record Classification(String generalName, String foodType) {
+    }
+
+    @Autowired
+    private ShoppedItemRepository shoppedItemRepository;
+
+    private final Map<String, Classification> classifications = new ConcurrentHashMap<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            List<Object[]> rows = shoppedItemRepository.findClassifications();
+            // Rows come oldest first, so the latest classification of a line wins
+            for (Object[] row : rows) {
+                put((String) row[0], new Classification((String) row[1], (String) row[2]));
+            }
+            log.info("Loaded {} product classifications from {} shopped item(s).", classifications.size(),
+                    rows.size());
+        } catch (Exception e) {
+            log.error("Could not load product classifications, every line will be sent to the AI model: {}",
+                    e.getMessage(), e);
+        }
+    }
+
+    public Classification find(String rawName) {
+        if (rawName == null) {
+            return null;
+        }
+        return classifications.get(normalise(rawName));
+    }
+
+    /**
+     * Remembers the classification of an item, if it has one.
+     */
+    public void add(ShoppedItem item) {
+        if (item.getGeneralName() != null && item.getFoodType() != null) {
+            put(item.getRawName(), new Classification(item.getGeneralName(), item.getFoodType()));
+        }
+    }
+
+    private void put(String rawName, Classification classification) {
+        if (rawName != null && !rawName.isBlank()) {
+            classifications.put(normalise(rawName), classification);
+        }
+    }
+
+    static String normalise(String rawName) {
+        return rawName.replace('\u00A0', ' ').replaceAll("\\s+", " ").trim().toLowerCase(Locale.ROOT);
+    }
+}
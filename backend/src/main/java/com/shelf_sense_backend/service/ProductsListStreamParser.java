@@ -0,0 +1,120 @@
+package com.shelf_sense_backend.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.shelf_sense_backend.dto.ExtractedProduct;
+
+/**
+ * Incremental parser for the model's {"products_list": [...]} answer as it
+ * is streamed. Text before the first '{' or '[' (such as a markdown fence)
+ * is skipped, and each list element is returned as soon as its closing brace
+ * arrives, bound to an {@link ExtractedProduct}. One instance handles one
+ * response; the item reader is shared and thread-safe.
+ */
+public class ProductsListStreamParser {
+
+    private final ObjectReader itemReader;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    private boolean started;
+    private boolean complete;
+    private int depth;
+    private int listDepth = -1; // Depth of the products array once it has been found
+    private String lastFieldName;
+    private TokenBuffer currentItem;
+
+    public ProductsListStreamParser(ObjectReader itemReader) throws IOException {
+        this.itemReader = itemReader;
+        this.parser = itemReader.getFactory().createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    public static ObjectReader itemReader(ObjectMapper objectMapper) {
+        return objectMapper.readerFor(ExtractedProduct.class);
+    }
+
+    /**
+     * Feeds the next piece of generated text and returns the list elements it
+     * completed.
+     */
+    public List<ExtractedProduct> feed(String fragment) throws IOException {
+        List<ExtractedProduct> items = new ArrayList<>();
+        if (complete || fragment == null || fragment.isEmpty()) {
+            return items;
+        }
+
+        if (!started) {
+            int start = indexOfJsonStart(fragment);
+            if (start < 0) {
+                return items;
+            }
+            fragment = fragment.substring(start);
+            started = true;
+        }
+
+        byte[] bytes = fragment.getBytes(StandardCharsets.UTF_8);
+        feeder.feedInput(bytes, 0, bytes.length);
+
+        JsonToken token;
+        while (!complete && (token = parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null) {
+            if (currentItem != null) {
+                currentItem.copyCurrentEvent(parser);
+            }
+
+            switch (token) {
+                case FIELD_NAME -> lastFieldName = parser.currentName();
+                case START_OBJECT, START_ARRAY -> {
+                    depth++;
+                    if (token == JsonToken.START_ARRAY && listDepth < 0
+                            && (depth == 1 || (depth == 2 && "products_list".equals(lastFieldName)))) {
+                        listDepth = depth;
+                    } else if (token == JsonToken.START_OBJECT && listDepth > 0 && depth == listDepth + 1
+                            && currentItem == null) {
+                        currentItem = new TokenBuffer(parser, null);
+                        currentItem.copyCurrentEvent(parser);
+                    }
+                }
+                case END_OBJECT, END_ARRAY -> {
+                    if (token == JsonToken.END_OBJECT && currentItem != null && depth == listDepth + 1) {
+                        try (JsonParser itemParser = currentItem.asParser(itemReader)) {
+                            items.add(itemReader.readValue(itemParser));
+                        }
+                        currentItem = null;
+                    }
+                    depth--;
+                    if (depth == 0) {
+                        // Anything after the root value (closing fence, commentary) is ignored
+                        complete = true;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        return items;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    private static int indexOfJsonStart(String fragment) {
+        for (int i = 0; i < fragment.length(); i++) {
+            char c = fragment.charAt(i);
+            if (c == '{' || c == '[') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
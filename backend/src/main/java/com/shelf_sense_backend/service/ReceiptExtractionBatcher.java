@@ -0,0 +1,197 @@
+package com.shelf_sense_backend.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.shelf_sense_backend.dto.ExtractedProduct;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Collects receipts waiting for AI extraction for up to {@code max-wait-ms}
+ * or {@code max-size} receipts and sends them to the model as one request,
+ * so the instruction prefix is processed once per batch. Each caller gets
+ * its own products list back. If the batch answer cannot be split per
+ * receipt, the receipts are sent again one at a time. Only whole receipts
+ * are submitted; the chunks of a large receipt are extracted in parallel
+ * instead, see {@link GroceryReceiptAnalyzer}.
+ */
+@Component
+public class ReceiptExtractionBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReceiptExtractionBatcher.class);
+
+    private record PendingReceipt(String text, CompletableFuture<List<ExtractedProduct>> result) {
+    }
+
+    @Autowired
+    private AIModelClient aiModelClient;
+
+    @Value("${app.receipt.ai.batching.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.receipt.ai.batching.max-size:4}")
+    private int maxBatchSize;
+
+    @Value("${app.receipt.ai.batching.max-wait-ms:50}")
+    private long maxWaitMillis;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ai-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<PendingReceipt> pending = new ArrayList<>();
+    private ScheduledFuture<?> flushTask;
+
+    private final Counter batchedReceipts;
+    private final Counter singleReceipts;
+    private final Counter batchFallbacks;
+
+    public ReceiptExtractionBatcher(MeterRegistry meterRegistry) {
+        this.batchedReceipts = Counter.builder("ai.extraction.batch.receipts")
+                .description("Receipts extracted as part of a multi-receipt request")
+                .tag("mode", "batched")
+                .register(meterRegistry);
+        this.singleReceipts = Counter.builder("ai.extraction.batch.receipts")
+                .description("Receipts extracted as part of a multi-receipt request")
+                .tag("mode", "single")
+                .register(meterRegistry);
+        this.batchFallbacks = Counter.builder("ai.extraction.batch.fallbacks")
+                .description("Batches whose answer could not be split per receipt")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the receipt for the next batch. Cached receipts are answered
+     * right away, and a receipt that is already being extracted is not
+     * queued again.
+     */
+    public CompletableFuture<List<ExtractedProduct>> submit(String receiptText) {
+        return aiModelClient.extractReceiptOnce(receiptText, () -> enqueue(receiptText));
+    }
+
+    private CompletableFuture<List<ExtractedProduct>> enqueue(String receiptText) {
+        PendingReceipt receipt = new PendingReceipt(receiptText, new CompletableFuture<>());
+        List<PendingReceipt> ready = null;
+        synchronized (this) {
+            pending.add(receipt);
+            if (pending.size() >= maxBatchSize) {
+                ready = drain();
+            } else if (pending.size() == 1) {
+                flushTask = scheduler.schedule(this::flushDue, maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (ready != null) {
+            dispatch(ready);
+        }
+        return receipt.result().copy();
+    }
+
+    private void flushDue() {
+        List<PendingReceipt> ready;
+        synchronized (this) {
+            ready = drain();
+        }
+        if (!ready.isEmpty()) {
+            dispatch(ready);
+        }
+    }
+
+    // Caller holds the lock
+    private List<PendingReceipt> drain() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        List<PendingReceipt> ready = new ArrayList<>(pending);
+        pending.clear();
+        return ready;
+    }
+
+    private void dispatch(List<PendingReceipt> batch) {
+        if (batch.size() == 1) {
+            extractSingly(batch.get(0));
+            return;
+        }
+
+        long started = System.nanoTime();
+        List<String> texts = new ArrayList<>(batch.size());
+        for (PendingReceipt receipt : batch) {
+            texts.add(receipt.text());
+        }
+
+        aiModelClient.processReceiptBatchAsync(texts).whenComplete((results, error) -> {
+            if (error != null && unwrap(error) instanceof ModelUnavailableException unavailable) {
+                // Sending the receipts one at a time would only hit the unavailable model again
+                batch.forEach(receipt -> receipt.result().completeExceptionally(unavailable));
+                return;
+            }
+            if (error != null) {
+                batchFallbacks.increment();
+                logger.warn("Batch of {} receipts could not be extracted ({}), sending them one at a time",
+                        batch.size(), error.getMessage());
+                batch.forEach(this::extractSingly);
+                return;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                PendingReceipt receipt = batch.get(i);
+                List<ExtractedProduct> items = results.get(i);
+                if (items.isEmpty()) {
+                    extractSingly(receipt);
+                    continue;
+                }
+                batchedReceipts.increment();
+                receipt.result().complete(items);
+            }
+
+            long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            logger.info("Extracted a batch of {} receipts in {} ms ({} receipts/min)",
+                    batch.size(), elapsedMillis, batch.size() * 60_000L / elapsedMillis);
+        });
+    }
+
+    private void extractSingly(PendingReceipt receipt) {
+        long started = System.nanoTime();
+        aiModelClient.extractReceiptUncached(receipt.text()).whenComplete((items, error) -> {
+            if (error != null) {
+                receipt.result().completeExceptionally(error);
+                return;
+            }
+            singleReceipts.increment();
+            receipt.result().complete(items);
+            long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            logger.debug("Extracted a single receipt in {} ms ({} receipts/min)", elapsedMillis,
+                    60_000L / elapsedMillis);
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
@@ -0,0 +1,384 @@
+package com.shelf_sense_backend.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.protobuf.ByteString;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Shrinks receipt photos before they are sent to Vision. The image is
+ * decoded once, subsampled while decoding when it is far larger than
+ * needed, converted to grayscale, cropped to the paper, scaled to a
+ * resolution that is still enough for text detection and written as JPEG.
+ * The result is built straight into a ByteString, so no other copy of the
+ * encoded image is held. Images ImageIO cannot read, and images that would
+ * not get smaller, are sent as uploaded. The difference hash used to spot
+ * re-shoots of a receipt is taken from the same decoded, cropped image.
+ */
+@Component
+public class ReceiptImagePreprocessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReceiptImagePreprocessor.class);
+
+    // Short edge to decode at when the image is only hashed
+    private static final int HASH_DECODE_EDGE = 256;
+
+    @Value("${app.ocr.preprocess.enabled:true}")
+    private boolean enabled;
+
+    // Receipts are narrow, so the short edge is the width of the paper
+    @Value("${app.ocr.preprocess.max-short-edge:1200}")
+    private int maxShortEdge;
+
+    @Value("${app.ocr.preprocess.max-long-edge:4000}")
+    private int maxLongEdge;
+
+    @Value("${app.ocr.preprocess.jpeg-quality:0.85}")
+    private float jpegQuality;
+
+    @Value("${app.ocr.preprocess.crop:true}")
+    private boolean crop;
+
+    /**
+     * Content to send to Vision, with the 64-bit difference hash and the
+     * height to width ratio of the cropped image. Both are null if the image
+     * could not be decoded.
+     */
+    public record PreparedImage(ByteString content, Long perceptualHash, Float paperAspect) {
+    }
+
+    private final DistributionSummary bytesIn;
+    private final DistributionSummary bytesOut;
+    private final Timer latency;
+    private final Counter passedThrough;
+
+    public ReceiptImagePreprocessor(MeterRegistry meterRegistry) {
+        this.bytesIn = DistributionSummary.builder("ocr.preprocess.bytes.in")
+                .description("Size of uploaded receipt images")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.bytesOut = DistributionSummary.builder("ocr.preprocess.bytes.out")
+                .description("Size of receipt images sent to Vision")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.latency = Timer.builder("ocr.preprocess.latency")
+                .description("Time to decode, shrink and encode one receipt image")
+                .register(meterRegistry);
+        this.passedThrough = Counter.builder("ocr.preprocess.passthrough")
+                .description("Receipt images sent as uploaded")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the image content to send to Vision for the uploaded file.
+     */
+    public PreparedImage prepare(Path image) throws IOException {
+        long size = Files.size(image);
+        long started = System.nanoTime();
+        ByteString content = null;
+        Long perceptualHash = null;
+        Float paperAspect = null;
+        try {
+            BufferedImage gray = decode(image, enabled);
+            if (gray != null) {
+                if (crop) {
+                    gray = cropToPaper(gray);
+                }
+                perceptualHash = differenceHash(gray);
+                paperAspect = (float) gray.getHeight() / gray.getWidth();
+                if (enabled) {
+                    content = encode(gray);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not preprocess {}, sending it as uploaded: {}", image.getFileName(), e.getMessage());
+        }
+        if (content == null || content.size() >= size) {
+            try (InputStream in = Files.newInputStream(image)) {
+                content = ByteString.readFrom(in);
+            }
+            passedThrough.increment();
+        }
+        latency.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        bytesIn.record(size);
+        bytesOut.record(content.size());
+        logger.debug("Prepared {}: {} bytes to {} bytes", image.getFileName(), size, content.size());
+        return new PreparedImage(content, perceptualHash, paperAspect);
+    }
+
+    /**
+     * Decodes the image in grayscale, or returns null if ImageIO cannot read
+     * it. Only for hashing, the image is decoded at a fraction of its size.
+     */
+    private BufferedImage decode(Path image, boolean forOcr) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(image.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                // Skip whole pixels while decoding, but never below the target size
+                int step = forOcr
+                        ? (int) (1 / scaleFor(width, height))
+                        : Math.max(1, Math.min(width, height) / HASH_DECODE_EDGE);
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return toGray(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private ByteString encode(BufferedImage gray) throws IOException {
+        double scale = scaleFor(gray.getWidth(), gray.getHeight());
+        if (scale < 1) {
+            gray = scale(gray, scale);
+        }
+        ByteString.Output out = ByteString.newOutput(64 * 1024);
+        writeJpeg(gray, jpegQuality, out);
+        return out.toByteString();
+    }
+
+    private double scaleFor(int width, int height) {
+        int shortEdge = Math.min(width, height);
+        int longEdge = Math.max(width, height);
+        return Math.min(1, Math.min((double) maxShortEdge / shortEdge, (double) maxLongEdge / longEdge));
+    }
+
+    static BufferedImage toGray(BufferedImage image) {
+        // Always a fresh image, so its pixels are one tightly packed byte array
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = gray.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return gray;
+    }
+
+    /**
+     * Crops to the rows and columns that cross the paper: those with at
+     * least half as many pixels brighter than the Otsu threshold as the
+     * brightest row or column. A receipt photographed on a darker surface
+     * loses the surface; a photo that is all paper, or one on a bright
+     * surface, is left as it is.
+     */
+    static BufferedImage cropToPaper(BufferedImage gray) {
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        byte[] pixels = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        int threshold = otsuThreshold(pixels);
+
+        int[] brightInRow = new int[height];
+        int[] brightInColumn = new int[width];
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if ((pixels[row + x] & 0xFF) > threshold) {
+                    brightInRow[y]++;
+                    brightInColumn[x]++;
+                }
+            }
+        }
+
+        int rowMinimum = Math.max(1, max(brightInRow) / 2);
+        int columnMinimum = Math.max(1, max(brightInColumn) / 2);
+        int top = first(brightInRow, rowMinimum);
+        int bottom = last(brightInRow, rowMinimum);
+        int left = first(brightInColumn, columnMinimum);
+        int right = last(brightInColumn, columnMinimum);
+        if (top < 0 || left < 0) {
+            return gray;
+        }
+
+        int padX = width / 50;
+        int padY = height / 50;
+        left = Math.max(0, left - padX);
+        right = Math.min(width - 1, right + padX);
+        top = Math.max(0, top - padY);
+        bottom = Math.min(height - 1, bottom + padY);
+        long croppedArea = (long) (right - left + 1) * (bottom - top + 1);
+        long area = (long) width * height;
+        // Not worth it for a few edge pixels, and a tiny box means the paper was not found
+        if (croppedArea > area * 9 / 10 || croppedArea < area / 20) {
+            return gray;
+        }
+
+        BufferedImage cropped = new BufferedImage(right - left + 1, bottom - top + 1, BufferedImage.TYPE_BYTE_GRAY);
+        cropped.getRaster().setRect(-left, -top, gray.getRaster());
+        return cropped;
+    }
+
+    static BufferedImage scale(BufferedImage gray, double scale) {
+        int targetWidth = Math.max(1, (int) Math.round(gray.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(gray.getHeight() * scale));
+        BufferedImage current = gray;
+        // Bilinear steps of at most one half, so thin strokes are averaged rather than dropped
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        if (current.getWidth() != targetWidth || current.getHeight() != targetHeight) {
+            current = draw(current, targetWidth, targetHeight);
+        }
+        return current;
+    }
+
+    /**
+     * dHash: the image shrunk to 9x8, one bit per pair of horizontal
+     * neighbours, set when the left one is brighter. Survives rescaling,
+     * recompression and small changes in lighting.
+     */
+    static long differenceHash(BufferedImage gray) {
+        BufferedImage current = gray;
+        // Halve first, so the 9x8 pixels average the whole image instead of sampling it
+        while (true) {
+            int width = current.getWidth() / 2 >= 9 ? current.getWidth() / 2 : current.getWidth();
+            int height = current.getHeight() / 2 >= 8 ? current.getHeight() / 2 : current.getHeight();
+            if (width == current.getWidth() && height == current.getHeight()) {
+                break;
+            }
+            current = draw(current, width, height);
+        }
+        current = draw(current, 9, 8);
+
+        byte[] pixels = ((DataBufferByte) current.getRaster().getDataBuffer()).getData();
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash <<= 1;
+                if ((pixels[y * 9 + x] & 0xFF) > (pixels[y * 9 + x + 1] & 0xFF)) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    static void writeJpeg(BufferedImage image, float quality, OutputStream out) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        // Memory cache, so ImageIO does not spill to a temporary file
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private static int otsuThreshold(byte[] pixels) {
+        long[] histogram = new long[256];
+        for (byte pixel : pixels) {
+            histogram[pixel & 0xFF]++;
+        }
+        long total = pixels.length;
+        double sum = 0;
+        for (int i = 0; i < 256; i++) {
+            sum += i * (double) histogram[i];
+        }
+
+        double sumBackground = 0;
+        long weightBackground = 0;
+        double bestVariance = -1;
+        int threshold = 127;
+        for (int i = 0; i < 256; i++) {
+            weightBackground += histogram[i];
+            if (weightBackground == 0) {
+                continue;
+            }
+            long weightForeground = total - weightBackground;
+            if (weightForeground == 0) {
+                break;
+            }
+            sumBackground += i * (double) histogram[i];
+            double meanBackground = sumBackground / weightBackground;
+            double meanForeground = (sum - sumBackground) / weightForeground;
+            double variance = (double) weightBackground * weightForeground
+                    * (meanBackground - meanForeground) * (meanBackground - meanForeground);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = i;
+            }
+        }
+        return threshold;
+    }
+
+    private static int max(int[] counts) {
+        int max = 0;
+        for (int count : counts) {
+            max = Math.max(max, count);
+        }
+        return max;
+    }
+
+    private static int first(int[] counts, int minimum) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] >= minimum) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int last(int[] counts, int minimum) {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] >= minimum) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,608 @@
+package com.shelf_sense_backend.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.google.protobuf.ByteString;
+import com.shelf_sense_backend.dto.ReceiptUploadResult;
+import com.shelf_sense_backend.model.ReceiptJob;
+import com.shelf_sense_backend.model.ReceiptJobStatus;
+import com.shelf_sense_backend.model.ShoppedItem;
+import com.shelf_sense_backend.repo.OrderRepository;
+import com.shelf_sense_backend.repo.ReceiptJobRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs uploaded receipt images in the background, so an upload only waits
+ * for its files to be written. Jobs are rows in the receipt_jobs table and
+ * their images are kept on disk under the job id, so queued and interrupted
+ * jobs are picked up again when the application starts. A fixed pool of
+ * workers with a bounded queue runs OCR, extraction and persistence; jobs
+ * that do not fit in the queue stay QUEUED until a worker frees up. A failed
+ * run is requeued with exponential backoff; runs that failed because the AI
+ * model was unavailable do not count as attempts, and the job waits, images
+ * and all, until the model is back. Progress is saved on the job and pushed
+ * to SSE subscribers.
+ * <p>
+ * Before OCR every image is looked up in the {@link ImageFingerprintIndex}.
+ * A file that was saved before is answered with its order. A likely re-shoot
+ * of a saved receipt is held, and the job waits in NEEDS_CONFIRMATION until
+ * the user confirms the images should be processed anyway, or dismisses them.
+ */
+@Service
+public class ReceiptJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReceiptJobService.class);
+
+    @Autowired
+    private ReceiptJobRepository receiptJobRepository;
+    @Autowired
+    private ReceiptOcrService receiptOcrService;
+    @Autowired
+    private ReceiptImagePreprocessor imagePreprocessor;
+    @Autowired
+    private ImageFingerprintIndex fingerprintIndex;
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private ModelCircuitBreaker circuitBreaker;
+
+    @Value("${app.receipt.jobs.directory:./data/receipt-jobs}")
+    private String directory;
+    @Value("${app.receipt.jobs.workers:2}")
+    private int workers;
+    @Value("${app.receipt.jobs.queue-capacity:20}")
+    private int queueCapacity;
+    @Value("${app.receipt.jobs.max-attempts:3}")
+    private int maxAttempts;
+    @Value("${app.receipt.jobs.initial-backoff-seconds:30}")
+    private long initialBackoffSeconds;
+    @Value("${app.receipt.jobs.max-backoff-seconds:900}")
+    private long maxBackoffSeconds;
+    @Value("${app.receipt.jobs.sse-timeout-ms:300000}")
+    private long sseTimeoutMillis;
+
+    private final MeterRegistry meterRegistry;
+    private final Timer jobDuration;
+    private Path jobDirectory;
+    private ThreadPoolExecutor jobExecutor;
+    private final Set<Long> activeJobs = ConcurrentHashMap.newKeySet();
+    private final Map<Long, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    public ReceiptJobService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.jobDuration = Timer.builder("receipt.jobs.duration")
+                .description("Time a receipt job spends running, from preparing the images to the last saved order")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        jobDirectory = Paths.get(directory);
+        Files.createDirectories(jobDirectory);
+
+        int threads = Math.max(1, workers);
+        jobExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                    Thread thread = new Thread(runnable, "receipt-job");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        meterRegistry.gauge("receipt.jobs.queued", jobExecutor, executor -> executor.getQueue().size());
+        meterRegistry.gauge("receipt.jobs.running", jobExecutor, ThreadPoolExecutor::getActiveCount);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jobExecutor.shutdownNow();
+        subscribers.values().forEach(emitters -> emitters.forEach(SseEmitter::complete));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedJobs() {
+        for (ReceiptJob job : receiptJobRepository.findByStatus(ReceiptJobStatus.UPLOADING)) {
+            // The upload request died with the application; its files are incomplete
+            deleteFiles(job.getId());
+            job.setStatus(ReceiptJobStatus.FAILED);
+            job.setLastError("Upload was interrupted");
+            job.setUpdatedTimestamp(Instant.now());
+            receiptJobRepository.save(job);
+        }
+        for (ReceiptJob job : receiptJobRepository.findByStatus(ReceiptJobStatus.RUNNING)) {
+            log.info("Requeuing receipt job {} interrupted at stage {}.", job.getId(), job.getStage());
+            job.setStatus(ReceiptJobStatus.QUEUED);
+            job.setStage("QUEUED");
+            job.setUpdatedTimestamp(Instant.now());
+            receiptJobRepository.save(job);
+        }
+        dispatchQueued();
+    }
+
+    /**
+     * Stores the images of one upload and queues a job for them. The job is
+     * returned as soon as the files are on disk.
+     */
+    public ReceiptJob submit(List<MultipartFile> files) throws IOException {
+        Instant now = Instant.now();
+        ReceiptJob job = new ReceiptJob();
+        job.setStatus(ReceiptJobStatus.UPLOADING);
+        job.setStage("UPLOADING");
+        job.setFileCount(files.size());
+        job.setCreatedTimestamp(now);
+        job.setUpdatedTimestamp(now);
+        job = receiptJobRepository.save(job);
+
+        Path dir = jobDirectory.resolve(job.getId().toString());
+        try {
+            Files.createDirectories(dir);
+            for (int i = 0; i < files.size(); i++) {
+                // The index prefix keeps the upload order when the job is read back
+                files.get(i).transferTo(dir.resolve(String.format("%03d-%s", i,
+                        safeFileName(files.get(i).getOriginalFilename()))));
+            }
+        } catch (IOException e) {
+            deleteFiles(job.getId());
+            job.setStatus(ReceiptJobStatus.FAILED);
+            job.setLastError(truncate("Could not store the uploaded images: " + e.getMessage()));
+            job.setUpdatedTimestamp(Instant.now());
+            receiptJobRepository.save(job);
+            throw e;
+        }
+
+        job.setStatus(ReceiptJobStatus.QUEUED);
+        job.setStage("QUEUED");
+        job.setUpdatedTimestamp(Instant.now());
+        job = receiptJobRepository.save(job);
+        log.info("Created receipt job {} for {} image(s).", job.getId(), files.size());
+        dispatch(job.getId());
+        return job;
+    }
+
+    public Optional<ReceiptJob> findJob(Long jobId) {
+        return receiptJobRepository.findById(jobId);
+    }
+
+    public Optional<ReceiptJob> retryJob(Long jobId) {
+        Optional<ReceiptJob> jobOpt = receiptJobRepository.findById(jobId);
+        if (jobOpt.isEmpty()) {
+            return jobOpt;
+        }
+        ReceiptJob job = jobOpt.get();
+        if (job.getStatus() == ReceiptJobStatus.FAILED && Files.isDirectory(jobFiles(jobId))) {
+            job.setStatus(ReceiptJobStatus.QUEUED);
+            job.setStage("QUEUED");
+            job.setAttempts(0);
+            job.setDeferrals(0);
+            job.setNextAttemptTimestamp(null);
+            job.setLastError(null);
+            job.setUpdatedTimestamp(Instant.now());
+            job = receiptJobRepository.save(job);
+            dispatch(jobId);
+        }
+        return Optional.of(job);
+    }
+
+    /**
+     * Processes the images held as likely duplicates. Images already saved
+     * are still answered with their order.
+     */
+    public Optional<ReceiptJob> confirmNearDuplicates(Long jobId) {
+        Optional<ReceiptJob> jobOpt = receiptJobRepository.findById(jobId);
+        if (jobOpt.isEmpty()) {
+            return jobOpt;
+        }
+        ReceiptJob job = jobOpt.get();
+        if (job.getStatus() == ReceiptJobStatus.NEEDS_CONFIRMATION) {
+            job.setStatus(ReceiptJobStatus.QUEUED);
+            job.setStage("QUEUED");
+            job.setConfirmNearDuplicates(true);
+            job.setAttempts(0);
+            job.setDeferrals(0);
+            job.setNextAttemptTimestamp(null);
+            job.setUpdatedTimestamp(Instant.now());
+            job = receiptJobRepository.save(job);
+            dispatch(jobId);
+        }
+        return Optional.of(job);
+    }
+
+    /**
+     * Drops the images held as likely duplicates and completes the job.
+     */
+    public Optional<ReceiptJob> dismissNearDuplicates(Long jobId) {
+        Optional<ReceiptJob> jobOpt = receiptJobRepository.findById(jobId);
+        if (jobOpt.isEmpty()) {
+            return jobOpt;
+        }
+        ReceiptJob job = jobOpt.get();
+        if (job.getStatus() == ReceiptJobStatus.NEEDS_CONFIRMATION) {
+            job.setStatus(ReceiptJobStatus.COMPLETED);
+            job.setStage("DONE");
+            job.setUpdatedTimestamp(Instant.now());
+            job = receiptJobRepository.save(job);
+            deleteFiles(jobId);
+        }
+        return Optional.of(job);
+    }
+
+    /**
+     * Streams the job's state as "status" events until it completes or
+     * fails. A finished job sends its final state and closes the stream.
+     */
+    public Optional<SseEmitter> subscribe(Long jobId) {
+        if (!receiptJobRepository.existsById(jobId)) {
+            return Optional.empty();
+        }
+        SseEmitter emitter = new SseEmitter(sseTimeoutMillis);
+        List<SseEmitter> emitters = subscribers.computeIfAbsent(jobId, id -> new CopyOnWriteArrayList<>());
+        emitters.add(emitter);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> emitters.remove(emitter));
+
+        // Read after registering, so a job finishing in between is not missed
+        ReceiptJob job = receiptJobRepository.findById(jobId).orElseThrow();
+        send(emitter, job);
+        if (job.isFinished()) {
+            emitter.complete();
+        }
+        return Optional.of(emitter);
+    }
+
+    @Scheduled(fixedDelayString = "${app.receipt.jobs.dispatch-interval-ms:5000}",
+            initialDelayString = "${app.receipt.jobs.dispatch-interval-ms:5000}")
+    public void dispatchQueued() {
+        List<ReceiptJob> queued = receiptJobRepository.findDue(ReceiptJobStatus.QUEUED, Instant.now(),
+                PageRequest.of(0, Math.max(1, queueCapacity)));
+        for (ReceiptJob job : queued) {
+            if (!dispatch(job.getId())) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns false if the worker queue is full. The job then stays QUEUED
+     * and is dispatched by a later sweep.
+     */
+    private boolean dispatch(Long jobId) {
+        if (!activeJobs.add(jobId)) {
+            return true;
+        }
+        try {
+            jobExecutor.execute(() -> {
+                try {
+                    runJob(jobId);
+                } catch (Exception e) {
+                    log.error("Receipt job {} stopped unexpectedly: {}", jobId, e.getMessage(), e);
+                } finally {
+                    activeJobs.remove(jobId);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            activeJobs.remove(jobId);
+            log.debug("Receipt job queue is full, job {} stays queued.", jobId);
+            return false;
+        }
+    }
+
+    private void runJob(Long jobId) {
+        ReceiptJob job = receiptJobRepository.findById(jobId).orElse(null);
+        if (job == null || job.getStatus() != ReceiptJobStatus.QUEUED) {
+            return;
+        }
+        if (job.getDeferrals() > 0 && !circuitBreaker.isCallPermitted()) {
+            // Still down; running now would only pay for OCR of the same images again
+            requeue(job, job.getLastError(), true);
+            return;
+        }
+
+        Instant now = Instant.now();
+        job.setStatus(ReceiptJobStatus.RUNNING);
+        job.setStage("PREPARING_IMAGES");
+        job.setAttempts(job.getAttempts() + 1);
+        // A rerun starts over; receipts it already saved are skipped by order number
+        job.setReceiptsFound(0);
+        job.setReceiptsProcessed(0);
+        job.setReceiptsFailed(0);
+        job.setItemsExtracted(0);
+        job.setDuplicatesSkipped(0);
+        job.setAwaitingConfirmation(0);
+        job.setOrderIds(null);
+        if (job.getStartedTimestamp() == null) {
+            job.setStartedTimestamp(now);
+        }
+        job.setUpdatedTimestamp(now);
+        JobProgress progress = new JobProgress(save(job));
+
+        long started = System.nanoTime();
+        List<String> fileNames = new ArrayList<>();
+        List<ByteString> images = new ArrayList<>();
+        try (Stream<Path> files = Files.list(jobFiles(jobId))) {
+            for (Path file : files.sorted(Comparator.comparing(Path::getFileName)).toList()) {
+                String name = file.getFileName().toString();
+                name = name.substring(name.indexOf('-') + 1);
+                String sha256 = ImageFingerprintIndex.sha256(file);
+
+                Long savedOrderId = savedOrder(fingerprintIndex.findExact(sha256));
+                if (savedOrderId != null) {
+                    log.info("Receipt job {}: {} was already saved as order {}.", jobId, name, savedOrderId);
+                    progress.receiptProcessed(new ReceiptUploadResult(List.of(name), null, savedOrderId, null,
+                            "exact"), List.of());
+                    continue;
+                }
+
+                ReceiptImagePreprocessor.PreparedImage prepared = imagePreprocessor.prepare(file);
+                if (prepared.perceptualHash() != null && !progress.job.isConfirmNearDuplicates()) {
+                    ImageFingerprintIndex.Match match = fingerprintIndex.findNear(prepared.perceptualHash(),
+                            prepared.paperAspect());
+                    if (match != null && savedOrder(match.orderId()) != null) {
+                        log.info("Receipt job {}: {} looks like order {} ({} bits apart), holding it.", jobId, name,
+                                match.orderId(), match.distance());
+                        progress.receiptProcessed(new ReceiptUploadResult(List.of(name), null, match.orderId(),
+                                "Looks like a new photo of order " + match.orderId()
+                                        + ", confirm to process it anyway", "near"), List.of());
+                        continue;
+                    }
+                }
+
+                fileNames.add(name);
+                images.add(prepared.content());
+                progress.fingerprints.add(new Fingerprint(sha256, prepared.perceptualHash(), prepared.paperAspect()));
+            }
+        } catch (IOException e) {
+            fail(progress.job, "Could not read the uploaded images: " + e.getMessage());
+            return;
+        }
+
+        progress.stage("READING_TEXT");
+        List<ReceiptUploadResult> results = new ArrayList<>(progress.duplicates);
+        try {
+            if (images.isEmpty()) {
+                progress.textDetected(0);
+            } else {
+                results.addAll(receiptOcrService.processReceipts(fileNames, images, progress));
+            }
+        } catch (Exception e) {
+            jobDuration.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            ReceiptJob current = progress.job;
+            if (e instanceof ModelUnavailableException) {
+                // Not a problem with the upload, so the attempt is given back
+                current.setAttempts(current.getAttempts() - 1);
+                requeue(current, e.getMessage(), true);
+                log.warn("Receipt job {} waits for the AI model until {}: {}", jobId,
+                        current.getNextAttemptTimestamp(), e.getMessage());
+            } else if (current.getAttempts() < maxAttempts) {
+                requeue(current, e.getMessage(), false);
+                log.warn("Receipt job {} attempt {} of {} failed, requeued for {}: {}", jobId, current.getAttempts(),
+                        maxAttempts, current.getNextAttemptTimestamp(), e.getMessage());
+            } else {
+                fail(current, e.getMessage());
+            }
+            return;
+        }
+        jobDuration.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+
+        ReceiptJob finished = progress.job;
+        String errors = results.stream()
+                .filter(result -> result.error() != null)
+                .map(result -> String.join(", ", result.files()) + ": " + result.error())
+                .collect(Collectors.joining("; "));
+        boolean held = finished.getAwaitingConfirmation() > 0;
+        finished.setStatus(held ? ReceiptJobStatus.NEEDS_CONFIRMATION : ReceiptJobStatus.COMPLETED);
+        finished.setStage(held ? "WAITING_FOR_CONFIRMATION" : "DONE");
+        finished.setLastError(errors.isEmpty() ? null : truncate(errors));
+        finished.setUpdatedTimestamp(Instant.now());
+        save(finished);
+        if (!held) {
+            // Held jobs keep their images until the user confirms or dismisses them
+            deleteFiles(jobId);
+        }
+        log.info("Receipt job {} {}: {} receipt(s) from {} image(s), {} failed, {} already saved, {} held.", jobId,
+                held ? "needs confirmation" : "completed", finished.getReceiptsFound(), finished.getFileCount(),
+                finished.getReceiptsFailed(), finished.getDuplicatesSkipped(), finished.getAwaitingConfirmation());
+    }
+
+    private void requeue(ReceiptJob job, String error, boolean modelUnavailable) {
+        if (modelUnavailable) {
+            job.setDeferrals(job.getDeferrals() + 1);
+        }
+        int retries = Math.max(0, job.getAttempts() + job.getDeferrals() - 1);
+        long backoffSeconds = Math.min(maxBackoffSeconds, initialBackoffSeconds << Math.min(retries, 20));
+        Instant now = Instant.now();
+        job.setStatus(ReceiptJobStatus.QUEUED);
+        job.setStage("QUEUED");
+        job.setLastError(truncate(error));
+        job.setNextAttemptTimestamp(now.plusSeconds(backoffSeconds));
+        job.setUpdatedTimestamp(now);
+        save(job);
+    }
+
+    private void fail(ReceiptJob job, String error) {
+        // Images are kept, so the job can be retried
+        log.error("Receipt job {} failed after {} attempt(s): {}", job.getId(), job.getAttempts(), error);
+        job.setStatus(ReceiptJobStatus.FAILED);
+        job.setLastError(truncate(error));
+        job.setUpdatedTimestamp(Instant.now());
+        save(job);
+    }
+
+    private ReceiptJob save(ReceiptJob job) {
+        ReceiptJob saved = receiptJobRepository.save(job);
+        publish(saved);
+        return saved;
+    }
+
+    private void publish(ReceiptJob job) {
+        List<SseEmitter> emitters = job.isFinished() ? subscribers.remove(job.getId()) : subscribers.get(job.getId());
+        if (emitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : emitters) {
+            send(emitter, job);
+            if (job.isFinished()) {
+                emitter.complete();
+            }
+        }
+    }
+
+    private static void send(SseEmitter emitter, ReceiptJob job) {
+        try {
+            emitter.send(SseEmitter.event().name("status").data(job));
+        } catch (IOException | IllegalStateException e) {
+            // The client went away; the emitter removes itself on error or completion
+            emitter.completeWithError(e);
+        }
+    }
+
+    private record Fingerprint(String sha256, Long perceptualHash, Float paperAspect) {
+    }
+
+    /**
+     * Returns the order id if the order still exists. Fingerprints of
+     * orders that are gone are forgotten.
+     */
+    private Long savedOrder(Long orderId) {
+        if (orderId == null) {
+            return null;
+        }
+        if (orderRepository.existsById(orderId)) {
+            return orderId;
+        }
+        fingerprintIndex.removeOrder(orderId);
+        return null;
+    }
+
+    // Saves the job after every stage change and finished receipt, and publishes each extracted item
+    private class JobProgress implements ReceiptOcrService.ReceiptProgress {
+
+        private ReceiptJob job;
+        private final List<Long> orderIds = new ArrayList<>();
+        // Results answered from the fingerprint index, and fingerprints of the images sent to OCR
+        private final List<ReceiptUploadResult> duplicates = new ArrayList<>();
+        private final List<Fingerprint> fingerprints = new ArrayList<>();
+
+        JobProgress(ReceiptJob job) {
+            this.job = job;
+        }
+
+        void stage(String stage) {
+            job.setStage(stage);
+            job.setUpdatedTimestamp(Instant.now());
+            job = save(job);
+        }
+
+        @Override
+        public void textDetected(int receipts) {
+            job.setReceiptsFound(receipts + duplicates.size());
+            job.setStage("EXTRACTING_ITEMS");
+            job.setUpdatedTimestamp(Instant.now());
+            job = save(job);
+        }
+
+        @Override
+        public void itemExtracted(ShoppedItem item) {
+            // Only pushed to subscribers; the count is saved with the finished receipt
+            job.setItemsExtracted(job.getItemsExtracted() + 1);
+            job.setUpdatedTimestamp(Instant.now());
+            publish(job);
+        }
+
+        @Override
+        public void receiptProcessed(ReceiptUploadResult result, List<Integer> images) {
+            job.setReceiptsProcessed(job.getReceiptsProcessed() + 1);
+            if ("near".equals(result.duplicate())) {
+                duplicates.add(result);
+                job.setAwaitingConfirmation(job.getAwaitingConfirmation() + 1);
+            } else if ("exact".equals(result.duplicate())) {
+                duplicates.add(result);
+                job.setDuplicatesSkipped(job.getDuplicatesSkipped() + 1);
+                addOrderId(result.orderId());
+            } else if (result.error() != null) {
+                job.setReceiptsFailed(job.getReceiptsFailed() + 1);
+            } else {
+                addOrderId(result.orderId());
+                for (int image : images) {
+                    Fingerprint fingerprint = fingerprints.get(image);
+                    fingerprintIndex.record(fingerprint.sha256(), fingerprint.perceptualHash(),
+                            fingerprint.paperAspect(), result.orderId());
+                }
+            }
+            job.setUpdatedTimestamp(Instant.now());
+            job = save(job);
+        }
+
+        private void addOrderId(Long orderId) {
+            orderIds.add(orderId);
+            job.setOrderIds(truncate(orderIds.stream().map(String::valueOf).collect(Collectors.joining(","))));
+        }
+    }
+
+    private Path jobFiles(Long jobId) {
+        return jobDirectory.resolve(jobId.toString());
+    }
+
+    private void deleteFiles(Long jobId) {
+        Path dir = jobFiles(jobId);
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Could not delete the images of receipt job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    private static String safeFileName(String originalName) {
+        if (originalName == null || originalName.isBlank()) {
+            return "receipt";
+        }
+        String name = originalName.substring(Math.max(originalName.lastIndexOf('/'), originalName.lastIndexOf('\\')) + 1)
+                .replaceAll("[^A-Za-z0-9._-]", "_");
+        return name.length() > 100 ? name.substring(name.length() - 100) : name;
+    }
+
+    private static String truncate(String error) {
+        if (error == null || error.length() <= 1000) {
+            return error;
+        }
+        return error.substring(0, 1000);
+    }
+}
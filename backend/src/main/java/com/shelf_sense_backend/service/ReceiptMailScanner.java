@@ -0,0 +1,134 @@
+package com.shelf_sense_backend.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.shelf_sense_backend.dto.EmailEnvelope;
+
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Flags;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.UIDFolder;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.search.AndTerm;
+import jakarta.mail.search.ComparisonTerm;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SentDateTerm;
+import jakarta.mail.search.SubjectTerm;
+
+@Component
+public class ReceiptMailScanner {
+
+    private static final Logger log = LoggerFactory.getLogger(ReceiptMailScanner.class);
+
+    private static final String MESSAGE_ID_HEADER = "Message-ID";
+
+    private final String subjectFilter;
+
+    public ReceiptMailScanner(@Value("${app.email.polling.subject-filter}") String subjectFilter) {
+        this.subjectFilter = subjectFilter;
+    }
+
+    /**
+     * Returns the messages matching the subject filter with a UID above
+     * {@code lastUid}. A {@code lastUid} of zero searches the whole folder.
+     */
+    public Message[] findNewMessages(Folder folder, long lastUid) throws MessagingException {
+        SubjectTerm subjectTerm = new SubjectTerm(subjectFilter);
+
+        if (lastUid <= 0) {
+            log.info("No UID checkpoint for folder '{}'. Running full subject search.", folder.getFullName());
+            return folder.search(subjectTerm);
+        }
+
+        UIDFolder uidFolder = (UIDFolder) folder;
+        Message[] candidates = uidFolder.getMessagesByUID(lastUid + 1, UIDFolder.LASTUID);
+
+        // "n:*" always matches the newest message, even when its UID is below n
+        List<Message> newMessages = new ArrayList<>();
+        for (Message message : candidates) {
+            if (message != null && uidFolder.getUID(message) > lastUid) {
+                newMessages.add(message);
+            }
+        }
+
+        if (newMessages.isEmpty()) {
+            return new Message[0];
+        }
+        return folder.search(subjectTerm, newMessages.toArray(new Message[0]));
+    }
+
+    /**
+     * Returns the messages matching the subject filter that were sent in
+     * {@code [from, to)}. IMAP compares sent dates by day, so both bounds
+     * should fall on midnight.
+     */
+    public Message[] findMessagesSentBetween(Folder folder, Date from, Date to) throws MessagingException {
+        return folder.search(new AndTerm(new SearchTerm[] {
+                new SentDateTerm(ComparisonTerm.GE, from),
+                new SentDateTerm(ComparisonTerm.LT, to),
+                new SubjectTerm(subjectFilter) }));
+    }
+
+    /**
+     * UID of the newest message in the folder, or zero if it is empty. Read
+     * before scanning so mail arriving mid-poll stays above the watermark.
+     */
+    public long highestUid(Folder folder) throws MessagingException {
+        int messageCount = folder.getMessageCount();
+        if (messageCount == 0) {
+            return 0;
+        }
+        return ((UIDFolder) folder).getUID(folder.getMessage(messageCount));
+    }
+
+    /**
+     * Loads envelope, flags, UID and Message-ID of all messages with one FETCH
+     * command. Bodies are left on the server.
+     */
+    public List<EmailEnvelope> prefetchEnvelopes(Folder folder, Message[] messages) throws MessagingException {
+        List<EmailEnvelope> envelopes = new ArrayList<>(messages.length);
+        if (messages.length == 0) {
+            return envelopes;
+        }
+
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.ENVELOPE);
+        profile.add(FetchProfile.Item.FLAGS);
+        profile.add(UIDFolder.FetchProfileItem.UID);
+        profile.add(MESSAGE_ID_HEADER);
+        folder.fetch(messages, profile);
+
+        UIDFolder uidFolder = (UIDFolder) folder;
+        for (Message message : messages) {
+            envelopes.add(new EmailEnvelope(
+                    message,
+                    uidFolder.getUID(message),
+                    getMessageId(message),
+                    message.getSubject(),
+                    message.getSentDate(),
+                    message.isSet(Flags.Flag.SEEN)));
+        }
+        return envelopes;
+    }
+
+    private String getMessageId(Message message) throws MessagingException {
+        if (message instanceof MimeMessage) {
+            return ((MimeMessage) message).getMessageID();
+        }
+
+        String[] headers = message.getHeader(MESSAGE_ID_HEADER);
+        if (headers != null && headers.length > 0) {
+            return headers[0];
+        }
+        return null;
+    }
+}
@@ -1,59 +1,170 @@
 package com.shelf_sense_backend.service;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
-
-import com.google.api.gax.core.FixedCredentialsProvider;
-import com.google.auth.oauth2.GoogleCredentials;
-import com.google.cloud.vision.v1.AnnotateImageRequest;
-import com.google.cloud.vision.v1.AnnotateImageResponse;
-import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
-import com.google.cloud.vision.v1.Feature;
-import com.google.cloud.vision.v1.Image;
-import com.google.cloud.vision.v1.ImageAnnotatorClient;
-import com.google.cloud.vision.v1.ImageAnnotatorSettings;
+
 import com.google.protobuf.ByteString;
+import com.shelf_sense_backend.dto.ReceiptUploadResult;
 import com.shelf_sense_backend.model.Order;
 import com.shelf_sense_backend.model.ShoppedItem;
 import com.shelf_sense_backend.repo.OrderRepository;
-import com.shelf_sense_backend.repo.ShoppedItemRepository;
 
 @Service
 public class ReceiptOcrService {
 
     private static final Logger logger = LoggerFactory.getLogger(ReceiptOcrService.class);
 
+    // How many lines two photos of the same receipt may share at the seam
+    private static final int MAX_OVERLAP_LINES = 8;
+    // "Total 79,70", "Å betale kr 79,70"
+    private static final Pattern TOTAL_LINE = Pattern.compile(
+            "^(?:total|totalt|sum|å betale|totalbeløp)\\b.*\\d[.,]\\d{2}(?:\\s*kr)?$", Pattern.CASE_INSENSITIVE);
+    // First lines of a receipt, above the items
+    private static final Pattern HEADER_LINE = Pattern.compile(
+            "^(?:oda|kvittering|receipt|faktura|ordre|bestilling)\\b.*", Pattern.CASE_INSENSITIVE);
+    private static final int HEADER_LINES = 3;
+
     @Autowired
     private OrderRepository orderRepository;
 
     @Autowired
-    private ShoppedItemRepository shoppedItemRepository;
+    private ReceiptOrderWriter receiptOrderWriter;
 
     @Autowired
     private GroceryReceiptAnalyzer groceryReceiptAnalyzer;
 
-    @Value("${google.cloud.credentials-location}")
-    private String credentialsPath;
+    @Autowired
+    private OdaReceiptParser odaReceiptParser;
+
+    @Autowired
+    private VisionOcrClient visionOcrClient;
+
+    /**
+     * Receives the progress of {@link #processReceipts}. Called on the
+     * processing thread.
+     */
+    public interface ReceiptProgress {
+
+        default void textDetected(int receipts) {
+        }
+
+        /**
+         * Images are positions in the list given to processReceipts.
+         */
+        default void receiptProcessed(ReceiptUploadResult result, List<Integer> images) {
+        }
+
+        /**
+         * Called for each item of the receipt being processed as soon as it
+         * is extracted, before the receipt is saved.
+         */
+        default void itemExtracted(ShoppedItem item) {
+        }
+    }
+
+    /**
+     * Processes the receipt images of one upload. All images are read with
+     * batched Vision requests. A photo without an order number is taken as
+     * the next piece of the receipt before it, unless that receipt has
+     * reached its total and the photo opens with a receipt header; photos
+     * showing the same order number belong together and a different number
+     * starts another receipt, so a long receipt photographed in pieces is
+     * stitched into one Order. Lines repeated where two photos overlap are
+     * kept once. Every receipt is saved on its own; a failed
+     * one is reported without affecting the others. If the AI model was
+     * unavailable for any receipt, a ModelUnavailableException is thrown
+     * after all of them were tried, so the caller runs the upload again
+     * later; the receipts saved by this call are skipped then.
+     */
+    public List<ReceiptUploadResult> processReceipts(List<String> fileNames, List<ByteString> images,
+            ReceiptProgress progress) throws IOException {
+        long started = System.nanoTime();
+        List<VisionOcrClient.DetectedText> texts = visionOcrClient.detectText(images);
+        logger.info("Extracted text from {} images in {} ms", images.size(),
+                (System.nanoTime() - started) / 1_000_000);
+
+        List<ReceiptUploadResult> results = new ArrayList<>();
+        List<Integer> unreadable = new ArrayList<>();
+        List<ReceiptPages> receipts = new ArrayList<>();
+        Map<String, ReceiptPages> receiptsByNumber = new HashMap<>();
+        ReceiptPages current = null;
+        for (int i = 0; i < images.size(); i++) {
+            String fileName = fileNames.get(i);
+            VisionOcrClient.DetectedText text = texts.get(i);
+            if (text.failed() || text.text().isBlank()) {
+                results.add(new ReceiptUploadResult(List.of(fileName), null, null,
+                        text.failed() ? text.error() : "No text detected", null));
+                unreadable.add(i);
+                continue;
+            }
+
+            String orderNumber = getOrderNumber(text.text());
+            if (orderNumber == null) {
+                if (current == null || current.isFollowedBy(text.text())) {
+                    current = new ReceiptPages(null);
+                    receipts.add(current);
+                }
+            } else if (current != null && current.orderNumber == null
+                    && !receiptsByNumber.containsKey(orderNumber)) {
+                // The number only shows on a later piece of this receipt
+                current.orderNumber = orderNumber;
+                receiptsByNumber.put(orderNumber, current);
+            } else {
+                current = receiptsByNumber.get(orderNumber);
+                if (current == null) {
+                    current = new ReceiptPages(orderNumber);
+                    receipts.add(current);
+                    receiptsByNumber.put(orderNumber, current);
+                }
+            }
+            current.add(i, fileName, text.text());
+        }
+        progress.textDetected(receipts.size() + results.size());
+        for (int r = 0; r < results.size(); r++) {
+            progress.receiptProcessed(results.get(r), List.of(unreadable.get(r)));
+        }
 
-    public Long processReceipt(MultipartFile file) throws IOException {
-        String extractedText = extractTextFromImage(file);
+        int modelUnavailable = 0;
+        for (ReceiptPages receipt : receipts) {
+            ReceiptUploadResult result;
+            try {
+                Long orderId = processReceiptText(receipt.text.toString(), progress);
+                result = new ReceiptUploadResult(receipt.files, receipt.orderNumber, orderId, null, null);
+            } catch (ModelUnavailableException e) {
+                logger.warn("AI model unavailable for receipt from {}: {}", receipt.files, e.getMessage());
+                modelUnavailable++;
+                result = new ReceiptUploadResult(receipt.files, receipt.orderNumber, null,
+                        "The receipt analyzer is temporarily unavailable", null);
+            } catch (Exception e) {
+                logger.error("Failed to process receipt from {}: {}", receipt.files, e.getMessage());
+                result = new ReceiptUploadResult(receipt.files, receipt.orderNumber, null, e.getMessage(), null);
+            }
+            results.add(result);
+            progress.receiptProcessed(result, receipt.images);
+        }
+        if (modelUnavailable > 0) {
+            throw new ModelUnavailableException(modelUnavailable + " of " + receipts.size()
+                    + " receipt(s) could not be analysed, the AI model is unavailable");
+        }
+        return results;
+    }
 
+    private Long processReceiptText(String extractedText, ReceiptProgress progress) throws IOException {
         Order order = createOrderFromReceipt(extractedText);
 
         if (order.getOrderNumber() == null || order.getOrderNumber().isEmpty() || order.getOrderDate() == null) {
@@ -61,13 +172,20 @@ public class ReceiptOcrService {
             throw new IOException("No order number found in the receipt");
         }
 
-        List<ShoppedItem> items = groceryReceiptAnalyzer.parseReceipt(extractedText, order);
+        // A receipt job that is run again after a restart skips what it already saved
+        Optional<Order> existing = orderRepository.findByOrderNumber(order.getOrderNumber());
+        if (existing.isPresent()) {
+            logger.info("Order {} is already saved, skipping the receipt", order.getOrderNumber());
+            return existing.get().getId();
+        }
 
-        Order savedOrder = orderRepository.save(order);
+        // OCR text of a photographed receipt may not contain the email section markers
+        String itemsBlock = odaReceiptParser.extractItemsBlock(extractedText);
+        List<ShoppedItem> items = groceryReceiptAnalyzer.parseReceipt(
+                itemsBlock.isEmpty() ? extractedText : itemsBlock, order, progress::itemExtracted);
 
-        for (ShoppedItem item : items) {
-            shoppedItemRepository.save(item);
-        }
+        // One transaction, so a rerun never skips an order that lost its items
+        Order savedOrder = receiptOrderWriter.saveReceiptOrder(order, items);
 
         logger.info("Processed receipt with order number: {}, found {} items",
                 order.getOrderNumber(), items.size());
@@ -75,42 +193,54 @@ public class ReceiptOcrService {
         return savedOrder.getId();
     }
 
-    private String extractTextFromImage(MultipartFile file) throws IOException {
-        GoogleCredentials credentials = GoogleCredentials.fromStream(
-                new FileInputStream(credentialsPath));
+    // Text of the photos that make up one receipt, in upload order
+    static class ReceiptPages {
 
-        ImageAnnotatorSettings settings = ImageAnnotatorSettings.newBuilder()
-                .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
-                .build();
+        String orderNumber;
+        final List<Integer> images = new ArrayList<>();
+        final List<String> files = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        private List<String> lastLines = List.of();
+        private boolean ended; // A total line was seen
 
-        try (ImageAnnotatorClient client = ImageAnnotatorClient.create(settings)) {
-            logger.info("Connecting to Google Cloud Vision API");
-
-            ByteString imgBytes = ByteString.copyFrom(file.getBytes());
-            Image image = Image.newBuilder().setContent(imgBytes).build();
-
-            Feature feature = Feature.newBuilder()
-                    .setType(Feature.Type.TEXT_DETECTION)
-                    .build();
-
-            AnnotateImageRequest request = AnnotateImageRequest.newBuilder()
-                    .addFeatures(feature)
-                    .setImage(image)
-                    .build();
+        ReceiptPages(String orderNumber) {
+            this.orderNumber = orderNumber;
+        }
 
-            BatchAnnotateImagesResponse response = client.batchAnnotateImages(List.of(request));
+        /**
+         * True if a photo without an order number clearly starts another
+         * receipt: this one has reached its total and the photo opens with
+         * a receipt header.
+         */
+        boolean isFollowedBy(String pageText) {
+            return ended && pageText.lines()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .limit(HEADER_LINES)
+                    .anyMatch(line -> HEADER_LINE.matcher(line).matches());
+        }
 
-            AnnotateImageResponse res = response.getResponses(0);
-            if (res.hasError()) {
-                logger.error("Error in text detection: {}", res.getError().getMessage());
-                throw new IOException("Error in text detection: " + res.getError().getMessage());
+        void add(int image, String fileName, String pageText) {
+            images.add(image);
+            files.add(fileName);
+            List<String> lines = pageText.lines().toList();
+            // Overlapping photos repeat the lines at the seam
+            int overlap = overlap(lastLines, lines);
+            for (String line : lines.subList(overlap, lines.size())) {
+                text.append(line).append('\n');
+                ended |= TOTAL_LINE.matcher(line.trim()).matches();
             }
-            if (res.getTextAnnotationsCount() > 0) {
-                return res.getTextAnnotations(0).getDescription();
-            } else {
-                logger.warn("No text detected in the image");
-                return "";
+            lastLines = lines;
+        }
+
+        static int overlap(List<String> previous, List<String> next) {
+            int max = Math.min(MAX_OVERLAP_LINES, Math.min(previous.size(), next.size()));
+            for (int n = max; n > 0; n--) {
+                if (previous.subList(previous.size() - n, previous.size()).equals(next.subList(0, n))) {
+                    return n;
+                }
             }
+            return 0;
         }
     }
 
@@ -0,0 +1,111 @@
+package com.shelf_sense_backend.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.shelf_sense_backend.model.Order;
+import com.shelf_sense_backend.model.ProcessedEmail;
+import com.shelf_sense_backend.model.ShoppedItem;
+import com.shelf_sense_backend.repo.OrderRepository;
+import com.shelf_sense_backend.repo.ProcessedEmailRepository;
+
+/**
+ * Persists the result of one receipt email or photo in its own short
+ * transaction, so no connection is held while the receipt is being
+ * extracted, and an order is never saved without its items.
+ */
+@Service
+public class ReceiptOrderWriter {
+
+    @Autowired
+    private ProcessedEmailRepository processedEmailRepository;
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private ProcessedEmailIndex processedEmailIndex;
+
+    @Transactional
+    public Order saveEmailOrder(String messageId, Date sentDate, Order order, List<ShoppedItem> items) {
+        ProcessedEmail processedEmailRecord = saveProcessedEmailRecord(messageId, sentDate, null);
+        order.setProcessedEmail(processedEmailRecord);
+
+        for (ShoppedItem item : items) {
+            order.addItem(item);
+        }
+
+        Order savedOrder = orderRepository.save(order);
+        processedEmailRecord.setGeneratedOrder(savedOrder);
+        processedEmailRepository.save(processedEmailRecord);
+        return savedOrder;
+    }
+
+    /**
+     * Stores a re-extracted order. An existing order with the same number
+     * keeps its id and gets its items replaced.
+     */
+    @Transactional
+    public Order replaceEmailOrder(String messageId, Date sentDate, Order order, List<ShoppedItem> items) {
+        Optional<Order> existing = orderRepository.findByOrderNumber(order.getOrderNumber());
+        if (existing.isEmpty()) {
+            ProcessedEmail processedEmailRecord = processedEmailRepository.findByMessageId(messageId)
+                    .orElseGet(() -> saveProcessedEmailRecord(messageId, sentDate, null));
+            order.setProcessedEmail(processedEmailRecord);
+            for (ShoppedItem item : items) {
+                order.addItem(item);
+            }
+            Order savedOrder = orderRepository.save(order);
+            processedEmailRecord.setGeneratedOrder(savedOrder);
+            processedEmailRepository.save(processedEmailRecord);
+            return savedOrder;
+        }
+
+        Order target = existing.get();
+        for (ShoppedItem item : new ArrayList<>(target.getItems())) {
+            target.removeItem(item);
+        }
+        for (ShoppedItem item : items) {
+            target.addItem(item);
+        }
+        if (order.getOrderDate() != null) {
+            target.setOrderDate(order.getOrderDate());
+        }
+        return orderRepository.save(target);
+    }
+
+    /**
+     * Stores an order read from receipt photos together with its items.
+     */
+    @Transactional
+    public Order saveReceiptOrder(Order order, List<ShoppedItem> items) {
+        for (ShoppedItem item : items) {
+            order.addItem(item);
+        }
+        return orderRepository.save(order);
+    }
+
+    @Transactional
+    public ProcessedEmail recordProcessedEmail(String messageId, Date sentDate) {
+        return saveProcessedEmailRecord(messageId, sentDate, null);
+    }
+
+    private ProcessedEmail saveProcessedEmailRecord(String messageId, Date sentDateRaw, Order relatedOrder) {
+        ProcessedEmail record = new ProcessedEmail();
+        record.setMessageId(messageId);
+
+        Instant sentTimestamp = (sentDateRaw != null) ? sentDateRaw.toInstant() : Instant.now();
+
+        record.setEmailSentTimestamp(sentTimestamp);
+        record.setProcessedTimestamp(Instant.now());
+        record.setGeneratedOrder(relatedOrder);
+        ProcessedEmail saved = processedEmailRepository.save(record);
+        processedEmailIndex.add(messageId);
+        return saved;
+    }
+}
@@ -0,0 +1,272 @@
+package com.shelf_sense_backend.service;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.threeten.bp.Duration;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.core.FixedCredentialsProvider;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.Feature;
+import com.google.cloud.vision.v1.Image;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.ImageAnnotatorSettings;
+import com.google.protobuf.ByteString;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Single Google Cloud Vision client for the application. Credentials are
+ * read once, and the gRPC channel and its thread pools are shared by all
+ * uploads and closed on shutdown. Calls are bounded by the configured
+ * per-attempt and total deadlines. Once the application is ready, the
+ * client is created and its access token fetched, so the first upload does
+ * not pay for them; no Vision request is sent, so the warm-up is free.
+ * <p>
+ * Several images are packed into each batchAnnotateImages request, up to
+ * the per-call image limit and a total request size, and the requests of
+ * one upload are sent concurrently.
+ */
+@Component
+public class VisionOcrClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(VisionOcrClient.class);
+
+    @Value("${google.cloud.credentials-location}")
+    private String credentialsPath;
+
+    @Value("${app.ocr.rpc-timeout-seconds:20}")
+    private long rpcTimeoutSeconds;
+
+    @Value("${app.ocr.total-timeout-seconds:45}")
+    private long totalTimeoutSeconds;
+
+    @Value("${app.ocr.keep-alive-seconds:60}")
+    private long keepAliveSeconds;
+
+    @Value("${app.ocr.warm-up:true}")
+    private boolean warmUp;
+
+    // Vision accepts at most 16 images per call
+    @Value("${app.ocr.max-images-per-request:16}")
+    private int maxImagesPerRequest;
+
+    // The gRPC request limit is 40 MB
+    @Value("${app.ocr.max-request-bytes:36000000}")
+    private long maxRequestBytes;
+
+    private final Timer visionLatency;
+    private ImageAnnotatorClient client;
+    private GoogleCredentials credentials;
+
+    public VisionOcrClient(MeterRegistry meterRegistry) {
+        this.visionLatency = Timer.builder("ocr.vision.latency")
+                .description("Google Cloud Vision batchAnnotateImages call")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (!warmUp) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            long started = System.nanoTime();
+            try {
+                client();
+                credentials.refreshIfExpired();
+                logger.info("Vision client warmed up in {} ms",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            } catch (Exception e) {
+                logger.warn("Vision client warm-up failed, the first upload will connect: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Text Vision detected in one image. Failed images carry the error
+     * instead, so the other images of the upload are still usable.
+     */
+    public record DetectedText(String text, String error) {
+
+        public boolean failed() {
+            return error != null;
+        }
+    }
+
+    /**
+     * Returns the full text Vision detected in the image, or an empty string
+     * if there is none.
+     */
+    public String detectText(byte[] imageBytes) throws IOException {
+        DetectedText result = detectText(List.of(ByteString.copyFrom(imageBytes))).get(0);
+        if (result.failed()) {
+            throw new IOException("Error in text detection: " + result.error());
+        }
+        return result.text();
+    }
+
+    /**
+     * Detects the text of every image, in the order given. The images are
+     * split into as few batchAnnotateImages requests as the limits allow,
+     * and those requests run concurrently. An IOException means a whole
+     * request failed; errors of single images are returned in their result.
+     */
+    public List<DetectedText> detectText(List<ByteString> images) throws IOException {
+        List<List<ByteString>> batches = partition(images);
+        ImageAnnotatorClient annotator = client();
+
+        List<ApiFuture<BatchAnnotateImagesResponse>> calls = new ArrayList<>(batches.size());
+        for (List<ByteString> batch : batches) {
+            BatchAnnotateImagesRequest.Builder request = BatchAnnotateImagesRequest.newBuilder();
+            for (ByteString content : batch) {
+                request.addRequests(AnnotateImageRequest.newBuilder()
+                        .addFeatures(Feature.newBuilder().setType(Feature.Type.TEXT_DETECTION).build())
+                        .setImage(Image.newBuilder().setContent(content).build())
+                        .build());
+            }
+            long sent = System.nanoTime();
+            ApiFuture<BatchAnnotateImagesResponse> call = annotator.batchAnnotateImagesCallable()
+                    .futureCall(request.build());
+            recordLatency(call, sent);
+            calls.add(call);
+        }
+
+        List<DetectedText> results = new ArrayList<>(images.size());
+        try {
+            for (int b = 0; b < calls.size(); b++) {
+                BatchAnnotateImagesResponse response = await(calls.get(b));
+                int expected = batches.get(b).size();
+                if (response.getResponsesCount() != expected) {
+                    throw new IOException("Vision returned " + response.getResponsesCount()
+                            + " responses for " + expected + " images");
+                }
+                // Responses come back in the order of the image requests
+                for (AnnotateImageResponse res : response.getResponsesList()) {
+                    results.add(toDetectedText(res));
+                }
+            }
+        } catch (IOException e) {
+            calls.forEach(call -> call.cancel(true));
+            throw e;
+        }
+        return results;
+    }
+
+    // Timed when the call itself completes, not when the results are collected
+    private void recordLatency(ApiFuture<BatchAnnotateImagesResponse> call, long sent) {
+        ApiFutures.addCallback(call, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(BatchAnnotateImagesResponse response) {
+                visionLatency.record(System.nanoTime() - sent, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+            }
+        }, Runnable::run);
+    }
+
+    private List<List<ByteString>> partition(List<ByteString> images) {
+        List<List<ByteString>> batches = new ArrayList<>();
+        List<ByteString> current = new ArrayList<>();
+        long currentBytes = 0;
+        for (ByteString content : images) {
+            if (!current.isEmpty() && (current.size() >= maxImagesPerRequest
+                    || currentBytes + content.size() > maxRequestBytes)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(content);
+            currentBytes += content.size();
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    private static BatchAnnotateImagesResponse await(ApiFuture<BatchAnnotateImagesResponse> call)
+            throws IOException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Vision", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IOException("Vision text detection failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static DetectedText toDetectedText(AnnotateImageResponse res) {
+        if (res.hasError()) {
+            logger.error("Error in text detection: {}", res.getError().getMessage());
+            return new DetectedText(null, res.getError().getMessage());
+        }
+        if (res.getTextAnnotationsCount() > 0) {
+            return new DetectedText(res.getTextAnnotations(0).getDescription(), null);
+        }
+        logger.warn("No text detected in the image");
+        return new DetectedText("", null);
+    }
+
+    // Created on first use, so the application starts without Google credentials
+    private synchronized ImageAnnotatorClient client() throws IOException {
+        if (client != null) {
+            return client;
+        }
+
+        try (InputStream in = new FileInputStream(credentialsPath)) {
+            credentials = GoogleCredentials.fromStream(in);
+        }
+
+        ImageAnnotatorSettings.Builder settings = ImageAnnotatorSettings.newBuilder()
+                .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
+                .setTransportChannelProvider(ImageAnnotatorSettings.defaultGrpcTransportProviderBuilder()
+                        .setKeepAliveTime(Duration.ofSeconds(keepAliveSeconds))
+                        .build());
+        RetrySettings retrySettings = settings.batchAnnotateImagesSettings().getRetrySettings().toBuilder()
+                .setInitialRpcTimeout(Duration.ofSeconds(rpcTimeoutSeconds))
+                .setMaxRpcTimeout(Duration.ofSeconds(rpcTimeoutSeconds))
+                .setTotalTimeout(Duration.ofSeconds(totalTimeoutSeconds))
+                .build();
+        settings.batchAnnotateImagesSettings().setRetrySettings(retrySettings);
+
+        client = ImageAnnotatorClient.create(settings.build());
+        logger.info("Created Google Cloud Vision client");
+        return client;
+    }
+
+    @PreDestroy
+    synchronized void close() throws InterruptedException {
+        if (client != null) {
+            client.close();
+            client.awaitTermination(5, TimeUnit.SECONDS);
+            client = null;
+        }
+    }
+}
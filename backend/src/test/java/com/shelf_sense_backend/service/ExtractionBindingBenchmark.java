@@ -0,0 +1,178 @@
+package com.shelf_sense_backend.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.shelf_sense_backend.dto.ExtractedProduct;
+
+/**
+ * Cost of turning one receipt's model answer into item fields. The
+ * tree_and_map mode is the previous binding: the content JSON was parsed
+ * into a tree, each item was converted to a Map, and the weight was checked
+ * with String.matches. The typed mode binds each item straight to an
+ * {@link ExtractedProduct} with a shared ObjectReader. The streamed
+ * benchmarks compare a tree per SSE chunk with the typed chunk binding.
+ * Bytes allocated per receipt are in the gc.alloc.rate.norm column. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.shelf_sense_backend.service.ExtractionBindingBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractionBindingBenchmark {
+
+    private static final Pattern UNIT_ONLY_WEIGHT = Pattern.compile("grams|kg|ml|piece|g", Pattern.CASE_INSENSITIVE);
+
+    @Param({ "tree_and_map", "typed" })
+    public String mode;
+
+    @Param({ "30" })
+    public int items;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ObjectReader itemReader;
+    private ObjectReader chunkReader;
+    private String response;
+    private List<String> streamEvents;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        itemReader = ProductsListStreamParser.itemReader(objectMapper);
+        chunkReader = objectMapper.readerFor(AIModelClient.StreamChunk.class);
+
+        List<Map<String, Object>> products = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            products.add(Map.of(
+                    "product_name", "Tine Lettmelk 1 % " + i,
+                    "quantity", i % 3 == 0 ? "2" : 1,
+                    "weight", i % 5 == 0 ? "g" : "1 l",
+                    "general_name", "Milk",
+                    "food_type", "Dairy"));
+        }
+        String content = "```json\n" + objectMapper.writeValueAsString(Map.of("products_list", products)) + "\n```";
+        response = objectMapper.writeValueAsString(Map.of(
+                "id", "chatcmpl-1",
+                "object", "chat.completion",
+                "choices", List.of(Map.of("index", 0, "finish_reason", "stop",
+                        "message", Map.of("role", "assistant", "content", content)))));
+
+        // About four characters per streamed token
+        streamEvents = new ArrayList<>();
+        for (int i = 0; i < content.length(); i += 4) {
+            String token = content.substring(i, Math.min(content.length(), i + 4));
+            streamEvents.add(objectMapper.writeValueAsString(Map.of(
+                    "id", "chatcmpl-1",
+                    "object", "chat.completion.chunk",
+                    "choices", List.of(Map.of("index", 0, "delta", Map.of("content", token))))));
+        }
+    }
+
+    @Benchmark
+    public int completeResponse() throws IOException {
+        String content = objectMapper.readTree(response).path("choices").path(0).path("message").path("content")
+                .asText();
+        if (mode.equals("tree_and_map")) {
+            String json = content.substring(content.indexOf('{'), content.lastIndexOf('}') + 1);
+            int fields = 0;
+            for (JsonNode itemNode : objectMapper.readTree(json).path("products_list")) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> item = objectMapper.convertValue(itemNode, Map.class);
+                fields += readFields(item);
+            }
+            return fields;
+        }
+        int fields = 0;
+        for (ExtractedProduct item : new ProductsListStreamParser(itemReader).feed(content)) {
+            fields += readFields(item);
+        }
+        return fields;
+    }
+
+    @Benchmark
+    public int streamedResponse() throws IOException {
+        ProductsListStreamParser parser = new ProductsListStreamParser(itemReader);
+        int fields = 0;
+        for (String data : streamEvents) {
+            String content;
+            if (mode.equals("tree_and_map")) {
+                content = objectMapper.readTree(data).path("choices").path(0).path("delta").path("content").asText();
+            } else {
+                AIModelClient.StreamChunk chunk = chunkReader.readValue(data);
+                content = chunk.choices().get(0).delta().content();
+            }
+            for (ExtractedProduct item : parser.feed(content)) {
+                fields += readFields(item);
+            }
+        }
+        return fields;
+    }
+
+    private static int readFields(Map<String, Object> item) {
+        int fields = 0;
+        if (item.get("product_name") instanceof String) {
+            fields++;
+        }
+        Object quantity = item.get("quantity");
+        if (quantity instanceof Number || quantity instanceof String) {
+            fields++;
+        }
+        if (item.get("weight") instanceof String weight && weight.matches("(?i)grams|kg|ml|piece|g")) {
+            fields++;
+        }
+        if (item.get("general_name") instanceof String) {
+            fields++;
+        }
+        if (item.get("food_type") instanceof String) {
+            fields++;
+        }
+        return fields;
+    }
+
+    private static int readFields(ExtractedProduct item) {
+        int fields = item.productName() != null ? 1 : 0;
+        fields += item.wholeQuantity() > 0 ? 1 : 0;
+        if (item.weight() != null && UNIT_ONLY_WEIGHT.matcher(item.weight()).matches()) {
+            fields++;
+        }
+        fields += item.generalName() != null ? 1 : 0;
+        fields += item.foodType() != null ? 1 : 0;
+        return fields;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ExtractionBindingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
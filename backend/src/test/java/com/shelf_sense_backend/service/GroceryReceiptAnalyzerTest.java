@@ -0,0 +1,176 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.shelf_sense_backend.dto.ExtractedProduct;
+import com.shelf_sense_backend.model.Order;
+import com.shelf_sense_backend.model.ShoppedItem;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+class GroceryReceiptAnalyzerTest {
+
+    private final GroceryReceiptAnalyzer analyzer = new GroceryReceiptAnalyzer();
+
+    @BeforeEach
+    void wireAnalyzer() {
+        ReflectionTestUtils.setField(analyzer, "odaReceiptParser", new OdaReceiptParser());
+        ReflectionTestUtils.setField(analyzer, "maxChunkLines", 40);
+        ReflectionTestUtils.setField(analyzer, "maxChunkTokens", 1500);
+        ReflectionTestUtils.setField(analyzer, "maxParallelChunks", 4);
+        ReflectionTestUtils.setField(analyzer, "minParserConfidence", 0.9);
+    }
+
+    @Test
+    void smallReceiptIsOneChunk() {
+        String block = "Tine Lettmelk 1 l 2 stk 49,80\nBananer 1,2 kg 29,90";
+
+        assertEquals(List.of("Tine Lettmelk 1 l 2 stk 49,80\nBananer 1,2 kg 29,90\n"),
+                analyzer.splitIntoChunks(block));
+    }
+
+    @Test
+    void chunksHoldAtMostMaxChunkLines() {
+        ReflectionTestUtils.setField(analyzer, "maxChunkLines", 2);
+
+        List<String> chunks = analyzer.splitIntoChunks("""
+                A 1 stk 10,00
+                B 1 stk 10,00
+
+                C 1 stk 10,00
+                D 1 stk 10,00
+                E 1 stk 10,00
+                """);
+
+        assertEquals(List.of("A 1 stk 10,00\nB 1 stk 10,00\n", "C 1 stk 10,00\nD 1 stk 10,00\n",
+                "E 1 stk 10,00\n"), chunks);
+    }
+
+    @Test
+    void nameIsNeverSeparatedFromItsQuantityLine() {
+        ReflectionTestUtils.setField(analyzer, "maxChunkLines", 3);
+
+        List<String> chunks = analyzer.splitIntoChunks("""
+                Bringebær 125 g
+                2 stk 59,80
+                Bananer
+                1 stk 29,90
+                Kaffe 500 g
+                1 stk 89,90
+                """);
+
+        assertEquals(List.of("Bringebær 125 g\n2 stk 59,80\n", "Bananer\n1 stk 29,90\n",
+                "Kaffe 500 g\n1 stk 89,90\n"), chunks);
+    }
+
+    @Test
+    void chunkIsClosedOnceItReachesTheTokenBudget() {
+        ReflectionTestUtils.setField(analyzer, "maxChunkTokens", 7);
+
+        // Each line is 14 characters with its line break, about 4 tokens
+        List<String> chunks = analyzer.splitIntoChunks("A 1 stk 10,00\nB 1 stk 10,00\nC 1 stk 10,00");
+
+        assertEquals(List.of("A 1 stk 10,00\nB 1 stk 10,00\n", "C 1 stk 10,00\n"), chunks);
+    }
+
+    @Test
+    void unavailableModelDuringClassificationIsPassedOn() {
+        AIModelClient aiModelClient = mock(AIModelClient.class);
+        when(aiModelClient.classifyProducts(anyList())).thenThrow(new ModelUnavailableException("circuit open"));
+        ReflectionTestUtils.setField(analyzer, "aiModelClient", aiModelClient);
+        ReflectionTestUtils.setField(analyzer, "productClassificationIndex", mock(ProductClassificationIndex.class));
+
+        assertThrows(ModelUnavailableException.class,
+                () -> analyzer.parseReceipt("Tine Lettmelk 1 l 2 stk 49,80", new Order()));
+    }
+
+    @Test
+    void chunksOfOneReceiptAreSeparateParallelRequestsWithBatchingEnabled() {
+        ReflectionTestUtils.setField(analyzer, "maxChunkLines", 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        AIModelClient aiModelClient = mock(AIModelClient.class);
+        when(aiModelClient.streamReceiptText(anyString())).thenAnswer(invocation -> {
+            String chunk = invocation.getArgument(0);
+            return Flux.defer(() -> {
+                mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                return Flux.just(new ExtractedProduct(chunk.lines().findFirst().get(), "1", null, null, null))
+                        .delayElements(Duration.ofMillis(200));
+            }).doFinally(signal -> running.decrementAndGet());
+        });
+        ReceiptExtractionBatcher batcher = mock(ReceiptExtractionBatcher.class);
+        when(batcher.isEnabled()).thenReturn(true);
+        ReflectionTestUtils.setField(analyzer, "aiModelClient", aiModelClient);
+        ReflectionTestUtils.setField(analyzer, "receiptExtractionBatcher", batcher);
+        ReflectionTestUtils.setField(analyzer, "productClassificationIndex", mock(ProductClassificationIndex.class));
+        ReflectionTestUtils.setField(analyzer, "meterRegistry", new SimpleMeterRegistry());
+
+        List<ShoppedItem> items = analyzer.parseReceipt("""
+                Ukjent vare A
+                Ukjent vare B
+                Ukjent vare C
+                Ukjent vare D
+                Ukjent vare E
+                Ukjent vare F
+                """, new Order());
+
+        assertEquals(List.of("Ukjent vare A", "Ukjent vare C", "Ukjent vare E"),
+                items.stream().map(ShoppedItem::getRawName).toList());
+        verify(aiModelClient).streamReceiptText("Ukjent vare A\nUkjent vare B\n");
+        verify(aiModelClient).streamReceiptText("Ukjent vare C\nUkjent vare D\n");
+        verify(aiModelClient).streamReceiptText("Ukjent vare E\nUkjent vare F\n");
+        verify(batcher, never()).submit(anyString());
+        assertTrue(mostRunning.get() > 1, mostRunning.get() + " chunk request(s) at a time");
+    }
+
+    @Test
+    void streamedItemIsPassedOnBeforeTheModelHasFinished() {
+        CountDownLatch firstItemPassedOn = new CountDownLatch(1);
+        AtomicBoolean passedOnWhileGenerating = new AtomicBoolean();
+        AIModelClient aiModelClient = mock(AIModelClient.class);
+        // The second item is only generated once the first one has reached the caller
+        when(aiModelClient.streamReceiptText(anyString())).thenReturn(Flux.concat(
+                Flux.just(new ExtractedProduct("Ukjent vare A", "1", null, null, null)),
+                Mono.fromCallable(() -> firstItemPassedOn.await(5, TimeUnit.SECONDS))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .doOnNext(passedOnWhileGenerating::set)
+                        .thenMany(Flux.just(new ExtractedProduct("Ukjent vare B", "1", null, null, null)))));
+        ReflectionTestUtils.setField(analyzer, "aiModelClient", aiModelClient);
+        ReflectionTestUtils.setField(analyzer, "receiptExtractionBatcher", mock(ReceiptExtractionBatcher.class));
+        ReflectionTestUtils.setField(analyzer, "productClassificationIndex", mock(ProductClassificationIndex.class));
+        ReflectionTestUtils.setField(analyzer, "meterRegistry", new SimpleMeterRegistry());
+        List<String> passedOn = new ArrayList<>();
+
+        List<ShoppedItem> items = analyzer.parseReceipt("Ukjent vare A\nUkjent vare B", new Order(), item -> {
+            passedOn.add(item.getRawName());
+            firstItemPassedOn.countDown();
+        });
+
+        assertTrue(passedOnWhileGenerating.get());
+        assertEquals(List.of("Ukjent vare A", "Ukjent vare B"), passedOn);
+        assertEquals(passedOn, items.stream().map(ShoppedItem::getRawName).toList());
+    }
+}
@@ -0,0 +1,129 @@
+package com.shelf_sense_backend.service;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.shelf_sense_backend.model.ImageFingerprint;
+
+/**
+ * Near-duplicate lookup and startup load time in
+ * {@link ImageFingerprintIndex} as the number of saved images grows. With
+ * {@code random} hashes every image is unrelated. With {@code clustered}
+ * hashes every image is a base hash with up to six bits flipped, taken from
+ * a few hundred bases, the way receipts from one shop share a layout; this
+ * fills a few band buckets with many entries. Half of the lookups are a
+ * saved hash with three bits flipped, the other half are new hashes drawn
+ * the same way as the saved ones. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.shelf_sense_backend.service.ImageFingerprintIndexBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ImageFingerprintIndexBenchmark {
+
+    private static final int QUERIES = 4096;
+
+    private static final int CLUSTERS = 300;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int images;
+
+    @Param({ "random", "clustered" })
+    public String distribution;
+
+    private ImageFingerprintIndex index;
+    private ImageFingerprint[] fingerprints;
+    private final long[] hashes = new long[QUERIES];
+    private final float[] aspects = new float[QUERIES];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        Random random = new Random(42);
+        long[] bases = new long[CLUSTERS];
+        for (int i = 0; i < CLUSTERS; i++) {
+            bases[i] = random.nextLong();
+        }
+        fingerprints = new ImageFingerprint[images];
+        index = new ImageFingerprintIndex(4, 0.03);
+        for (int i = 0; i < images; i++) {
+            ImageFingerprint fingerprint = new ImageFingerprint();
+            fingerprint.setSha256(Integer.toString(i));
+            fingerprint.setPerceptualHash(nextHash(random, bases));
+            fingerprint.setPaperAspect(0.5f + 3 * random.nextFloat());
+            fingerprint.setOrderId((long) i);
+            fingerprints[i] = fingerprint;
+            index.add(fingerprint);
+            if (i < QUERIES / 2) {
+                long hash = fingerprint.getPerceptualHash();
+                for (int flip = 0; flip < 3; flip++) {
+                    hash ^= 1L << random.nextInt(64);
+                }
+                hashes[i] = hash;
+                aspects[i] = fingerprint.getPaperAspect();
+            }
+        }
+        for (int i = QUERIES / 2; i < QUERIES; i++) {
+            hashes[i] = nextHash(random, bases);
+            aspects[i] = 0.5f + 3 * random.nextFloat();
+        }
+    }
+
+    private long nextHash(Random random, long[] bases) {
+        if (distribution.equals("random")) {
+            return random.nextLong();
+        }
+        long hash = bases[random.nextInt(bases.length)];
+        for (int flip = random.nextInt(7); flip > 0; flip--) {
+            hash ^= 1L << random.nextInt(64);
+        }
+        return hash;
+    }
+
+    @Benchmark
+    public ImageFingerprintIndex.Match findNear() {
+        int i = next++ & (QUERIES - 1);
+        return index.findNear(hashes[i], aspects[i]);
+    }
+
+    // Loading the saved fingerprints at startup
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ImageFingerprintIndex load() {
+        ImageFingerprintIndex loaded = new ImageFingerprintIndex(4, 0.03);
+        for (ImageFingerprint fingerprint : fingerprints) {
+            loaded.add(fingerprint);
+        }
+        return loaded;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ImageFingerprintIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
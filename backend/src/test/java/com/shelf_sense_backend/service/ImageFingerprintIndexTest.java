@@ -0,0 +1,109 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.shelf_sense_backend.model.ImageFingerprint;
+import com.shelf_sense_backend.repo.ImageFingerprintRepository;
+
+class ImageFingerprintIndexTest {
+
+    @Test
+    void everyHashWithinSevenBitsIsFound() {
+        ImageFingerprintIndex index = new ImageFingerprintIndex(7, 0.03);
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            long saved = random.nextLong();
+            index.add(fingerprint(Integer.toString(i), saved, 1.5f, (long) i));
+
+            // Flip distinct bits, spread over the bands however the random positions fall
+            int distance = random.nextInt(8);
+            long probe = saved;
+            while (Long.bitCount(probe ^ saved) < distance) {
+                probe ^= 1L << random.nextInt(64);
+            }
+
+            ImageFingerprintIndex.Match match = index.findNear(probe, 1.5f);
+            assertNotNull(match, "hash " + distance + " bits from order " + i + " was not found");
+            assertEquals(distance, match.distance());
+        }
+    }
+
+    @Test
+    void bitsConcentratedInOneBandAreFound() {
+        ImageFingerprintIndex index = new ImageFingerprintIndex(7, 0.03);
+        index.add(fingerprint("a", 0L, 1.5f, 1L));
+
+        // Seven bits in the lowest band leave the other three bands equal
+        ImageFingerprintIndex.Match match = index.findNear(0x7FL, 1.5f);
+
+        assertEquals(new ImageFingerprintIndex.Match(1L, 7), match);
+    }
+
+    @Test
+    void matchesBeyondTheConfiguredDistanceAreIgnored() {
+        ImageFingerprintIndex index = new ImageFingerprintIndex(4, 0.03);
+        index.add(fingerprint("a", 0L, 1.5f, 1L));
+
+        assertNotNull(index.findNear(0xFL, 1.5f));
+        assertNull(index.findNear(0x1FL, 1.5f));
+    }
+
+    @Test
+    void closestMatchWins() {
+        ImageFingerprintIndex index = new ImageFingerprintIndex(7, 0.03);
+        index.add(fingerprint("far", 0x7L, 1.5f, 1L));
+        index.add(fingerprint("near", 0x1L, 1.5f, 2L));
+
+        assertEquals(new ImageFingerprintIndex.Match(2L, 1), index.findNear(0L, 1.5f));
+    }
+
+    @Test
+    void receiptsOfDifferentLengthDoNotMatch() {
+        ImageFingerprintIndex index = new ImageFingerprintIndex(4, 0.03);
+        index.add(fingerprint("a", 0L, 2.0f, 1L));
+
+        assertNotNull(index.findNear(0L, 2.05f));
+        // Same 9x8 hash, but a receipt a third longer
+        assertNull(index.findNear(0L, 2.7f));
+    }
+
+    @Test
+    void removedOrdersAreForgotten() {
+        ImageFingerprintIndex index = new ImageFingerprintIndex(4, 0.03);
+        ReflectionTestUtils.setField(index, "imageFingerprintRepository", mock(ImageFingerprintRepository.class));
+        index.add(fingerprint("a", 0L, 1.5f, 1L));
+        index.add(fingerprint("b", 0x3L, 1.5f, 2L));
+
+        index.removeOrder(1L);
+
+        assertNull(index.findExact("a"));
+        assertEquals(2L, index.findExact("b"));
+        assertEquals(new ImageFingerprintIndex.Match(2L, 2), index.findNear(0L, 1.5f));
+    }
+
+    @Test
+    void fileWithoutPerceptualHashIsOnlyFoundExactly() {
+        ImageFingerprintIndex index = new ImageFingerprintIndex(4, 0.03);
+        index.add(fingerprint("a", null, null, 1L));
+
+        assertEquals(1L, index.findExact("a"));
+        assertNull(index.findNear(0L, 1.5f));
+    }
+
+    private static ImageFingerprint fingerprint(String sha256, Long hash, Float aspect, Long orderId) {
+        ImageFingerprint fingerprint = new ImageFingerprint();
+        fingerprint.setSha256(sha256);
+        fingerprint.setPerceptualHash(hash);
+        fingerprint.setPaperAspect(aspect);
+        fingerprint.setOrderId(orderId);
+        return fingerprint;
+    }
+}
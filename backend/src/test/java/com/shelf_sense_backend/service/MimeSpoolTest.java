@@ -0,0 +1,105 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.internet.SharedInputStream;
+
+class MimeSpoolTest {
+
+    @TempDir
+    Path directory;
+
+    private MimeSpool spool;
+
+    @AfterEach
+    void closeSpool() {
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    @Test
+    void spooledMessageIsParsedFromTheSegmentFile() throws Exception {
+        spool = openSpool();
+
+        MimeMessage local = spool.spool("<1@oda.com>", receipt("Oda: Kvittering 1001", "Bringebær 125 g"));
+
+        assertEquals("Oda: Kvittering 1001", local.getSubject());
+        MimeMultipart content = (MimeMultipart) local.getContent();
+        assertEquals("Bringebær 125 g", content.getBodyPart(0).getContent());
+        // The content is read from the mapping, not copied into a byte array
+        assertInstanceOf(SharedInputStream.class, ((MimeBodyPart) content.getBodyPart(0)).getRawInputStream());
+    }
+
+    @Test
+    void indexIsRebuiltFromTheSegmentsOnStartup() throws Exception {
+        spool = openSpool();
+        spool.spool("<1@oda.com>", receipt("Oda: Kvittering 1001", "Bringebær 125 g"));
+        spool.spool("<2@oda.com>", receipt("Oda: Kvittering 1002", "Tine Lettmelk 1 l"));
+        spool.close();
+
+        spool = openSpool();
+
+        assertEquals(List.of("<1@oda.com>", "<2@oda.com>"), spool.messageIds());
+        MimeMessage second = spool.readMessage("<2@oda.com>").orElseThrow();
+        assertEquals("Tine Lettmelk 1 l", ((MimeMultipart) second.getContent()).getBodyPart(0).getContent());
+    }
+
+    @Test
+    void failedDownloadLeavesNoPartialRecord() throws Exception {
+        spool = openSpool();
+        MimeMessage broken = new MimeMessage(receipt("Oda: Kvittering 1003", "Egg 12 stk")) {
+            @Override
+            public void writeTo(OutputStream out) throws IOException, MessagingException {
+                out.write("Subject: Oda: Kvittering 1003\r\n".getBytes());
+                throw new MessagingException("Connection dropped");
+            }
+        };
+
+        assertThrows(MessagingException.class, () -> spool.spool("<3@oda.com>", broken));
+        spool.spool("<4@oda.com>", receipt("Oda: Kvittering 1004", "Agurk 1 stk"));
+        spool.close();
+
+        spool = openSpool();
+        assertEquals(List.of("<4@oda.com>"), spool.messageIds());
+        assertTrue(spool.readMessage("<4@oda.com>").isPresent());
+    }
+
+    private MimeSpool openSpool() {
+        MimeSpool opened = new MimeSpool();
+        ReflectionTestUtils.setField(opened, "enabled", true);
+        ReflectionTestUtils.setField(opened, "directory", directory.toString());
+        ReflectionTestUtils.setField(opened, "segmentSizeMb", 64L);
+        opened.open();
+        return opened;
+    }
+
+    private static MimeMessage receipt(String subject, String items) throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setSubject(subject);
+        MimeBodyPart text = new MimeBodyPart();
+        text.setText(items, "UTF-8");
+        message.setContent(new MimeMultipart(text));
+        message.saveChanges();
+        return message;
+    }
+}
@@ -0,0 +1,154 @@
+package com.shelf_sense_backend.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import jakarta.mail.BodyPart;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Part;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+
+/**
+ * Compares the streaming {@link MimeTextExtractor} with the previous
+ * getContent()/regex extraction. Run with {@code -prof gc} to see the
+ * allocation difference:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.shelf_sense_backend.service.MimeTextExtractionBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MimeTextExtractionBenchmark {
+
+    @Param({ "plain", "html", "html-with-attachment" })
+    public String shape;
+
+    private final Session session = Session.getInstance(new Properties());
+    private final MimeTextExtractor extractor = new MimeTextExtractor(1024 * 1024);
+    private byte[] rawMessage;
+
+    @Setup
+    public void buildMessage() throws MessagingException, IOException {
+        StringBuilder html = new StringBuilder("<html><head><style>td { padding: 4px; }</style></head><body><table>");
+        StringBuilder text = new StringBuilder("Bestilte varer\n");
+        for (int i = 0; i < 60; i++) {
+            html.append("<tr><td>Tine Lettmelk 1,0 l</td><td>2 stk</td><td>42,90&nbsp;kr</td></tr>");
+            text.append("Tine Lettmelk 1,0 l  2 stk  42,90 kr\n");
+        }
+        html.append("</table><p>Sum &amp; mva</p></body></html>");
+
+        MimeMessage message = new MimeMessage(session);
+        message.setSubject("Kvittering for ordre 12345678");
+        MimeMultipart multipart = new MimeMultipart("alternative");
+        switch (shape) {
+            case "plain" -> message.setText(text.toString(), "UTF-8");
+            case "html" -> {
+                MimeBodyPart htmlPart = new MimeBodyPart();
+                htmlPart.setContent(html.toString(), "text/html; charset=UTF-8");
+                multipart.addBodyPart(htmlPart);
+                message.setContent(multipart);
+            }
+            default -> {
+                MimeBodyPart htmlPart = new MimeBodyPart();
+                htmlPart.setContent(html.toString(), "text/html; charset=UTF-8");
+                MimeBodyPart attachment = new MimeBodyPart();
+                attachment.setContent(new byte[2 * 1024 * 1024], "application/pdf");
+                attachment.setDisposition(Part.ATTACHMENT);
+                attachment.setFileName("kvittering.pdf");
+                MimeMultipart mixed = new MimeMultipart("mixed");
+                multipart.addBodyPart(htmlPart);
+                MimeBodyPart alternative = new MimeBodyPart();
+                alternative.setContent(multipart);
+                mixed.addBodyPart(alternative);
+                mixed.addBodyPart(attachment);
+                message.setContent(mixed);
+            }
+        }
+        message.saveChanges();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        rawMessage = out.toByteArray();
+    }
+
+    @Benchmark
+    public String streaming() throws MessagingException, IOException {
+        return extractor.extractText(parse());
+    }
+
+    @Benchmark
+    public String getContentAndRegex() throws MessagingException, IOException {
+        MimeMessage message = parse();
+        if (message.isMimeType("text/plain")) {
+            return message.getContent().toString();
+        }
+        return legacyMultipart((MimeMultipart) message.getContent());
+    }
+
+    private MimeMessage parse() throws MessagingException {
+        return new MimeMessage(session, new ByteArrayInputStream(rawMessage));
+    }
+
+    private String legacyMultipart(MimeMultipart mimeMultipart) throws MessagingException, IOException {
+        String textContent = null;
+        String htmlContent = null;
+        for (int i = 0; i < mimeMultipart.getCount(); i++) {
+            BodyPart bodyPart = mimeMultipart.getBodyPart(i);
+            if (Part.ATTACHMENT.equalsIgnoreCase(bodyPart.getDisposition())) {
+                continue;
+            }
+            if (bodyPart.isMimeType("text/plain") && textContent == null) {
+                textContent = bodyPart.getContent().toString();
+                break;
+            } else if (bodyPart.isMimeType("text/html") && htmlContent == null) {
+                htmlContent = bodyPart.getContent().toString();
+            } else if (bodyPart.getContent() instanceof MimeMultipart nested) {
+                String nestedText = legacyMultipart(nested);
+                if (textContent == null && nestedText != null && !nestedText.isEmpty()) {
+                    textContent = nestedText;
+                }
+            }
+        }
+        if (textContent != null) {
+            return textContent;
+        }
+        if (htmlContent != null) {
+            return htmlContent.replaceAll("<[^>]*>", " ").replaceAll("\\s+", " ").trim();
+        }
+        return "";
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MimeTextExtractionBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,93 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ModelCircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        ModelCircuitBreaker breaker = breaker(3, 60);
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(ModelCircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure();
+        assertEquals(ModelCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.isCallPermitted());
+    }
+
+    @Test
+    void letsOneProbeThroughOnceTheOpenPeriodIsOver() {
+        ModelCircuitBreaker breaker = openBreaker();
+
+        assertTrue(breaker.isCallPermitted());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(ModelCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.isCallPermitted());
+    }
+
+    @Test
+    void successfulProbeClosesTheCircuit() {
+        ModelCircuitBreaker breaker = openBreaker();
+        breaker.tryAcquire();
+
+        breaker.recordSuccess();
+
+        assertEquals(ModelCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void failedProbeOpensTheCircuitAgain() {
+        ModelCircuitBreaker breaker = breaker(1, 60);
+        breaker.recordFailure();
+        ReflectionTestUtils.setField(breaker, "openSeconds", 0L);
+        breaker.tryAcquire();
+        ReflectionTestUtils.setField(breaker, "openSeconds", 60L);
+
+        breaker.recordFailure();
+
+        assertEquals(ModelCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void releasedProbeCanBeTakenAgain() {
+        ModelCircuitBreaker breaker = openBreaker();
+        breaker.tryAcquire();
+
+        breaker.releaseProbe();
+
+        assertEquals(ModelCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    // Open, with the open period already over
+    private static ModelCircuitBreaker openBreaker() {
+        ModelCircuitBreaker breaker = breaker(1, 0);
+        breaker.recordFailure();
+        assertEquals(ModelCircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static ModelCircuitBreaker breaker(int failureThreshold, long openSeconds) {
+        ModelCircuitBreaker breaker = new ModelCircuitBreaker(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(breaker, "failureThreshold", failureThreshold);
+        ReflectionTestUtils.setField(breaker, "openSeconds", openSeconds);
+        return breaker;
+    }
+}
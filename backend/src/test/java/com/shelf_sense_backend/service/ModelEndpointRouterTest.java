@@ -0,0 +1,127 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+class ModelEndpointRouterTest {
+
+    private static final String FIRST = "http://first:1234/v1/chat/completions";
+    private static final String SECOND = "http://second:1234/v1/chat/completions";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ModelEndpointRouter router = router();
+    private final List<String> called = new CopyOnWriteArrayList<>();
+
+    @Test
+    void connectionFailureIsRetriedOnTheOtherEndpoint() {
+        String answer = router.route(url -> {
+            called.add(url);
+            return url.equals(FIRST) ? Mono.error(new IOException("Connection refused")) : Mono.just("second");
+        }).block(Duration.ofSeconds(5));
+
+        assertEquals("second", answer);
+        assertEquals(List.of(FIRST, SECOND), called);
+        assertEquals(1, meterRegistry.counter("ai.endpoint.failovers").count());
+    }
+
+    @Test
+    void badAnswerIsNotRetried() {
+        IllegalArgumentException error = new IllegalArgumentException("Malformed answer");
+
+        Throwable thrown = assertThrows(IllegalArgumentException.class, () -> router.route(url -> {
+            called.add(url);
+            return Mono.<String>error(error);
+        }).block(Duration.ofSeconds(5)));
+
+        assertSame(error, thrown);
+        assertEquals(List.of(FIRST), called);
+    }
+
+    @Test
+    void endpointIsLeftOutAfterRepeatedFailures() {
+        for (int i = 0; i < 3; i++) {
+            router.route(url -> url.equals(FIRST) ? Mono.error(new IOException("Connection refused")) : Mono.just("ok"))
+                    .block(Duration.ofSeconds(5));
+        }
+        called.clear();
+
+        router.route(url -> {
+            called.add(url);
+            return Mono.just("ok");
+        }).block(Duration.ofSeconds(5));
+
+        assertEquals(List.of(SECOND), called);
+    }
+
+    @Test
+    void slowRequestIsHedgedAndTheLoserCancelled() throws InterruptedException {
+        ReflectionTestUtils.setField(router, "hedgeDelayNanos", Duration.ofMillis(50).toNanos());
+        CountDownLatch firstCancelled = new CountDownLatch(1);
+
+        String answer = router.route(url -> {
+            called.add(url);
+            return url.equals(FIRST)
+                    ? Mono.<String>never().doOnCancel(firstCancelled::countDown)
+                    : Mono.just("second");
+        }).block(Duration.ofSeconds(5));
+
+        assertEquals("second", answer);
+        assertEquals(List.of(FIRST, SECOND), called);
+        // The answer is passed on before the other attempt is disposed
+        assertTrue(firstCancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(1, meterRegistry.counter("ai.endpoint.hedges").count());
+    }
+
+    @Test
+    void fastRequestIsNotHedged() throws InterruptedException {
+        ReflectionTestUtils.setField(router, "hedgeDelayNanos", Duration.ofMillis(50).toNanos());
+
+        String answer = router.route(url -> {
+            called.add(url);
+            return Mono.just("first");
+        }).block(Duration.ofSeconds(5));
+        Thread.sleep(100);
+
+        assertEquals("first", answer);
+        assertEquals(List.of(FIRST), called);
+        assertEquals(0, meterRegistry.counter("ai.endpoint.hedges").count());
+    }
+
+    @Test
+    void hedgedRequestFailsWithTheFirstErrorWhenBothFail() {
+        ReflectionTestUtils.setField(router, "hedgeDelayNanos", Duration.ofMillis(50).toNanos());
+        IllegalStateException firstError = new IllegalStateException("first");
+
+        Throwable thrown = assertThrows(IllegalStateException.class, () -> router.route(url -> url.equals(FIRST)
+                ? Mono.delay(Duration.ofMillis(200)).then(Mono.<String>error(firstError))
+                : Mono.delay(Duration.ofMillis(300)).then(Mono.<String>error(new IllegalStateException("second"))))
+                .block(Duration.ofSeconds(5)));
+
+        assertSame(firstError, thrown);
+    }
+
+    private ModelEndpointRouter router() {
+        ModelEndpointRouter router = new ModelEndpointRouter(WebClient.create(), meterRegistry, FIRST + "," + SECOND);
+        ReflectionTestUtils.setField(router, "strategy", "in-flight");
+        ReflectionTestUtils.setField(router, "ewmaAlpha", 0.3);
+        ReflectionTestUtils.setField(router, "unhealthyAfterFailures", 3);
+        ReflectionTestUtils.setField(router, "hedgePercentile", 95.0);
+        return router;
+    }
+}
@@ -0,0 +1,133 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.shelf_sense_backend.dto.ExtractedProduct;
+import com.shelf_sense_backend.model.ShoppedItem;
+
+class OdaReceiptParserTest {
+
+    private final OdaReceiptParser parser = new OdaReceiptParser();
+
+    @Test
+    void parsesOneLineItems() {
+        OdaReceiptParser.Result result = parser.parse("""
+                Tine Lettmelk 1 l   2 stk   49,80
+                Bananer 1,2 kg 29,90
+                """);
+
+        assertEquals(1.0, result.confidence());
+        assertItem(result.items().get(0), "Tine Lettmelk 1 l", 2, "1 l");
+        assertItem(result.items().get(1), "Bananer 1,2 kg", 1, "1,2 kg");
+    }
+
+    @Test
+    void parsesNameFollowedByQuantityLine() {
+        OdaReceiptParser.Result result = parser.parse("""
+                Bringebær 125 g
+                2 stk 59,80
+                Bananer
+                1,2 kg
+                1 stk 29,90
+                """);
+
+        assertEquals(1.0, result.confidence());
+        assertEquals(2, result.items().size());
+        assertItem(result.items().get(0), "Bringebær 125 g", 2, "125 g");
+        assertItem(result.items().get(1), "Bananer", 1, "1,2 kg");
+    }
+
+    @Test
+    void normalisesNonBreakingSpacesAndTabs() {
+        OdaReceiptParser.Result result = parser.parse("Tine\u00A0Lettmelk\t1 l\t2\u00A0stk\t49,80");
+
+        assertItem(result.items().get(0), "Tine Lettmelk 1 l", 2, "1 l");
+        assertTrue(parser.isItemBoundary("2\u00A0stk\t49,80"));
+        assertFalse(parser.isItemBoundary("Tine Lettmelk 1 l"));
+    }
+
+    @Test
+    void headersAndNonProductLinesDoNotCountTowardsConfidence() {
+        OdaReceiptParser.Result result = parser.parse("""
+                Vare
+                Antall
+                Pris
+                Tine Lettmelk 1 l 2 stk 49,80
+                Pant 2,00
+                Levering 0,00
+                ukjent linje
+                """);
+
+        assertEquals(1, result.items().size());
+        // One of the two product lines fits the layout
+        assertEquals(0.5, result.confidence());
+    }
+
+    @Test
+    void nameWithoutQuantityLineLowersConfidence() {
+        OdaReceiptParser.Result result = parser.parse("""
+                Tine Lettmelk 1 l 2 stk 49,80
+                Bringebær 125 g
+                Egg 12 stk 49,90
+                Kaffe
+                """);
+
+        assertEquals(List.of("Tine Lettmelk 1 l", "Egg"),
+                result.items().stream().map(ShoppedItem::getRawName).toList());
+        assertEquals(0.5, result.confidence());
+    }
+
+    @Test
+    void priceLinesWithoutANameDoNotRaiseConfidence() {
+        OdaReceiptParser.Result result = parser.parse("""
+                Tine Lettmelk 1 l 2 stk 49,80
+                49,80
+                29,90
+                ukjent linje
+                """);
+
+        assertEquals(1, result.items().size());
+        assertEquals(0.25, result.confidence());
+    }
+
+    @Test
+    void fractionalQuantityIsRoundedUpLikeModelAnswers() {
+        OdaReceiptParser.Result result = parser.parse("Ost 0,5 stk 49,90");
+
+        assertEquals(1, result.items().get(0).getQuantity());
+        assertEquals(1, new ExtractedProduct("Ost", "0,5", null, null, null).wholeQuantity());
+        assertEquals(2, new ExtractedProduct("Ost", "1.5", null, null, null).wholeQuantity());
+    }
+
+    @Test
+    void blockWithoutItemsHasNoConfidence() {
+        assertEquals(0.0, parser.parse("").confidence());
+        assertEquals(0.0, parser.parse("Vare Antall Pris\nPant 2,00").confidence());
+    }
+
+    @Test
+    void extractsTheBlockBetweenTheMarkers() {
+        String email = """
+                Hei!
+                Bestilte varer
+                Tine Lettmelk 1 l 2 stk 49,80
+                Oppsummering
+                Total 49,80
+                """;
+
+        assertEquals("Tine Lettmelk 1 l 2 stk 49,80", parser.extractItemsBlock(email));
+        assertEquals("", parser.extractItemsBlock("Hei!\nTotal 49,80"));
+    }
+
+    private static void assertItem(ShoppedItem item, String rawName, int quantity, String weight) {
+        assertEquals(rawName, item.getRawName());
+        assertEquals(quantity, item.getQuantity());
+        assertEquals(weight, item.getWeightOrVolume());
+    }
+}
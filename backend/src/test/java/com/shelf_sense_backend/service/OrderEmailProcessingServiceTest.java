@@ -0,0 +1,157 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.shelf_sense_backend.dto.EmailEnvelope;
+import com.shelf_sense_backend.dto.EnvelopeBatchResult;
+import com.shelf_sense_backend.model.FailedEmail;
+import com.shelf_sense_backend.model.FailedEmailStatus;
+import com.shelf_sense_backend.repo.FailedEmailRepository;
+import com.shelf_sense_backend.repo.OrderRepository;
+import com.shelf_sense_backend.repo.ProcessedEmailRepository;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+
+class OrderEmailProcessingServiceTest {
+
+    private static final String MESSAGE_ID = "<1001.receipt@oda.com>";
+    private static final long UID = 42;
+
+    private final OrderEmailProcessingService service = new OrderEmailProcessingService();
+    private final FailedEmailRepository failedEmailRepository = mock(FailedEmailRepository.class);
+    private final ReceiptOrderWriter receiptOrderWriter = mock(ReceiptOrderWriter.class);
+    private final MimeSpool mimeSpool = mock(MimeSpool.class);
+    private final Map<String, FailedEmail> failures = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void wireService() throws Exception {
+        ProcessedEmailIndex processedEmailIndex = mock(ProcessedEmailIndex.class);
+        when(processedEmailIndex.mightContain(anyString())).thenReturn(false);
+        OrderRepository orderRepository = mock(OrderRepository.class);
+        when(orderRepository.findExistingOrderNumbers(anyCollection())).thenReturn(Set.of());
+        PendingExtractionQueue pendingExtractionQueue = mock(PendingExtractionQueue.class);
+        when(pendingExtractionQueue.findParkedMessageIds(anyCollection())).thenReturn(Set.of());
+
+        when(failedEmailRepository.findByMessageId(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(failures.get(invocation.<String>getArgument(0))));
+        when(failedEmailRepository.findByMessageIdIn(anyCollection()))
+                .thenAnswer(invocation -> List.copyOf(failures.values()));
+        when(failedEmailRepository.save(any(FailedEmail.class))).thenAnswer(invocation -> {
+            FailedEmail failure = invocation.getArgument(0);
+            failures.put(failure.getMessageId(), failure);
+            return failure;
+        });
+        // Every download fails, so the email comes back for a retry
+        when(mimeSpool.readMessage(anyString())).thenReturn(Optional.empty());
+        when(mimeSpool.spool(anyString(), any(Message.class))).thenThrow(new IOException("Connection reset"));
+
+        ReflectionTestUtils.setField(service, "processedEmailRepository", mock(ProcessedEmailRepository.class));
+        ReflectionTestUtils.setField(service, "processedEmailIndex", processedEmailIndex);
+        ReflectionTestUtils.setField(service, "orderRepository", orderRepository);
+        ReflectionTestUtils.setField(service, "pendingExtractionQueue", pendingExtractionQueue);
+        ReflectionTestUtils.setField(service, "failedEmailRepository", failedEmailRepository);
+        ReflectionTestUtils.setField(service, "receiptOrderWriter", receiptOrderWriter);
+        ReflectionTestUtils.setField(service, "mimeSpool", mimeSpool);
+        ReflectionTestUtils.setField(service, "minSentDateValue", "2025-01-01");
+        ReflectionTestUtils.setField(service, "extractionParallelism", 1);
+        ReflectionTestUtils.setField(service, "maxInFlight", 1);
+        ReflectionTestUtils.setField(service, "maxMessageAttempts", 8);
+        ReflectionTestUtils.setField(service, "retryInitialBackoffSeconds", 300L);
+        ReflectionTestUtils.setField(service, "retryMaxBackoffSeconds", 21600L);
+        ReflectionTestUtils.setField(service, "deadLetterAfterHours", 24L);
+        ReflectionTestUtils.invokeMethod(service, "initPipeline");
+    }
+
+    @AfterEach
+    void shutdown() {
+        ReflectionTestUtils.invokeMethod(service, "shutdownPipeline");
+    }
+
+    @Test
+    void failedEmailBacksOffAndHoldsTheCheckpoint() throws Exception {
+        EnvelopeBatchResult first = service.processEnvelopes(List.of(envelope()));
+
+        assertEquals(UID, first.firstRetryUid());
+        FailedEmail failure = failures.get(MESSAGE_ID);
+        assertEquals(1, failure.getAttempts());
+        assertEquals(FailedEmailStatus.RETRYING, failure.getStatus());
+        assertTrue(failure.getNextAttemptTimestamp().isAfter(Instant.now().plusSeconds(200)));
+
+        // The next poll comes before the backoff is over
+        EnvelopeBatchResult second = service.processEnvelopes(List.of(envelope()));
+
+        assertEquals(UID, second.firstRetryUid());
+        assertEquals(1, failures.get(MESSAGE_ID).getAttempts());
+    }
+
+    @Test
+    void emailIsNotDeadLetteredWithinTheWindow() throws Exception {
+        failures.put(MESSAGE_ID, failure(20, Instant.now().minus(Duration.ofHours(2))));
+
+        EnvelopeBatchResult result = service.processEnvelopes(List.of(envelope()));
+
+        assertEquals(UID, result.firstRetryUid());
+        assertEquals(FailedEmailStatus.RETRYING, failures.get(MESSAGE_ID).getStatus());
+    }
+
+    @Test
+    void emailFailingForTheWholeWindowIsDeadLetteredNotProcessed() throws Exception {
+        failures.put(MESSAGE_ID, failure(7, Instant.now().minus(Duration.ofHours(25))));
+
+        EnvelopeBatchResult result = service.processEnvelopes(List.of(envelope()));
+
+        assertEquals(Long.MAX_VALUE, result.firstRetryUid());
+        FailedEmail failure = failures.get(MESSAGE_ID);
+        assertEquals(FailedEmailStatus.DEAD_LETTER, failure.getStatus());
+        assertEquals(8, failure.getAttempts());
+        assertNull(failure.getNextAttemptTimestamp());
+        verify(receiptOrderWriter, never()).recordProcessedEmail(anyString(), any());
+
+        // Later polls pass it by without holding the checkpoint
+        EnvelopeBatchResult later = service.processEnvelopes(List.of(envelope()));
+
+        assertEquals(Long.MAX_VALUE, later.firstRetryUid());
+        assertEquals(8, failures.get(MESSAGE_ID).getAttempts());
+    }
+
+    private static FailedEmail failure(int attempts, Instant firstFailed) {
+        FailedEmail failure = new FailedEmail();
+        failure.setMessageId(MESSAGE_ID);
+        failure.setAttempts(attempts);
+        failure.setFirstFailedTimestamp(firstFailed);
+        failure.setLastFailedTimestamp(Instant.now().minus(Duration.ofHours(1)));
+        failure.setNextAttemptTimestamp(Instant.now().minusSeconds(1));
+        return failure;
+    }
+
+    private static EmailEnvelope envelope() {
+        Message message = mock(Message.class);
+        when(message.getFolder()).thenReturn(mock(Folder.class));
+        return new EmailEnvelope(message, UID, MESSAGE_ID, "Oda: Kvittering 1001", new Date(), false);
+    }
+}
@@ -0,0 +1,81 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.shelf_sense_backend.repo.ProcessedEmailRepository;
+
+class ProcessedEmailIndexTest {
+
+    private final ProcessedEmailIndex index = new ProcessedEmailIndex(10000, 0.01);
+
+    @Test
+    void everyRecordedMessageIdIsFound() {
+        warmUp(List.of());
+        for (int i = 0; i < 10000; i++) {
+            index.add(messageId(i));
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(index.mightContain(messageId(i)), messageId(i));
+        }
+    }
+
+    @Test
+    void falsePositiveRateIsNearTheConfiguredRate() {
+        warmUp(List.of());
+        for (int i = 0; i < 10000; i++) {
+            index.add(messageId(i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (index.mightContain(messageId(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2000, falsePositives + " false positives in 100000 lookups");
+    }
+
+    @Test
+    void messageIdsFromTheTableAreLoadedOnWarmUp() {
+        warmUp(List.of(messageId(1)));
+
+        assertTrue(index.mightContain(messageId(1)));
+        assertFalse(index.mightContain("<never-seen@example.com>"));
+    }
+
+    @Test
+    void everyMessageIdMightBeKnownBeforeWarmUp() {
+        assertTrue(index.mightContain("<never-seen@example.com>"));
+    }
+
+    @Test
+    void failedWarmUpKeepsSendingLookupsToTheDatabase() {
+        ProcessedEmailRepository repository = mock(ProcessedEmailRepository.class);
+        when(repository.findAllMessageIds()).thenThrow(new IllegalStateException("Database is down"));
+        ReflectionTestUtils.setField(index, "processedEmailRepository", repository);
+
+        index.warmUp();
+
+        assertTrue(index.mightContain("<never-seen@example.com>"));
+    }
+
+    private void warmUp(List<String> messageIds) {
+        ProcessedEmailRepository repository = mock(ProcessedEmailRepository.class);
+        when(repository.findAllMessageIds()).thenReturn(messageIds);
+        ReflectionTestUtils.setField(index, "processedEmailRepository", repository);
+        index.warmUp();
+    }
+
+    private static String messageId(int i) {
+        return "<" + i + ".receipt@oda.com>";
+    }
+}
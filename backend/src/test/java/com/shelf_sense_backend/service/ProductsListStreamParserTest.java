@@ -0,0 +1,70 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shelf_sense_backend.dto.ExtractedProduct;
+
+class ProductsListStreamParserTest {
+
+    private final ProductsListStreamParser parser = newParser();
+
+    @Test
+    void itemIsReturnedAsSoonAsItIsClosed() throws IOException {
+        assertEquals(List.of(), parser.feed("{\"products_list\": [{\"product_name\": \"Ban"));
+        assertEquals(List.of(), parser.feed("aner\", \"quantity\": 2"));
+
+        List<ExtractedProduct> items = parser.feed("}, {\"product_name\": \"Egg\"");
+
+        assertEquals(List.of("Bananer"), names(items));
+        assertEquals(2, items.get(0).wholeQuantity());
+        assertFalse(parser.isComplete());
+        assertEquals(List.of("Egg"), names(parser.feed("}]}")));
+        assertTrue(parser.isComplete());
+    }
+
+    @Test
+    void markdownFenceAndTrailingTextAreIgnored() throws IOException {
+        List<ExtractedProduct> items = new ArrayList<>();
+        items.addAll(parser.feed("```json\n{\"products_list\": [{\"product_name\": \"Melk\"}]}"));
+        items.addAll(parser.feed("\n```\nThe list has one product. {\"product_name\": \"Kaffe\"}"));
+
+        assertEquals(List.of("Melk"), names(items));
+        assertTrue(parser.isComplete());
+    }
+
+    @Test
+    void topLevelArrayIsAccepted() throws IOException {
+        assertEquals(List.of("Melk", "Egg"),
+                names(parser.feed("[{\"product_name\": \"Melk\"}, {\"product_name\": \"Egg\"}]")));
+        assertTrue(parser.isComplete());
+    }
+
+    @Test
+    void nestedObjectsStayInTheirItem() throws IOException {
+        List<ExtractedProduct> items = parser.feed("{\"note\": {\"products_list\": []}, \"products_list\": "
+                + "[{\"product_name\": \"Melk\", \"extra\": {\"a\": [1, {\"b\": 2}]}}]}");
+
+        assertEquals(List.of("Melk"), names(items));
+    }
+
+    private static List<String> names(List<ExtractedProduct> items) {
+        return items.stream().map(ExtractedProduct::productName).toList();
+    }
+
+    private static ProductsListStreamParser newParser() {
+        try {
+            return new ProductsListStreamParser(ProductsListStreamParser.itemReader(new ObjectMapper()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
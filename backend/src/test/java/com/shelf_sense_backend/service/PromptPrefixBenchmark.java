@@ -0,0 +1,139 @@
+package com.shelf_sense_backend.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Per-request latency of the old single user message prompt against the
+ * system + user layout, sent to a local stub chat-completions server. The
+ * stub models a server that keeps the KV cache of the previous request's
+ * system message: it charges a fixed prefill cost per token it has not
+ * seen, so only the user message is paid for when the system message is
+ * unchanged. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.shelf_sense_backend.service.PromptPrefixBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptPrefixBenchmark {
+
+    // Prefill cost of the stub per uncached token
+    private static final long NANOS_PER_TOKEN = 20_000;
+
+    @Param({ "single_user_message", "system_and_user_message" })
+    public String layout;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<byte[]> requestBodies = new ArrayList<>();
+    private HttpServer server;
+    private HttpClient client;
+    private URI uri;
+    private int next;
+    private volatile String cachedSystemMessage;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            simulatePrefill(request.path("messages"));
+            byte[] response = "{\"choices\":[{\"message\":{\"content\":\"{\\\"products_list\\\":[]}\"}}]}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        client = HttpClient.newHttpClient();
+        uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions");
+
+        for (int receipt = 0; receipt < 8; receipt++) {
+            StringBuilder text = new StringBuilder("Bestilte varer\n");
+            for (int line = 0; line < 25; line++) {
+                text.append("Produkt ").append(receipt).append('-').append(line).append(" 500 g 1 stk 29,90\n");
+            }
+            AIModelClient.Prompt prompt = AIModelClient.extractionPrompt(text.toString());
+            List<Map<String, String>> messages = layout.equals("single_user_message")
+                    ? List.of(Map.of("role", "user", "content", prompt.system() + "\n\n" + prompt.user()))
+                    : List.of(Map.of("role", "system", "content", prompt.system()),
+                            Map.of("role", "user", "content", prompt.user()));
+            requestBodies.add(objectMapper.writeValueAsBytes(Map.of("messages", messages)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public int request() throws IOException, InterruptedException {
+        byte[] body = requestBodies.get(next++ % requestBodies.size());
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body().length;
+    }
+
+    private void simulatePrefill(JsonNode messages) {
+        int uncachedTokens = 0;
+        for (JsonNode message : messages) {
+            String content = message.path("content").asText();
+            if ("system".equals(message.path("role").asText()) && content.equals(cachedSystemMessage)) {
+                continue;
+            }
+            if ("system".equals(message.path("role").asText())) {
+                cachedSystemMessage = content;
+            }
+            uncachedTokens += AIModelClient.estimateTokens(content);
+        }
+        LockSupport.parkNanos(uncachedTokens * NANOS_PER_TOKEN);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PromptPrefixBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,172 @@
+package com.shelf_sense_backend.service;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.protobuf.ByteString;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Cost of turning one uploaded receipt image into the content sent to
+ * Vision. The as_uploaded mode is the previous path: the whole file was read
+ * into a byte array and copied into a ByteString. The preprocessed mode runs
+ * {@link ReceiptImagePreprocessor}. Time per image is the preparation
+ * latency, bytes allocated per image are in the gc.alloc.rate.norm column,
+ * and the bytes sent to Vision per image are printed at the end of each
+ * trial. The Vision call itself is not part of the benchmark; its upload
+ * time grows with the bytes sent and shows up in the ocr.vision.latency
+ * metric. Without -Dcorpus a set of synthetic 12 MP phone photos is used.
+ * Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.shelf_sense_backend.service.ReceiptImagePreprocessingBenchmark \
+ *     -Dcorpus=/path/to/receipt/photos
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReceiptImagePreprocessingBenchmark {
+
+    @Param({ "as_uploaded", "preprocessed" })
+    public String mode;
+
+    private final List<Path> images = new ArrayList<>();
+    private Path syntheticCorpus;
+    private ReceiptImagePreprocessor preprocessor;
+    private int next;
+    private long imagesPrepared;
+    private long bytesUploaded;
+    private long bytesSent;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        preprocessor = new ReceiptImagePreprocessor(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(preprocessor, "enabled", true);
+        ReflectionTestUtils.setField(preprocessor, "maxShortEdge", 1200);
+        ReflectionTestUtils.setField(preprocessor, "maxLongEdge", 4000);
+        ReflectionTestUtils.setField(preprocessor, "jpegQuality", 0.85f);
+        ReflectionTestUtils.setField(preprocessor, "crop", true);
+
+        String corpus = System.getProperty("corpus");
+        if (corpus != null && !corpus.isBlank()) {
+            try (Stream<Path> files = Files.list(Paths.get(corpus))) {
+                files.filter(Files::isRegularFile).sorted().forEach(images::add);
+            }
+        } else {
+            syntheticCorpus = Files.createTempDirectory("receipt-photos");
+            Random random = new Random(42);
+            images.add(writePhoto(syntheticCorpus.resolve("on-table.jpg"), 3024, 4032, 800, 1400, random));
+            images.add(writePhoto(syntheticCorpus.resolve("filling-frame.jpg"), 3024, 4032, 100, 2824, random));
+            images.add(writePhoto(syntheticCorpus.resolve("landscape.jpg"), 4032, 3024, 1300, 1400, random));
+        }
+        if (images.isEmpty()) {
+            throw new IllegalStateException("No images in " + corpus);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void report() throws IOException {
+        System.out.printf("%n%s: %d image(s) prepared, %d bytes uploaded and %d bytes sent per image on average%n",
+                mode, imagesPrepared, bytesUploaded / Math.max(1, imagesPrepared),
+                bytesSent / Math.max(1, imagesPrepared));
+        if (syntheticCorpus != null) {
+            try (Stream<Path> files = Files.walk(syntheticCorpus)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int prepareImage() throws IOException {
+        Path image = images.get(next++ % images.size());
+        ByteString content;
+        if (mode.equals("as_uploaded")) {
+            content = ByteString.copyFrom(Files.readAllBytes(image));
+        } else {
+            content = preprocessor.prepare(image).content();
+        }
+        imagesPrepared++;
+        bytesUploaded += Files.size(image);
+        bytesSent += content.size();
+        return content.size();
+    }
+
+    // A receipt with lines of text on paper, photographed on a darker, noisy surface
+    private static Path writePhoto(Path file, int width, int height, int paperLeft, int paperWidth, Random random)
+            throws IOException {
+        BufferedImage photo = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = photo.createGraphics();
+        try {
+            for (int y = 0; y < height; y += 4) {
+                for (int x = 0; x < width; x += 4) {
+                    int shade = 60 + random.nextInt(40);
+                    g.setColor(new Color(shade, shade - 10, shade - 20));
+                    g.fillRect(x, y, 4, 4);
+                }
+            }
+            int paperTop = height / 12;
+            g.setColor(new Color(235, 232, 225));
+            g.fillRect(paperLeft, paperTop, paperWidth, height - 2 * paperTop);
+            g.setColor(Color.BLACK);
+            g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 40));
+            for (int y = paperTop + 100; y < height - paperTop - 50; y += 55) {
+                g.drawString("Tine Lettmelk 1 % 1 l        2 x 23,90", paperLeft + 50, y);
+            }
+        } finally {
+            g.dispose();
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            ReceiptImagePreprocessor.writeJpeg(photo, 0.92f, out);
+        }
+        return file;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        // The forked JVM gets the corpus directory given to this one
+        new Runner(new OptionsBuilder()
+                .include(ReceiptImagePreprocessingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-Djava.awt.headless=true", "-Dcorpus=" + System.getProperty("corpus", ""))
+                .build()).run();
+    }
+}
@@ -0,0 +1,153 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.protobuf.ByteString;
+import com.shelf_sense_backend.dto.ReceiptUploadResult;
+import com.shelf_sense_backend.model.ReceiptJob;
+import com.shelf_sense_backend.model.ReceiptJobStatus;
+import com.shelf_sense_backend.repo.ImageFingerprintRepository;
+import com.shelf_sense_backend.repo.OrderRepository;
+import com.shelf_sense_backend.repo.ReceiptJobRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ReceiptJobServiceTest {
+
+    private static final Long JOB_ID = 1L;
+
+    @TempDir
+    Path directory;
+
+    private final ReceiptJobService service = new ReceiptJobService(new SimpleMeterRegistry());
+    private final ReceiptJobRepository receiptJobRepository = mock(ReceiptJobRepository.class);
+    private final ReceiptOcrService receiptOcrService = mock(ReceiptOcrService.class);
+    private final ReceiptImagePreprocessor imagePreprocessor = mock(ReceiptImagePreprocessor.class);
+    private final ImageFingerprintIndex fingerprintIndex = new ImageFingerprintIndex(4, 0.03);
+    private final Map<Long, ReceiptJob> jobs = new ConcurrentHashMap<>();
+
+    private Path savedFile;
+    private Path reshotFile;
+
+    @BeforeEach
+    void wireService() throws Exception {
+        ReflectionTestUtils.setField(fingerprintIndex, "imageFingerprintRepository",
+                mock(ImageFingerprintRepository.class));
+        OrderRepository orderRepository = mock(OrderRepository.class);
+        when(orderRepository.existsById(anyLong())).thenReturn(true);
+        ModelCircuitBreaker circuitBreaker = mock(ModelCircuitBreaker.class);
+        when(circuitBreaker.isCallPermitted()).thenReturn(true);
+
+        when(receiptJobRepository.save(any(ReceiptJob.class))).thenAnswer(invocation -> {
+            ReceiptJob job = invocation.getArgument(0);
+            jobs.put(job.getId(), job);
+            return job;
+        });
+        when(receiptJobRepository.findById(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(jobs.get(invocation.<Long>getArgument(0))));
+
+        ReflectionTestUtils.setField(service, "receiptJobRepository", receiptJobRepository);
+        ReflectionTestUtils.setField(service, "receiptOcrService", receiptOcrService);
+        ReflectionTestUtils.setField(service, "imagePreprocessor", imagePreprocessor);
+        ReflectionTestUtils.setField(service, "fingerprintIndex", fingerprintIndex);
+        ReflectionTestUtils.setField(service, "orderRepository", orderRepository);
+        ReflectionTestUtils.setField(service, "circuitBreaker", circuitBreaker);
+        ReflectionTestUtils.setField(service, "directory", directory.toString());
+        ReflectionTestUtils.setField(service, "workers", 1);
+        ReflectionTestUtils.setField(service, "queueCapacity", 5);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        ReflectionTestUtils.setField(service, "initialBackoffSeconds", 30L);
+        ReflectionTestUtils.setField(service, "maxBackoffSeconds", 900L);
+        ReflectionTestUtils.invokeMethod(service, "init");
+
+        // One file saved before as order 10, and a new photo of order 11 one bit away from its hash
+        Path jobFiles = Files.createDirectories(directory.resolve(JOB_ID.toString()));
+        savedFile = Files.writeString(jobFiles.resolve("000-saved.jpg"), "saved");
+        reshotFile = Files.writeString(jobFiles.resolve("001-reshot.jpg"), "reshot");
+        fingerprintIndex.record(ImageFingerprintIndex.sha256(savedFile), null, null, 10L);
+        fingerprintIndex.record("earlier photo", 0x10L, 1.5f, 11L);
+        when(imagePreprocessor.prepare(reshotFile)).thenReturn(
+                new ReceiptImagePreprocessor.PreparedImage(ByteString.copyFromUtf8("reshot"), 0x11L, 1.5f));
+
+        ReceiptJob job = new ReceiptJob();
+        job.setId(JOB_ID);
+        job.setStatus(ReceiptJobStatus.QUEUED);
+        job.setStage("QUEUED");
+        job.setFileCount(2);
+        job.setCreatedTimestamp(Instant.now());
+        job.setUpdatedTimestamp(Instant.now());
+        jobs.put(JOB_ID, job);
+    }
+
+    @AfterEach
+    void shutdown() {
+        ReflectionTestUtils.invokeMethod(service, "shutdown");
+    }
+
+    @Test
+    void duplicatesAreAnsweredOrHeldWithoutOcr() throws Exception {
+        ReflectionTestUtils.invokeMethod(service, "runJob", JOB_ID);
+
+        ReceiptJob job = jobs.get(JOB_ID);
+        assertEquals(ReceiptJobStatus.NEEDS_CONFIRMATION, job.getStatus());
+        assertEquals(1, job.getDuplicatesSkipped());
+        assertEquals(1, job.getAwaitingConfirmation());
+        assertEquals("10", job.getOrderIds());
+        verify(receiptOcrService, never()).processReceipts(anyList(), anyList(), any());
+        // Held until the user confirms or dismisses the photo
+        assertTrue(Files.exists(reshotFile));
+    }
+
+    @Test
+    void confirmedPhotoIsProcessedAndFingerprinted() throws Exception {
+        String reshotSha256 = ImageFingerprintIndex.sha256(reshotFile);
+        List<ByteString> reshotImage = List.of(ByteString.copyFromUtf8("reshot"));
+        when(receiptOcrService.processReceipts(eq(List.of("reshot.jpg")), eq(reshotImage), any()))
+                .thenAnswer(invocation -> {
+                    ReceiptOcrService.ReceiptProgress progress = invocation.getArgument(2);
+                    ReceiptUploadResult result = new ReceiptUploadResult(List.of("reshot.jpg"), "1003", 12L, null,
+                            null);
+                    progress.textDetected(1);
+                    progress.receiptProcessed(result, List.of(0));
+                    return List.of(result);
+                });
+        ReflectionTestUtils.invokeMethod(service, "runJob", JOB_ID);
+
+        service.confirmNearDuplicates(JOB_ID);
+        for (int i = 0; i < 500 && !jobs.get(JOB_ID).isFinished(); i++) {
+            Thread.sleep(10);
+        }
+
+        ReceiptJob job = jobs.get(JOB_ID);
+        assertEquals(ReceiptJobStatus.COMPLETED, job.getStatus());
+        assertEquals(1, job.getDuplicatesSkipped());
+        assertEquals(0, job.getAwaitingConfirmation());
+        assertEquals("10,12", job.getOrderIds());
+        assertEquals(12L, fingerprintIndex.findExact(reshotSha256));
+        assertFalse(Files.exists(directory.resolve(JOB_ID.toString())));
+    }
+}
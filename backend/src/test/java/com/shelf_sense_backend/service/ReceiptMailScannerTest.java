@@ -0,0 +1,239 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.shelf_sense_backend.dto.EmailEnvelope;
+import com.shelf_sense_backend.model.MailFolderCheckpoint;
+import com.shelf_sense_backend.model.Order;
+import com.shelf_sense_backend.model.ShoppedItem;
+import com.shelf_sense_backend.repo.FailedEmailRepository;
+import com.shelf_sense_backend.repo.MailFolderCheckpointRepository;
+import com.shelf_sense_backend.repo.OrderRepository;
+import com.shelf_sense_backend.repo.ProcessedEmailRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+import jakarta.mail.UIDFolder;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+class ReceiptMailScannerTest {
+
+    private static final Pattern FETCH_COMMAND = Pattern.compile("^[A-Z]+\\d+ (UID )?FETCH ", Pattern.MULTILINE);
+    private static final Pattern SEARCH_COMMAND = Pattern.compile("^[A-Z]+\\d+ (UID )?SEARCH ", Pattern.MULTILINE);
+    private static final Pattern BODY_FETCH_COMMAND = Pattern.compile("^[A-Z]+\\d+ (UID )?FETCH \\S+ \\(BODY\\[\\]",
+            Pattern.MULTILINE);
+
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.IMAP)
+            .withConfiguration(GreenMailConfiguration.aConfig().withUser("receipts@example.com", "receipts", "secret"));
+
+    private final ReceiptMailScanner scanner = new ReceiptMailScanner("Oda: Kvittering");
+    private final ByteArrayOutputStream protocolTrace = new ByteArrayOutputStream();
+
+    private Store store;
+    private Folder folder;
+
+    @BeforeEach
+    void deliverMailbox() throws Exception {
+        GreenMailUser user = greenMail.getUserManager().getUser("receipts");
+        user.deliver(createMessage("Oda: Kvittering 1001"));
+        user.deliver(createMessage("Oda: Kvittering 1002"));
+        user.deliver(createMessage("Weekly offers"));
+        user.deliver(createMessage("Oda: Kvittering 1003"));
+        user.deliver(createMessage("Oda: Kvittering 1004"));
+
+        Session session = Session.getInstance(new Properties());
+        session.setDebug(true);
+        session.setDebugOut(new PrintStream(protocolTrace, true, StandardCharsets.UTF_8));
+        store = session.getStore("imap");
+        store.connect("localhost", ServerSetupTest.IMAP.getPort(), "receipts", "secret");
+        folder = store.getFolder("INBOX");
+        folder.open(Folder.READ_ONLY);
+    }
+
+    @AfterEach
+    void closeMailbox() throws Exception {
+        folder.close(false);
+        store.close();
+    }
+
+    @Test
+    void fullScanPrefetchesAllEnvelopesWithOneFetch() throws Exception {
+        protocolTrace.reset();
+
+        Message[] messages = scanner.findNewMessages(folder, 0);
+        List<EmailEnvelope> envelopes = scanner.prefetchEnvelopes(folder, messages);
+        envelopes.forEach(this::readAllHeaders);
+
+        assertEquals(4, envelopes.size());
+        assertEquals(1, countFetchCommands());
+    }
+
+    @Test
+    void incrementalScanOnlyFetchesMessagesAboveCheckpoint() throws Exception {
+        long lastUid = ((UIDFolder) folder).getUID(folder.getMessage(2));
+        protocolTrace.reset();
+
+        Message[] messages = scanner.findNewMessages(folder, lastUid);
+        List<EmailEnvelope> envelopes = scanner.prefetchEnvelopes(folder, messages);
+        envelopes.forEach(this::readAllHeaders);
+
+        assertEquals(2, envelopes.size());
+        assertTrue(envelopes.stream().allMatch(envelope -> envelope.uid() > lastUid));
+        // One UID FETCH to resolve the UID range, one FETCH for all envelopes
+        assertEquals(2, countFetchCommands());
+    }
+
+    @Test
+    void wholePollNeedsAFixedNumberOfMetadataRoundTrips(@TempDir Path spoolDirectory) throws Exception {
+        UIDFolder uidFolder = (UIDFolder) folder;
+        MailFolderCheckpoint checkpoint = new MailFolderCheckpoint();
+        checkpoint.setId(1L);
+        checkpoint.setFolderName("INBOX");
+        checkpoint.setUidValidity(uidFolder.getUIDValidity());
+        checkpoint.setLastProcessedUid(uidFolder.getUID(folder.getMessage(2)));
+        MailFolderCheckpointRepository checkpointRepository = mock(MailFolderCheckpointRepository.class);
+        when(checkpointRepository.findByFolderName("INBOX")).thenReturn(Optional.of(checkpoint));
+        ReceiptOrderWriter receiptOrderWriter = mock(ReceiptOrderWriter.class);
+        when(receiptOrderWriter.saveEmailOrder(anyString(), any(), any(Order.class), any()))
+                .thenAnswer(invocation -> {
+                    Order order = invocation.getArgument(2);
+                    order.setItems(invocation.getArgument(3));
+                    return order;
+                });
+        OrderEmailProcessingService service = pollingService(spoolDirectory, checkpointRepository, receiptOrderWriter);
+        protocolTrace.reset();
+
+        service.pollAndProcessEmails();
+
+        // Messages 3 to 5 are new, two of them receipts
+        verify(receiptOrderWriter, times(2)).saveEmailOrder(anyString(), any(), any(Order.class), any());
+        // Highest UID, the UID range above the checkpoint and the envelopes: one FETCH each, whatever the mailbox size
+        assertEquals(3, countFetchCommands() - count(BODY_FETCH_COMMAND));
+        assertEquals(1, count(SEARCH_COMMAND));
+        // Each receipt body is downloaded once, into the spool
+        assertEquals(2, count(BODY_FETCH_COMMAND));
+        assertEquals(uidFolder.getUID(folder.getMessage(5)), checkpoint.getLastProcessedUid());
+    }
+
+    private OrderEmailProcessingService pollingService(Path spoolDirectory,
+            MailFolderCheckpointRepository checkpointRepository, ReceiptOrderWriter receiptOrderWriter) {
+        Properties properties = new Properties();
+        properties.put("mail.imap.port", String.valueOf(ServerSetupTest.IMAP.getPort()));
+        Session session = Session.getInstance(properties);
+        session.setDebug(true);
+        session.setDebugOut(new PrintStream(protocolTrace, true, StandardCharsets.UTF_8));
+        ImapConnectionManager connectionManager = spy(new ImapConnectionManager(new SimpleMeterRegistry()));
+        doReturn(session).when(connectionManager).createSession();
+        ReflectionTestUtils.setField(connectionManager, "host", "localhost");
+        ReflectionTestUtils.setField(connectionManager, "username", "receipts");
+        ReflectionTestUtils.setField(connectionManager, "password", "secret");
+        ReflectionTestUtils.setField(connectionManager, "protocol", "imap");
+        ReflectionTestUtils.setField(connectionManager, "maxAgeMinutes", 60L);
+
+        MimeSpool mimeSpool = new MimeSpool();
+        ReflectionTestUtils.setField(mimeSpool, "enabled", true);
+        ReflectionTestUtils.setField(mimeSpool, "directory", spoolDirectory.toString());
+        ReflectionTestUtils.setField(mimeSpool, "segmentSizeMb", 1L);
+        ReflectionTestUtils.invokeMethod(mimeSpool, "open");
+
+        ProcessedEmailIndex processedEmailIndex = mock(ProcessedEmailIndex.class);
+        OrderRepository orderRepository = mock(OrderRepository.class);
+        when(orderRepository.findExistingOrderNumbers(anyCollection())).thenReturn(Set.of());
+        PendingExtractionQueue pendingExtractionQueue = mock(PendingExtractionQueue.class);
+        when(pendingExtractionQueue.findParkedMessageIds(anyCollection())).thenReturn(Set.of());
+        GroceryReceiptAnalyzer groceryReceiptAnalyzer = mock(GroceryReceiptAnalyzer.class);
+        when(groceryReceiptAnalyzer.parseReceipt(anyString(), any(Order.class)))
+                .thenAnswer(invocation -> List.of(new ShoppedItem()));
+
+        OrderEmailProcessingService service = new OrderEmailProcessingService();
+        ReflectionTestUtils.setField(service, "imapConnectionManager", connectionManager);
+        ReflectionTestUtils.setField(service, "receiptMailScanner", scanner);
+        ReflectionTestUtils.setField(service, "checkpointRepository", checkpointRepository);
+        ReflectionTestUtils.setField(service, "processedEmailRepository", mock(ProcessedEmailRepository.class));
+        ReflectionTestUtils.setField(service, "processedEmailIndex", processedEmailIndex);
+        ReflectionTestUtils.setField(service, "orderRepository", orderRepository);
+        ReflectionTestUtils.setField(service, "pendingExtractionQueue", pendingExtractionQueue);
+        ReflectionTestUtils.setField(service, "failedEmailRepository", mock(FailedEmailRepository.class));
+        ReflectionTestUtils.setField(service, "receiptOrderWriter", receiptOrderWriter);
+        ReflectionTestUtils.setField(service, "groceryReceiptAnalyzer", groceryReceiptAnalyzer);
+        ReflectionTestUtils.setField(service, "mimeSpool", mimeSpool);
+        ReflectionTestUtils.setField(service, "mimeTextExtractor", new MimeTextExtractor(1048576));
+        ReflectionTestUtils.setField(service, "odaReceiptParser", new OdaReceiptParser());
+        ReflectionTestUtils.setField(service, "subjectFilter", "Oda: Kvittering");
+        ReflectionTestUtils.setField(service, "folderName", "INBOX");
+        ReflectionTestUtils.setField(service, "minSentDateValue", "2025-01-01");
+        ReflectionTestUtils.setField(service, "extractionParallelism", 2);
+        ReflectionTestUtils.setField(service, "maxInFlight", 4);
+        ReflectionTestUtils.setField(service, "maxMessageAttempts", 8);
+        ReflectionTestUtils.invokeMethod(service, "initPipeline");
+        return service;
+    }
+
+    private void readAllHeaders(EmailEnvelope envelope) {
+        assertTrue(envelope.subject().startsWith("Oda: Kvittering"));
+        assertTrue(envelope.messageId() != null && envelope.sentDate() != null);
+    }
+
+    private int countFetchCommands() {
+        return count(FETCH_COMMAND);
+    }
+
+    private int count(Pattern command) {
+        Matcher matcher = command.matcher(protocolTrace.toString(StandardCharsets.UTF_8));
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    private MimeMessage createMessage(String subject) throws Exception {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setFrom(new InternetAddress("kundeservice@oda.com"));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress("receipts@example.com"));
+        message.setSubject(subject);
+        message.setSentDate(new Date());
+        message.setText("Bestilte varer\nBringebær 125 g\nOppsummering");
+        message.saveChanges();
+        return message;
+    }
+}
@@ -0,0 +1,154 @@
+package com.shelf_sense_backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.protobuf.ByteString;
+import com.shelf_sense_backend.dto.ReceiptUploadResult;
+import com.shelf_sense_backend.model.Order;
+import com.shelf_sense_backend.repo.OrderRepository;
+
+class ReceiptOcrServiceTest {
+
+    private final ReceiptOcrService service = new ReceiptOcrService();
+    private final VisionOcrClient visionOcrClient = mock(VisionOcrClient.class);
+    private final GroceryReceiptAnalyzer groceryReceiptAnalyzer = mock(GroceryReceiptAnalyzer.class);
+    private final ReceiptOrderWriter receiptOrderWriter = mock(ReceiptOrderWriter.class);
+    private final OrderRepository orderRepository = mock(OrderRepository.class);
+    private final List<String> analysedTexts = new ArrayList<>();
+
+    @BeforeEach
+    void wireService() {
+        ReflectionTestUtils.setField(service, "visionOcrClient", visionOcrClient);
+        ReflectionTestUtils.setField(service, "groceryReceiptAnalyzer", groceryReceiptAnalyzer);
+        ReflectionTestUtils.setField(service, "receiptOrderWriter", receiptOrderWriter);
+        ReflectionTestUtils.setField(service, "orderRepository", orderRepository);
+        ReflectionTestUtils.setField(service, "odaReceiptParser", new OdaReceiptParser());
+
+        when(orderRepository.findByOrderNumber(anyString())).thenReturn(Optional.empty());
+        when(groceryReceiptAnalyzer.parseReceipt(anyString(), any(Order.class), any())).thenAnswer(invocation -> {
+            analysedTexts.add(invocation.getArgument(0));
+            return new ArrayList<>();
+        });
+        when(receiptOrderWriter.saveReceiptOrder(any(Order.class), anyList())).thenAnswer(invocation -> {
+            Order order = invocation.getArgument(0);
+            order.setId(Long.valueOf(order.getOrderNumber()));
+            return order;
+        });
+    }
+
+    @Test
+    void linesRepeatedAtTheSeamAreKeptOnce() {
+        ReceiptOcrService.ReceiptPages pages = new ReceiptOcrService.ReceiptPages("1001");
+
+        pages.add(0, "top.jpg", "Ordre #1001\nBananer 29,90\nTine Lettmelk 1 l");
+        pages.add(1, "bottom.jpg", "Bananer 29,90\nTine Lettmelk 1 l\n2 stk 49,80\nTotal 79,70");
+
+        assertEquals("Ordre #1001\nBananer 29,90\nTine Lettmelk 1 l\n2 stk 49,80\nTotal 79,70\n",
+                pages.text.toString());
+        assertEquals(List.of("top.jpg", "bottom.jpg"), pages.files);
+        assertEquals(List.of(0, 1), pages.images);
+    }
+
+    @Test
+    void overlapIsTheLongestSuffixThatStartsTheNextPage() {
+        assertEquals(2, ReceiptOcrService.ReceiptPages.overlap(List.of("a", "b", "c"), List.of("b", "c", "d")));
+        assertEquals(0, ReceiptOcrService.ReceiptPages.overlap(List.of("a", "b", "c"), List.of("a", "b", "d")));
+        assertEquals(0, ReceiptOcrService.ReceiptPages.overlap(List.of(), List.of("a")));
+        // At most eight lines are compared
+        List<String> nineLines = List.of("1", "2", "3", "4", "5", "6", "7", "8", "9");
+        assertEquals(0, ReceiptOcrService.ReceiptPages.overlap(nineLines, nineLines));
+    }
+
+    @Test
+    void photoOpeningWithAHeaderAfterTheTotalStartsAnotherReceipt() {
+        ReceiptOcrService.ReceiptPages pages = new ReceiptOcrService.ReceiptPages("1001");
+        pages.add(0, "top.jpg", "Ordre #1001\nBananer 29,90");
+
+        assertFalse(pages.isFollowedBy("Kvittering\nEgg 12 stk 49,90"));
+        pages.add(1, "bottom.jpg", "Tine Lettmelk 1 l 2 stk 49,80\nTotal 79,70\nBetalt med kort");
+
+        assertFalse(pages.isFollowedBy("Egg 12 stk 49,90\nTotal 49,90"));
+        assertTrue(pages.isFollowedBy("\nOda\nKvittering\nEgg 12 stk 49,90"));
+    }
+
+    @Test
+    void photosAreGroupedIntoReceipts() throws Exception {
+        List<ReceiptUploadResult> results = process(
+                "1.jpg", "Ordre #1001 12.03.2025\nBananer 29,90\nTine Lettmelk 1 l",
+                "2.jpg", "Tine Lettmelk 1 l\n2 stk 49,80\nTotal 79,70",
+                "3.jpg", "Ordre #1002 13.03.2025\nEgg 12 stk 49,90",
+                "4.jpg", "Kaffe 500 g 89,90\nTotal 139,80",
+                // A different receipt whose number was cut off
+                "5.jpg", "Kvittering\nSmør 500 g 54,90\nTotal 54,90");
+
+        assertEquals(3, results.size());
+        assertResult(results.get(0), "1001", List.of("1.jpg", "2.jpg"));
+        assertResult(results.get(1), "1002", List.of("3.jpg", "4.jpg"));
+        assertResult(results.get(2), null, List.of("5.jpg"));
+        assertNull(results.get(0).error());
+        assertEquals("No order number found in the receipt", results.get(2).error());
+        assertEquals("Ordre #1001 12.03.2025\nBananer 29,90\nTine Lettmelk 1 l\n2 stk 49,80\nTotal 79,70\n",
+                analysedTexts.get(0));
+    }
+
+    @Test
+    void photosThatDoNotOverlapAreStitchedIntoOneReceipt() throws Exception {
+        List<ReceiptUploadResult> results = process(
+                "1.jpg", "Ordre #1001 12.03.2025\nBananer 29,90",
+                // OCR read the seam differently, so nothing repeats
+                "2.jpg", "Tine Lettmelk 1 l 2 stk 49,80",
+                "3.jpg", "Egg 12 stk 49,90\nTotal 129,60");
+
+        assertEquals(1, results.size());
+        assertResult(results.get(0), "1001", List.of("1.jpg", "2.jpg", "3.jpg"));
+        assertEquals(1001L, results.get(0).orderId());
+        assertEquals("Ordre #1001 12.03.2025\nBananer 29,90\nTine Lettmelk 1 l 2 stk 49,80\nEgg 12 stk 49,90\n"
+                + "Total 129,60\n", analysedTexts.get(0));
+    }
+
+    @Test
+    void numberOnALaterPhotoNamesTheReceipt() throws Exception {
+        List<ReceiptUploadResult> results = process(
+                "1.jpg", "Bananer 29,90\nTine Lettmelk 1 l",
+                "2.jpg", "2 stk 49,80\nOrdre #1003 14.03.2025");
+
+        assertEquals(1, results.size());
+        assertResult(results.get(0), "1003", List.of("1.jpg", "2.jpg"));
+        assertEquals(1003L, results.get(0).orderId());
+    }
+
+    private List<ReceiptUploadResult> process(String... filesAndTexts) throws Exception {
+        List<String> fileNames = new ArrayList<>();
+        List<ByteString> images = new ArrayList<>();
+        List<VisionOcrClient.DetectedText> texts = new ArrayList<>();
+        for (int i = 0; i < filesAndTexts.length; i += 2) {
+            fileNames.add(filesAndTexts[i]);
+            images.add(ByteString.copyFromUtf8(filesAndTexts[i]));
+            texts.add(new VisionOcrClient.DetectedText(filesAndTexts[i + 1], null));
+        }
+        when(visionOcrClient.detectText(images)).thenReturn(texts);
+        return service.processReceipts(fileNames, images, new ReceiptOcrService.ReceiptProgress() {
+        });
+    }
+
+    private static void assertResult(ReceiptUploadResult result, String orderNumber, List<String> files) {
+        assertEquals(orderNumber, result.orderNumber());
+        assertEquals(files, result.files());
+    }
+}